@@ -0,0 +1,56 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.*;
+
+import com.google.gson.*;
+
+/**
+ * Building a result of 100k job rows as a JsonObject and as a {@link ColumnStore}.<br>
+ * The time is JMH's score, and -prof gc adds the bytes allocated per build as gc.alloc.rate.norm.
+ * What each form goes on to hold, excluding the value Strings which both share, is measured with JOL and printed once per fork as bytes per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColumnStoreBenchmark
+{
+	private final static int ROWS = 100000;
+
+	private String[][] gValues;
+
+	@Setup
+	public void setUp()
+	{
+		gValues = JobRows.values(ROWS);
+
+		// Retained size of each form, less that of the values, which either form would have to hold
+		long lValues = GraphLayout.parseInstance((Object)gValues).totalSize();
+		long lJson = GraphLayout.parseInstance(JobRows.asJson(gValues), gValues).totalSize() - lValues;
+		long lStore = GraphLayout.parseInstance(JobRows.asColumnStore(gValues), gValues).totalSize() - lValues;
+
+		System.out.println(String.format("%nRetained: JsonObject %.1f bytes/row, ColumnStore %.1f bytes/row", (double)lJson / ROWS, (double)lStore / ROWS));
+	}
+
+	@Benchmark
+	public JsonObject buildJson()
+	{
+		return(JobRows.asJson(gValues));
+	}
+
+	@Benchmark
+	public ColumnStore buildColumnStore()
+	{
+		return(JobRows.asColumnStore(gValues));
+	}
+}
@@ -0,0 +1,95 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import java.sql.*;
+
+import com.google.gson.*;
+
+/**
+ * Rows shaped like the job table, 4 VARCHAR columns, in each of the forms a {@link JsonBackedResultSet} can read, for the benchmarks
+ */
+final class JobRows
+{
+	protected final static String[] NAMES = {"groupname", "projectname", "versionname", "jobname"};
+	protected final static int[] TYPES = {Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR};
+
+	/**
+	 * The values, as the REST API would name things
+	 */
+	protected static String[][] values(int pRows)
+	{
+		String[][] arrRet = new String[pRows][];
+		for(int i = 0; i < pRows; i++)
+		{
+			arrRet[i] = new String[] {"Group " + (i % 10), "Project " + (i % 100), "default", "Job " + i};
+		}
+		return(arrRet);
+	}
+
+	/**
+	 * As every result was built before ColumnStore: a 'data' array with a JsonObject for each row
+	 */
+	protected static JsonObject asJson(String[][] pValues)
+	{
+		JsonObject jRet = DatabaseMetaDataStub.getBaseJson();
+		for(String sName : NAMES)
+		{
+			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(new JsonPrimitive(sName));
+		}
+
+		JsonArray jData = jRet.getAsJsonArray("data");
+		for(String[] arrRow : pValues)
+		{
+			JsonObject jRow = new JsonObject();
+			for(int i = 0; i < NAMES.length; i++)
+			{
+				jRow.addProperty(NAMES[i], arrRow[i]);
+			}
+			jData.add(jRow);
+		}
+		return(jRet);
+	}
+
+	protected static ColumnStore asColumnStore(String[][] pValues)
+	{
+		ColumnStore csRet = new ColumnStore(NAMES, TYPES);
+		for(String[] arrRow : pValues)
+		{
+			int iRow = csRet.addRow();
+			for(int i = 0; i < NAMES.length; i++)
+			{
+				csRet.setString(iRow, i, arrRow[i]);
+			}
+		}
+		return(csRet);
+	}
+
+	/**
+	 * As the REST API walk produces them, one at a time
+	 */
+	protected static RowCursor asCursor(final String[][] pValues)
+	{
+		return(new RowCursor()
+		{
+			private int gNext = 0;
+
+			@Override
+			public String[] next()
+			{
+				return(gNext < pValues.length ? pValues[gNext++] : null);
+			}
+
+			@Override
+			public void close() {}
+		});
+	}
+
+	// This class is only used statically
+	private JobRows()
+	{
+	}
+}
@@ -0,0 +1,77 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import java.sql.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import com.google.gson.*;
+
+/**
+ * Reading 100k job rows with next() and getString on each of the 4 columns, from each form of {@link JsonBackedResultSet}:
+ * over a JsonObject, over a {@link ColumnStore}, and over a {@link RowCursor} which fills a reused ColumnStore a batch at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBackedResultSetBenchmark
+{
+	private final static int ROWS = 100000;
+	private final static int FETCH_SIZE = 1000;
+
+	@Param({"json", "columnstore", "cursor"})
+	public String form;
+
+	private String[][] gValues;
+	private JsonObject gJson;
+	private ColumnStore gStore;
+
+	@Setup
+	public void setUp()
+	{
+		gValues = JobRows.values(ROWS);
+		gJson = JobRows.asJson(gValues);
+		gStore = JobRows.asColumnStore(gValues);
+	}
+
+	@Benchmark
+	public int nextAndGetString(Blackhole bh)
+		throws SQLException
+	{
+		int iRows = 0;
+		try(ResultSet rs = open())
+		{
+			while(rs.next())
+			{
+				bh.consume(rs.getString(1));
+				bh.consume(rs.getString(2));
+				bh.consume(rs.getString(3));
+				bh.consume(rs.getString(4));
+				iRows++;
+			}
+		}
+		return(iRows);
+	}
+
+	private ResultSet open()
+	{
+		switch(form)
+		{
+			case "json":
+				return(new JsonBackedResultSet(gJson));
+			case "columnstore":
+				return(new JsonBackedResultSet(gStore));
+			default:
+				return(new JsonBackedResultSet(new ColumnStore(JobRows.NAMES, JobRows.TYPES), JobRows.asCursor(gValues), FETCH_SIZE));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Routing a statement to its table: by the regular expressions which prepareStatementImpl compiled on every call before {@link QueryPlan},
+ * by parsing it into a new QueryPlan, and by finding its QueryPlan in the cache. Each operation is one statement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryPlanBenchmark
+{
+	// As a BI tool sends them. The old expressions only recognise unqualified table names
+	private final static String[] STATEMENTS = {
+		"SELECT \"instanceid\", \"hostname\" FROM \"instance\"",
+		"SELECT COUNT(*) FROM (SELECT * FROM \"joblaunchstats\") t",
+		"SELECT \"groupname\" FROM \"group\" LIMIT 100",
+		"SELECT \"groupname\", \"projectname\" FROM \"project\" WHERE \"groupname\" = 'Sales'",
+		"SELECT * FROM \"version\" WHERE \"groupname\" = 'Sales' AND \"projectname\" IN ('Orders', 'Returns')",
+		"SELECT \"groupname\", \"projectname\", \"versionname\", \"jobname\"\nFROM \"job\"\nWHERE \"groupname\" = 'Sales' AND \"projectname\" = 'Orders' AND \"versionname\" = 'default'\nLIMIT 1000",
+		"SELECT COUNT(*) FROM (SELECT \"jobname\" FROM \"job\") t"
+	};
+
+	private int gUnique = 0;
+
+	@Setup
+	public void setUp(Blackhole bh)
+		throws SQLException
+	{
+		for(String sSql : STATEMENTS)
+		{
+			if(!QueryPlan.parse(sSql).getTable().equals(routeByRegex(sSql, bh)))
+			{
+				throw(new IllegalStateException("Routed differently: " + sSql));
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(7)
+	public void regex(Blackhole bh)
+	{
+		for(String sSql : STATEMENTS)
+		{
+			bh.consume(routeByRegex(sSql, bh));
+		}
+	}
+
+	// A comment which is different every time makes each statement new to the cache, without changing what it says
+	@Benchmark
+	@OperationsPerInvocation(7)
+	public void parse(Blackhole bh)
+		throws SQLException
+	{
+		String sComment = " /* " + gUnique++ + " */";
+		for(String sSql : STATEMENTS)
+		{
+			bh.consume(QueryPlan.parse(sSql + sComment));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(7)
+	public void cached(Blackhole bh)
+		throws SQLException
+	{
+		for(String sSql : STATEMENTS)
+		{
+			bh.consume(QueryPlan.parse(sSql));
+		}
+	}
+
+	// What prepareStatementImpl did before QueryPlan, down to which table it chose
+	private static String routeByRegex(String sql, Blackhole bh)
+	{
+		Pattern p;
+		Matcher m;
+
+		boolean bIsCount = false;
+		Integer iRowLimit = null;
+
+		p = Pattern.compile("SELECT\\s+COUNT\\(\\*\\)\\s+", Pattern.MULTILINE | Pattern.DOTALL);
+		m = p.matcher(sql);
+		bIsCount = m.find();
+
+		if(false == bIsCount)
+		{
+			p = Pattern.compile("LIMIT\\s(\\d+)", Pattern.MULTILINE | Pattern.DOTALL);
+			m = p.matcher(sql);
+			if(m.find())
+			{
+				iRowLimit = Integer.valueOf(m.group(1));
+			}
+		}
+		bh.consume(bIsCount);
+		bh.consume(iRowLimit);
+
+		if(Pattern.compile("SELECT.*FROM.*\"instance\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL).matcher(sql).find())
+		{
+			return("instance");
+		}
+		if(Pattern.compile("SELECT.*FROM.*\"joblaunchstats\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL).matcher(sql).find())
+		{
+			return("joblaunchstats");
+		}
+		for(String sTable : new String[] {"group", "project", "schedule", "environment", "version", "runningjob", "job"})
+		{
+			if(Pattern.compile("SELECT.*FROM[\\s\"]+" + sTable + "\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL).matcher(sql).find())
+			{
+				return(sTable);
+			}
+		}
+		return(null);
+	}
+}
@@ -0,0 +1,135 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *	Lets one execution of a {@link JsonBackedStatement} be stopped, either by {@link JsonBackedStatement#cancel} or when its query timeout runs out.<br>
+ *	It is passed to the {@link RowCursor.Factory}, so that whatever produces the rows can check it, and can register actions which stop outstanding work straight away,
+ *	such as closing a socket which is waiting for a response. Those actions may be run on any thread, so they must be quick and must not throw.
+ */
+public final class Cancellation
+{
+	private final static ScheduledThreadPoolExecutor gTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "JDBC-timeout");
+			t.setDaemon(true);
+			return(t);
+		}
+	});
+
+	static
+	{
+		// Most queries finish long before their timeout, so don't keep their timers until then
+		gTimer.setRemoveOnCancelPolicy(true);
+	}
+
+	private final int gTimeoutSecs;
+	private final ScheduledFuture<?> gTimeout;
+	private final LinkedHashSet<Runnable> gActions = new LinkedHashSet<Runnable>();
+	private volatile boolean gCancelled = false;
+	private boolean gTimedOut = false;
+
+	/**
+	 *	@param pTimeoutSecs Cancel automatically after this many seconds, or never if it is 0, as per {@link Statement#setQueryTimeout}
+	 */
+	public Cancellation(int pTimeoutSecs)
+	{
+		this.gTimeoutSecs = pTimeoutSecs;
+		this.gTimeout = pTimeoutSecs <= 0 ? null : gTimer.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				cancel(true);
+			}
+		}, pTimeoutSecs, TimeUnit.SECONDS);
+	}
+
+	/**
+	 *	Stop the execution, running every registered action. Cancelling again has no effect
+	 */
+	public void cancel()
+	{
+		cancel(false);
+	}
+
+	private synchronized void cancel(boolean bTimedOut)
+	{
+		if(gCancelled)
+		{
+			return;
+		}
+		gCancelled = true;
+		gTimedOut = bTimedOut;
+
+		for(Runnable r : gActions)
+		{
+			r.run();
+		}
+		gActions.clear();
+	}
+
+	public boolean isCancelled()
+	{
+		return(gCancelled);
+	}
+
+	/**
+	 *	@throws SQLException If the execution has been cancelled, saying whether it was because of the timeout
+	 */
+	public synchronized void check()
+		throws SQLException
+	{
+		if(!gCancelled)
+		{
+			return;
+		}
+		if(gTimedOut)
+		{
+			throw(new SQLTimeoutException(String.format("The query did not finish within its timeout of %d seconds", gTimeoutSecs), "HYT00"));
+		}
+		throw(new SQLException("The query was cancelled", "HY008"));
+	}
+
+	/**
+	 *	Register an action to run when the execution is cancelled. If it already has been, the action is run straight away
+	 */
+	public synchronized void add(Runnable pAction)
+	{
+		if(gCancelled)
+		{
+			pAction.run();
+			return;
+		}
+		gActions.add(pAction);
+	}
+
+	/**
+	 *	Unregister an action, once the work it would stop has finished. After this returns the action is not running, and never will
+	 */
+	public synchronized void remove(Runnable pAction)
+	{
+		gActions.remove(pAction);
+	}
+
+	/**
+	 *	The execution is over, so it can no longer time out, and its timer needn't be kept until then
+	 */
+	public void finish()
+	{
+		if(null != gTimeout)
+		{
+			gTimeout.cancel(false);
+		}
+	}
+}
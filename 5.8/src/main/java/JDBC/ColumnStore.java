@@ -0,0 +1,309 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ *	This is a compact, column-oriented alternative to the JsonObject dataset described in the package documentation.<br>
+ *	The column names are held once, in a dictionary shared by every row, and each column's values are held in one typed array:
+ *	<ul>
+ *	<li>java.sql.Types.VARCHAR columns in a String[]</li>
+ *	<li>java.sql.Types.BIGINT and java.sql.Types.INTEGER columns in a long[]</li>
+ *	<li>java.sql.Types.DOUBLE columns in a double[]</li>
+ *	</ul>
+ *	Column positions are zero based. Build one by calling {@link #addRow} and then the setXxx() methods, and pass it to a {@link JsonBackedStatement} or {@link JsonBackedResultSet}.
+ */
+public class ColumnStore
+{
+	private final static int INITIAL_CAPACITY = 16;
+
+	private final String[] gNames;
+	private final int[] gTypes;
+	private final HashMap<String,Integer> gDictionary;
+
+	private final Object[] gColumns;
+	// Which values have been set, rather than which are null. BitSet.clear() searches back from the end for the highest set bit,
+	// so clearing a null flag for every value, as a row is filled in, would make building a store quadratic in its length
+	private final BitSet[] gPresent;
+
+	private int gRowCount;
+	private int gCapacity;
+
+	/**
+	 *	Constructs an empty {@link ColumnStore} in which every column is a VARCHAR
+	 *	@param pNames The column names
+	 */
+	public ColumnStore(String[] pNames)
+	{
+		this(pNames, null);
+	}
+
+	/**
+	 *	Constructs an empty {@link ColumnStore}
+	 *	@param pNames The column names
+	 *	@param pTypes The column types from java.sql.Types, one per name. If null, every column is a VARCHAR
+	 */
+	public ColumnStore(String[] pNames, int[] pTypes)
+	{
+		this.gNames = pNames.clone();
+		this.gTypes = new int[pNames.length];
+		this.gDictionary = new HashMap<String,Integer>();
+		this.gColumns = new Object[pNames.length];
+		this.gPresent = new BitSet[pNames.length];
+		this.gRowCount = 0;
+		this.gCapacity = INITIAL_CAPACITY;
+
+		for(int i = 0; i < pNames.length; i++)
+		{
+			gDictionary.put(pNames[i], Integer.valueOf(i));
+			gTypes[i] = null == pTypes ? Types.VARCHAR : pTypes[i];
+			gPresent[i] = new BitSet();
+
+			switch(gTypes[i])
+			{
+				case Types.VARCHAR:
+					gColumns[i] = new String[gCapacity];
+					break;
+				case Types.BIGINT:
+				case Types.INTEGER:
+					gColumns[i] = new long[gCapacity];
+					break;
+				case Types.DOUBLE:
+					gColumns[i] = new double[gCapacity];
+					break;
+				default:
+					throw(new IllegalArgumentException(String.format("Unsupported type %d for column %s", gTypes[i], pNames[i])));
+			}
+		}
+	}
+
+	/**
+	 *	Appends a new row, in which every value is initially null
+	 *	@return int The new row's position
+	 */
+	public int addRow()
+	{
+		if(gRowCount == gCapacity)
+		{
+			grow();
+		}
+
+		return(gRowCount++);
+	}
+
+	/**
+	 *	Removes every row, keeping the capacity so the store can be refilled without allocating
+	 */
+	public void clear()
+	{
+		for(int i = 0; i < gColumns.length; i++)
+		{
+			if(gColumns[i] instanceof String[])
+			{
+				Arrays.fill((String[])gColumns[i], 0, gRowCount, null);
+			}
+			gPresent[i].clear();
+		}
+		gRowCount = 0;
+	}
+
+	private void grow()
+	{
+		gCapacity *= 2;
+
+		for(int i = 0; i < gColumns.length; i++)
+		{
+			if(gColumns[i] instanceof String[])
+			{
+				gColumns[i] = Arrays.copyOf((String[])gColumns[i], gCapacity);
+			}
+			else if(gColumns[i] instanceof long[])
+			{
+				gColumns[i] = Arrays.copyOf((long[])gColumns[i], gCapacity);
+			}
+			else
+			{
+				gColumns[i] = Arrays.copyOf((double[])gColumns[i], gCapacity);
+			}
+		}
+	}
+
+	/**
+	 *	Sets a value from its String form, converting it to the column's type
+	 *	@throws NumberFormatException If a value for a numeric column isn't a number
+	 */
+	public void setString(int pRow, int pColumn, String pValue)
+	{
+		if(null == pValue)
+		{
+			// A new row's values are already null
+			if(gPresent[pColumn].get(pRow))
+			{
+				gPresent[pColumn].clear(pRow);
+			}
+			return;
+		}
+
+		switch(gTypes[pColumn])
+		{
+			case Types.VARCHAR:
+				((String[])gColumns[pColumn])[pRow] = pValue;
+				break;
+			case Types.BIGINT:
+			case Types.INTEGER:
+				((long[])gColumns[pColumn])[pRow] = Long.parseLong(pValue.trim());
+				break;
+			default:
+				((double[])gColumns[pColumn])[pRow] = Double.parseDouble(pValue.trim());
+				break;
+		}
+		gPresent[pColumn].set(pRow);
+	}
+
+	public void setLong(int pRow, int pColumn, long pValue)
+	{
+		switch(gTypes[pColumn])
+		{
+			case Types.VARCHAR:
+				((String[])gColumns[pColumn])[pRow] = Long.toString(pValue);
+				break;
+			case Types.BIGINT:
+			case Types.INTEGER:
+				((long[])gColumns[pColumn])[pRow] = pValue;
+				break;
+			default:
+				((double[])gColumns[pColumn])[pRow] = pValue;
+				break;
+		}
+		gPresent[pColumn].set(pRow);
+	}
+
+	public void setDouble(int pRow, int pColumn, double pValue)
+	{
+		switch(gTypes[pColumn])
+		{
+			case Types.VARCHAR:
+				((String[])gColumns[pColumn])[pRow] = Double.toString(pValue);
+				break;
+			case Types.BIGINT:
+			case Types.INTEGER:
+				((long[])gColumns[pColumn])[pRow] = (long)pValue;
+				break;
+			default:
+				((double[])gColumns[pColumn])[pRow] = pValue;
+				break;
+		}
+		gPresent[pColumn].set(pRow);
+	}
+
+	/**
+	 *	@return String The value in its String form, or null
+	 */
+	public String getString(int pRow, int pColumn)
+	{
+		if(!gPresent[pColumn].get(pRow))
+		{
+			return(null);
+		}
+
+		switch(gTypes[pColumn])
+		{
+			case Types.VARCHAR:
+				return(((String[])gColumns[pColumn])[pRow]);
+			case Types.BIGINT:
+			case Types.INTEGER:
+				return(Long.toString(((long[])gColumns[pColumn])[pRow]));
+			default:
+				return(Double.toString(((double[])gColumns[pColumn])[pRow]));
+		}
+	}
+
+	/**
+	 *	@return long The value, or 0 if it is null
+	 *	@throws NumberFormatException If a VARCHAR value isn't a number
+	 */
+	public long getLong(int pRow, int pColumn)
+	{
+		if(!gPresent[pColumn].get(pRow))
+		{
+			return(0L);
+		}
+
+		switch(gTypes[pColumn])
+		{
+			case Types.VARCHAR:
+				return(Long.parseLong(((String[])gColumns[pColumn])[pRow].trim()));
+			case Types.BIGINT:
+			case Types.INTEGER:
+				return(((long[])gColumns[pColumn])[pRow]);
+			default:
+				return((long)((double[])gColumns[pColumn])[pRow]);
+		}
+	}
+
+	/**
+	 *	@return double The value, or 0 if it is null
+	 *	@throws NumberFormatException If a VARCHAR value isn't a number
+	 */
+	public double getDouble(int pRow, int pColumn)
+	{
+		if(!gPresent[pColumn].get(pRow))
+		{
+			return(0D);
+		}
+
+		switch(gTypes[pColumn])
+		{
+			case Types.VARCHAR:
+				return(Double.parseDouble(((String[])gColumns[pColumn])[pRow].trim()));
+			case Types.BIGINT:
+			case Types.INTEGER:
+				return(((long[])gColumns[pColumn])[pRow]);
+			default:
+				return(((double[])gColumns[pColumn])[pRow]);
+		}
+	}
+
+	public boolean isNull(int pRow, int pColumn)
+	{
+		return(!gPresent[pColumn].get(pRow));
+	}
+
+	public int getRowCount()
+	{
+		return(gRowCount);
+	}
+
+	public int getColumnCount()
+	{
+		return(gNames.length);
+	}
+
+	public String getColumnName(int pColumn)
+	{
+		return(gNames[pColumn]);
+	}
+
+	/**
+	 *	@return int The column's type from java.sql.Types
+	 */
+	public int getColumnType(int pColumn)
+	{
+		return(gTypes[pColumn]);
+	}
+
+	/**
+	 *	Looks up a column in the dictionary
+	 *	@return int The zero based column position, or -1 if there is no such column
+	 */
+	public int findColumn(String pName)
+	{
+		Integer iPos = gDictionary.get(pName);
+		return(null == iPos ? -1 : iPos.intValue());
+	}
+}
@@ -32,6 +32,18 @@ public abstract class DatabaseMetaDataStub
 	public abstract String[] getColumnNamesForTable(String pTableName)
 		throws SQLException;
 
+	/**
+	 *	Override this method if any of the supplied table's columns are not VARCHAR
+	 *	@param pTableName The table name
+	 *	@return int[] The java.sql.Types value of each column, in the same order as {@link #getColumnNamesForTable}, or null if they are all VARCHAR
+	 *	@throws SQLException If the supplied table name is not known
+	 */
+	public int[] getColumnTypesForTable(String pTableName)
+		throws SQLException
+	{
+		return(null);
+	}
+
 	/**
 	 *	Override to return the name of your JDBC driver
 	 */
@@ -72,12 +84,9 @@ public abstract class DatabaseMetaDataStub
 	 */
 	public static JsonBackedStatement getRowcountStatement(int pCount, String pCatalogName, String pSchemaName)
 	{
-		JsonObject jRet = DatabaseMetaDataStub.getBaseJson();
-		jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("counter");
-		JsonObject jRow;
-		jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-		jRow.addProperty("counter", String.format("%d", pCount));
-		return(new JsonBackedStatement(jRet, pCatalogName, pSchemaName));
+		ColumnStore csRet = new ColumnStore(new String[] {"counter"}, new int[] {java.sql.Types.BIGINT});
+		csRet.setLong(csRet.addRow(), 0, pCount);
+		return(new JsonBackedStatement(csRet, pCatalogName, pSchemaName));
 	}
 
 	/**
@@ -104,14 +113,10 @@ public abstract class DatabaseMetaDataStub
 	 */
 	public ResultSet getSchemas()
 	{
-		JsonObject jRet = DatabaseMetaDataStub.getBaseJson();
-		jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("name");
-
-		JsonObject row0;
-		jRet.getAsJsonArray("data").add(row0 = new JsonObject());
-		row0.addProperty("name", getSchemaName());
+		ColumnStore csRet = new ColumnStore(new String[] {"name"});
+		csRet.setString(csRet.addRow(), 0, getSchemaName());
 
-		return(new JsonBackedResultSet(jRet));
+		return(new JsonBackedResultSet(csRet));
 	}
 
 	/**
@@ -133,9 +138,9 @@ public abstract class DatabaseMetaDataStub
 	 *  <li>TABLE_SCHEM String => table schema, set to the output of {@link #getSchemaName}</li>
 	 *  <li>TABLE_NAME String => table name</li>
 	 *  <li>COLUMN_NAME String => column name</li>
-	 *  <li>DATA_TYPE int => SQL type from java.sql.Types, and we are always making a VARCHAR</li>
-	 *  <li>TYPE_NAME String => Data source dependent type name, which is always VARCHAR</li>
-	 *  <li>COLUMN_SIZE int => column size (fixed at 80)</li>
+	 *  <li>DATA_TYPE int => SQL type from java.sql.Types, as per {@link #getColumnTypesForTable}</li>
+	 *  <li>TYPE_NAME String => Data source dependent type name, e.g. VARCHAR or BIGINT</li>
+	 *  <li>COLUMN_SIZE int => column size (80 for a VARCHAR, otherwise the numeric precision)</li>
 	 *	</ul>
 	 *	There are supposed to be more metadata columns, but we are just ignoring those
 	 *	@param catalog This parameter is ignored
@@ -148,33 +153,29 @@ public abstract class DatabaseMetaDataStub
 	{
 		if(null != tableNamePattern)
 		{
-			JsonObject jRet = DatabaseMetaDataStub.getBaseJson();
-
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("TABLE_CAT");
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("TABLE_SCHEM");
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("TABLE_NAME");
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("COLUMN_NAME");
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("DATA_TYPE");
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("TYPE_NAME");
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("COLUMN_SIZE");
+			ColumnStore csRet = new ColumnStore(
+				new String[] {"TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME", "COLUMN_NAME", "DATA_TYPE", "TYPE_NAME", "COLUMN_SIZE"},
+				new int[] {java.sql.Types.VARCHAR, java.sql.Types.VARCHAR, java.sql.Types.VARCHAR, java.sql.Types.VARCHAR, java.sql.Types.INTEGER, java.sql.Types.VARCHAR, java.sql.Types.INTEGER});
 
 			String[] tabColArr = getColumnNamesForTable(tableNamePattern);
+			int[] tabTypeArr = getColumnTypesForTable(tableNamePattern);
 
 			if(null != tabColArr)
 			{
-				for(String s: tabColArr)
+				for(int i = 0; i < tabColArr.length; i++)
 				{
-					JsonObject jrow;
-					jRet.getAsJsonArray("data").add(jrow = new JsonObject());
-					jrow.addProperty("TABLE_CAT", getCatalogTerm());
-					jrow.addProperty("TABLE_SCHEM", getSchemaName());
-					jrow.addProperty("TABLE_NAME", tableNamePattern);
-					jrow.addProperty("COLUMN_NAME", s);
-					jrow.addProperty("DATA_TYPE", java.sql.Types.VARCHAR);
-					jrow.addProperty("TYPE_NAME", "VARCHAR");
-					jrow.addProperty("COLUMN_SIZE", 80);
+					int iType = null == tabTypeArr ? java.sql.Types.VARCHAR : tabTypeArr[i];
+
+					int iRow = csRet.addRow();
+					csRet.setString(iRow, 0, getCatalogTerm());
+					csRet.setString(iRow, 1, getSchemaName());
+					csRet.setString(iRow, 2, tableNamePattern);
+					csRet.setString(iRow, 3, tabColArr[i]);
+					csRet.setLong(iRow, 4, iType);
+					csRet.setString(iRow, 5, JsonBackedResultSetMetadata.getTypeName(iType));
+					csRet.setLong(iRow, 6, JsonBackedResultSetMetadata.getPrecisionForType(iType));
 				}
-				return(new JsonBackedResultSet(jRet));
+				return(new JsonBackedResultSet(csRet));
 			}
 		}
 
@@ -198,23 +199,17 @@ public abstract class DatabaseMetaDataStub
 	public ResultSet getTables(String catalog, String schemaPattern, String tableNamePattern, String[] types)
 		throws SQLException
 	{
-		JsonObject jRet = DatabaseMetaDataStub.getBaseJson();
-
-		jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("TABLE_CAT");
-		jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("TABLE_SCHEM");
-		jRet.getAsJsonObject("metadata").getAsJsonArray("names").add("TABLE_NAME");
+		ColumnStore csRet = new ColumnStore(new String[] {"TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME"});
 
 		for(String s : getTableNames())
 		{
-			JsonObject jrow;
-
-			jRet.getAsJsonArray("data").add(jrow = new JsonObject());
-			jrow.addProperty("TABLE_CAT", getCatalogTerm());
-			jrow.addProperty("TABLE_SCHEM", getSchemaName());
-			jrow.addProperty("TABLE_NAME", s);
+			int iRow = csRet.addRow();
+			csRet.setString(iRow, 0, getCatalogTerm());
+			csRet.setString(iRow, 1, getSchemaName());
+			csRet.setString(iRow, 2, s);
 		}
 
-		return(new JsonBackedResultSet(jRet));
+		return(new JsonBackedResultSet(csRet));
 	}
 
 	// Everywhere else, the answer is either "no" or "don't ask"
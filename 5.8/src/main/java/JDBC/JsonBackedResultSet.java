@@ -14,12 +14,31 @@ import java.sql.*;
 import com.google.gson.*;
 
 /**
- *	This is a ResultSet implementation which is backed by a JSON object.<br>
+ *	This is a ResultSet implementation which is backed by a JSON object, or by a {@link ColumnStore}, or by a {@link RowCursor}.<br>
  */
 public class JsonBackedResultSet
 	implements java.sql.ResultSet
 {
 	private JsonObject gjObj;
+	private ColumnStore gStore;
+
+	// For lazy data, where the rows come from, and the store holds only the rows read from it most recently
+	// With a fetch size of more than 1 the rows are read a batch at a time, while the next batch is prefetched
+	private RowCursor gCursor;
+	private int gFetchSize;
+
+	// For JSON data, the column names from the metadata, and the current row's values in the same order
+	// They are resolved once per result set and once per row, so every getter is a simple array lookup
+	private JsonArray gjData;
+	private String[] gColNames;
+	private JsonElement[] gjRow;
+
+	// Column label to 1-based column index, for findColumn and the getXxx(String) methods
+	// Labels are case insensitive, so it's keyed by their lower case only. It's built when the columns are known, and looking a label up never adds to it
+	private HashMap<String,Integer> gLabels;
+
+	// Whether the last value read was SQL NULL, for wasNull()
+	private boolean gWasNull;
 
 	// This records the internal 'cursor' position
 	// Used by the getXxx() methods and in next()
@@ -29,6 +48,14 @@ public class JsonBackedResultSet
 	private void reset()
 	{
 		gjObj = null;
+		gStore = null;
+		gCursor = null;
+		gFetchSize = 1;
+		gjData = null;
+		gColNames = null;
+		gjRow = null;
+		gLabels = null;
+		gWasNull = false;
 		gArrPos = -1;
 	}
 
@@ -40,74 +67,354 @@ public class JsonBackedResultSet
 	{
 		reset();
 		gjObj = pObj;
+
+		if(null != pObj)
+		{
+			JsonArray jNames = pObj.getAsJsonObject("metadata").getAsJsonArray("names");
+
+			gjData = pObj.getAsJsonArray("data");
+			gColNames = new String[jNames.size()];
+			for(int i = 0; i < gColNames.length; i++)
+			{
+				gColNames[i] = jNames.get(i).getAsString();
+			}
+			gjRow = new JsonElement[gColNames.length];
+			gLabels = indexLabels(gColNames);
+		}
+	}
+
+	/**
+	 *	Constructs a new {@link JsonBackedResultSet} with the supplied data in columnar form
+	 *	@param pStore The data
+	 */
+	protected JsonBackedResultSet(ColumnStore pStore)
+	{
+		reset();
+		gStore = pStore;
+
+		String[] arrNames = new String[pStore.getColumnCount()];
+		for(int i = 0; i < arrNames.length; i++)
+		{
+			arrNames[i] = pStore.getColumnName(i);
+		}
+		gLabels = indexLabels(arrNames);
+	}
+
+	/**
+	 *	Constructs a new {@link JsonBackedResultSet} which reads rows from a cursor as it goes
+	 *	@param pBuffer An empty store with the statement's columns, which is reused for each batch of rows
+	 *	@param pCursor The rows
+	 *	@param pFetchSize The number of rows in each batch, as per {@link #setFetchSize}
+	 */
+	protected JsonBackedResultSet(ColumnStore pBuffer, RowCursor pCursor, int pFetchSize)
+	{
+		this(pBuffer);
+		gCursor = pCursor;
+		gFetchSize = pFetchSize;
+	}
+
+	// As per the JDBC spec, when more than one column has the same label the first one is used
+	private static HashMap<String,Integer> indexLabels(String[] pNames)
+	{
+		HashMap<String,Integer> hmRet = new HashMap<String,Integer>(pNames.length * 2);
+
+		// Labels are case insensitive, so only the lower case spelling is kept. Going backwards leaves the first of any duplicates
+		for(int i = pNames.length - 1; i >= 0; i--)
+		{
+			hmRet.put(pNames[i].toLowerCase(Locale.ROOT), Integer.valueOf(i + 1));
+		}
+
+		return(hmRet);
 	}
 
 	@Override
 	public void close()
 		throws SQLException
 	{
+		closeCursor();
 		reset();
 	}
 
-	@Override
-	public int getInt(int columnIndex)
+	private void closeCursor()
+	{
+		if(null != gCursor)
+		{
+			gCursor.close();
+			gCursor = null;
+		}
+	}
+
+	// Replace the rows in the store with the next batch from the cursor
+	// Only the first row is waited for: the rest of a batch is whatever has been read ahead by then, so the consumer is never held up to fill it
+	private void fetch()
 		throws SQLException
 	{
-		JsonObject j = gjObj.getAsJsonArray("data").get(gArrPos).getAsJsonObject();
-		java.util.Set<java.util.Map.Entry<java.lang.String,JsonElement>> s = j.entrySet();
-		Object a = s.toArray()[columnIndex-1];
+		gStore.clear();
+		gArrPos = 0;
 
-		@SuppressWarnings("unchecked")
-		java.util.Map.Entry<java.lang.String,JsonElement> me = (java.util.Map.Entry<java.lang.String,JsonElement>)a;
+		// Start reading ahead as soon as batches are asked for
+		if(gFetchSize > 1 && !(gCursor instanceof PrefetchingCursor))
+		{
+			gCursor = new PrefetchingCursor(gCursor, gFetchSize);
+		}
 
-		return(new Integer(me.getValue().getAsString()).intValue());
+		try
+		{
+			String[] arrValues = gCursor.next();
+
+			if(null == arrValues)
+			{
+				closeCursor();
+				return;
+			}
+
+			do
+			{
+				int iRow = gStore.addRow();
+				for(int i = 0; i < arrValues.length; i++)
+				{
+					gStore.setString(iRow, i, arrValues[i]);
+				}
+			}
+			while(gStore.getRowCount() < gFetchSize && null != (arrValues = ((PrefetchingCursor)gCursor).nextIfReady()));
+		}
+		catch(SQLException sx)
+		{
+			closeCursor();
+			throw(sx);
+		}
+		catch(RuntimeException rx)
+		{
+			closeCursor();
+			throw(new SQLException(rx.getMessage(), rx));
+		}
+	}
+
+	/**
+	 *	@return int The value, or 0 if it is SQL NULL
+	 *	@throws SQLException If the value is not a number, or is too big for an int
+	 */
+	@Override
+	public int getInt(int columnIndex)
+		throws SQLException
+	{
+		long lValue = getLong(columnIndex);
+		if(lValue < Integer.MIN_VALUE || lValue > Integer.MAX_VALUE)
+		{
+			throw(new SQLException(String.format("Column %d value %d is out of range for an int", columnIndex, lValue), "22003"));
+		}
+		return((int)lValue);
 	}
 
 	@Override
 	public int getInt(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(getInt(findColumn(columnLabel)));
 	}
 
 	@Override
 	public String getString(int columnIndex)
 		throws SQLException
 	{
+		if(null != gStore)
+		{
+			gWasNull = gStore.isNull(gArrPos, columnIndex-1);
+			return(gStore.getString(gArrPos, columnIndex-1));
+		}
+
+		JsonElement je = getJsonValue(columnIndex);
+
+		return(null == je ? null : je.getAsString());
+	}
+
+	/**
+	 *	Numeric columns of a {@link ColumnStore} are read directly, without going through a String
+	 *	@return long The value, or 0 if it is SQL NULL
+	 *	@throws SQLException If the value is not a number
+	 */
+	@Override
+	public long getLong(int columnIndex)
+		throws SQLException
+	{
+		try
+		{
+			if(null != gStore)
+			{
+				gWasNull = gStore.isNull(gArrPos, columnIndex-1);
+				return(gStore.getLong(gArrPos, columnIndex-1));
+			}
+
+			JsonElement je = getJsonValue(columnIndex);
+
+			return(null == je ? 0L : je.getAsLong());
+		}
+		catch(NumberFormatException nx)
+		{
+			throw(new SQLException(String.format("Column %d is not a number", columnIndex), nx));
+		}
+	}
+
+	/**
+	 *	Numeric columns of a {@link ColumnStore} are read directly, without going through a String
+	 *	@return double The value, or 0 if it is SQL NULL
+	 *	@throws SQLException If the value is not a number
+	 */
+	@Override
+	public double getDouble(int columnIndex)
+		throws SQLException
+	{
+		try
+		{
+			if(null != gStore)
+			{
+				gWasNull = gStore.isNull(gArrPos, columnIndex-1);
+				return(gStore.getDouble(gArrPos, columnIndex-1));
+			}
+
+			JsonElement je = getJsonValue(columnIndex);
+
+			return(null == je ? 0D : je.getAsDouble());
+		}
+		catch(NumberFormatException nx)
+		{
+			throw(new SQLException(String.format("Column %d is not a number", columnIndex), nx));
+		}
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(int columnIndex)
+		throws SQLException
+	{
+		try
+		{
+			if(null != gStore)
+			{
+				int iCol = columnIndex-1;
+
+				gWasNull = gStore.isNull(gArrPos, iCol);
+				if(gWasNull)
+				{
+					return(null);
+				}
+
+				switch(gStore.getColumnType(iCol))
+				{
+					case java.sql.Types.BIGINT:
+					case java.sql.Types.INTEGER:
+						return(BigDecimal.valueOf(gStore.getLong(gArrPos, iCol)));
+					case java.sql.Types.DOUBLE:
+						return(BigDecimal.valueOf(gStore.getDouble(gArrPos, iCol)));
+					default:
+						return(new BigDecimal(gStore.getString(gArrPos, iCol).trim()));
+				}
+			}
+
+			JsonElement je = getJsonValue(columnIndex);
+
+			return(null == je ? null : je.getAsBigDecimal());
+		}
+		catch(NumberFormatException nx)
+		{
+			throw(new SQLException(String.format("Column %d is not a number", columnIndex), nx));
+		}
+	}
+
+	/**
+	 *	Timestamps are held as text, in either JDBC escape format (yyyy-mm-dd hh:mm:ss[.f...]) or ISO-8601 (yyyy-mm-ddThh:mm:ss[.f...])
+	 *	@throws SQLException If the value is not a timestamp
+	 */
+	@Override
+	public Timestamp getTimestamp(int columnIndex)
+		throws SQLException
+	{
+		String s = getString(columnIndex);
+
+		if(null == s)
+		{
+			return(null);
+		}
+
 		try
 		{
-			return(gjObj.getAsJsonArray("data").get(gArrPos).getAsString());
+			return(Timestamp.valueOf(s.trim().replace('T', ' ')));
 		}
-		catch(Throwable t)
+		catch(IllegalArgumentException ix)
 		{
-			// Not a String
+			throw(new SQLException(String.format("Column %d is not a timestamp: %s", columnIndex, s), ix));
 		}
+	}
 
-		JsonObject j = gjObj.getAsJsonArray("data").get(gArrPos).getAsJsonObject();
-		java.util.Set<java.util.Map.Entry<java.lang.String,JsonElement>> s = j.entrySet();
-		Object a = s.toArray()[columnIndex-1];
+	/**
+	 *	Returns a Long, Integer or Double for numeric columns of a {@link ColumnStore}, otherwise a String
+	 */
+	@Override
+	public Object getObject(int columnIndex)
+		throws SQLException
+	{
+		if(null != gStore)
+		{
+			switch(gStore.getColumnType(columnIndex-1))
+			{
+				case java.sql.Types.BIGINT:
+				{
+					long l = getLong(columnIndex);
+					return(gWasNull ? null : Long.valueOf(l));
+				}
+				case java.sql.Types.INTEGER:
+				{
+					int i = getInt(columnIndex);
+					return(gWasNull ? null : Integer.valueOf(i));
+				}
+				case java.sql.Types.DOUBLE:
+				{
+					double d = getDouble(columnIndex);
+					return(gWasNull ? null : Double.valueOf(d));
+				}
+			}
+		}
 
-		@SuppressWarnings("unchecked")
-		java.util.Map.Entry<java.lang.String,JsonElement> me = (java.util.Map.Entry<java.lang.String,JsonElement>)a;
+		return(getString(columnIndex));
+	}
 
-		return(me.getValue().getAsString());
+	// The current row's JSON value for a column, or null if it is absent or JSON null
+	private JsonElement getJsonValue(int columnIndex)
+	{
+		JsonElement je = gjRow[columnIndex-1];
+
+		gWasNull = null == je || je.isJsonNull();
+		return(gWasNull ? null : je);
 	}
 
 	@Override
 	public String getString(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(getString(findColumn(columnLabel)));
 	}
 
 	@Override
 	public boolean next()
 		throws SQLException
 	{
-		if(null != gjObj)
+		if(null != gStore)
+		{
+			gArrPos++;
+			if(gArrPos >= gStore.getRowCount() && null != gCursor)
+			{
+				fetch();
+			}
+			return(gArrPos < gStore.getRowCount());
+		}
+		else if(null != gjObj)
 		{
 			gArrPos++;
-			return(gArrPos < gjObj.getAsJsonArray("data").size());
+			if(gArrPos < gjData.size())
+			{
+				loadRow(gjData.get(gArrPos));
+				return(true);
+			}
+			return(false);
 		}
 		else
 		{
@@ -115,6 +422,47 @@ public class JsonBackedResultSet
 		}
 	}
 
+	// Copy the values of a JSON data record into gjRow, in column order
+	private void loadRow(JsonElement pRow)
+	{
+		if(!pRow.isJsonObject())
+		{
+			// A data record which is a simple value stands for a single column
+			Arrays.fill(gjRow, null);
+			gjRow[0] = pRow;
+			return;
+		}
+
+		JsonObject j = pRow.getAsJsonObject();
+		boolean bAllNamed = true;
+
+		for(int i = 0; i < gjRow.length; i++)
+		{
+			if(null == (gjRow[i] = j.get(gColNames[i])))
+			{
+				bAllNamed = false;
+			}
+		}
+
+		// Records whose attributes aren't named after the columns are read by position
+		if(!bAllNamed)
+		{
+			int i = 0;
+			for(Map.Entry<String,JsonElement> me : j.entrySet())
+			{
+				if(i == gjRow.length)
+				{
+					break;
+				}
+				gjRow[i++] = me.getValue();
+			}
+			while(i < gjRow.length)
+			{
+				gjRow[i++] = null;
+			}
+		}
+	}
+
 	// ... otherwise the answer is "no", "don't ask" or "don't do that again"
 
 	@Override
@@ -162,7 +510,18 @@ public class JsonBackedResultSet
 	public int findColumn(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		if(null == gLabels)
+		{
+			throw(new SQLException("ResultSet is closed"));
+		}
+
+		Integer iCol = null == columnLabel ? null : gLabels.get(columnLabel.toLowerCase(Locale.ROOT));
+		if(null == iCol)
+		{
+			throw(new SQLException(String.format("Column %s not found", columnLabel)));
+		}
+
+		return(iCol.intValue());
 	}
 
 	@Override
@@ -200,13 +559,6 @@ public class JsonBackedResultSet
 		throw(new SQLFeatureNotSupportedException());
 	}
 
-	@Override
-	public BigDecimal getBigDecimal(int columnIndex)
-		throws SQLException
-	{
-		throw(new SQLFeatureNotSupportedException());
-	}
-
 	@Override
 	@SuppressWarnings("deprecation")
 	public BigDecimal getBigDecimal(int columnIndex, int scale)
@@ -219,7 +571,7 @@ public class JsonBackedResultSet
 	public BigDecimal getBigDecimal(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(getBigDecimal(findColumn(columnLabel)));
 	}
 
 	@Override
@@ -370,18 +722,11 @@ public class JsonBackedResultSet
 		throw(new SQLFeatureNotSupportedException());
 	}
 
-	@Override
-	public double getDouble(int columnIndex)
-		throws SQLException
-	{
-		throw(new SQLFeatureNotSupportedException());
-	}
-
 	@Override
 	public double getDouble(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(getDouble(findColumn(columnLabel)));
 	}
 
 	@Override
@@ -395,7 +740,7 @@ public class JsonBackedResultSet
 	public int getFetchSize()
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(gFetchSize);
 	}
 
 	@Override
@@ -419,18 +764,11 @@ public class JsonBackedResultSet
 		throw(new SQLFeatureNotSupportedException());
 	}
 
-	@Override
-	public long getLong(int columnIndex)
-		throws SQLException
-	{
-		throw(new SQLFeatureNotSupportedException());
-	}
-
 	@Override
 	public long getLong(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(getLong(findColumn(columnLabel)));
 	}
 
 	@Override
@@ -482,13 +820,6 @@ public class JsonBackedResultSet
 		throw(new SQLFeatureNotSupportedException());
 	}
 
-	@Override
-	public Object getObject(int columnIndex)
-		throws SQLException
-	{
-		throw(new SQLFeatureNotSupportedException());
-	}
-
 	@Override
 	public <T> T getObject(int columnIndex, Class<T> type)
 		throws SQLException
@@ -507,7 +838,7 @@ public class JsonBackedResultSet
 	public Object getObject(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(getObject(findColumn(columnLabel)));
 	}
 
 	@Override
@@ -622,13 +953,6 @@ public class JsonBackedResultSet
 		throw(new SQLFeatureNotSupportedException());
 	}
 
-	@Override
-	public Timestamp getTimestamp(int columnIndex)
-		throws SQLException
-	{
-		throw(new SQLFeatureNotSupportedException());
-	}
-
 	@Override
 	public Timestamp getTimestamp(int columnIndex, Calendar cal)
 		throws SQLException
@@ -640,7 +964,7 @@ public class JsonBackedResultSet
 	public Timestamp getTimestamp(String columnLabel)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(getTimestamp(findColumn(columnLabel)));
 	}
 
 	@Override
@@ -806,11 +1130,20 @@ public class JsonBackedResultSet
 		throw(new SQLFeatureNotSupportedException());
 	}
 
+	/**
+	 *	For lazy data, the number of rows read from the cursor at a time. With more than 1, the next batch is read ahead on a background thread
+	 *	while this one is consumed, holding up to this many rows. It has no effect on data which is already in memory.
+	 *	The read-ahead buffer is sized when it starts, so a later change only alters the batch size
+	 */
 	@Override
 	public void setFetchSize(int rows)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		if(rows < 0)
+		{
+			throw(new SQLException("Fetch size must not be negative"));
+		}
+		gFetchSize = 0 == rows ? 1 : rows;
 	}
 
 	@Override
@@ -1426,7 +1759,7 @@ public class JsonBackedResultSet
 	public boolean wasNull()
 		throws SQLException
 	{
-		return(false);
+		return(gWasNull);
 	}
 
 	@Override
@@ -12,12 +12,13 @@ import java.sql.*;
 import com.google.gson.*;
 
 /**
- *	This is a ResultSetMetaData implementation which is backed by a JSON object.<br>
+ *	This is a ResultSetMetaData implementation which is backed by a JSON object, or by a {@link ColumnStore}.<br>
  */
 public class JsonBackedResultSetMetadata
 	implements ResultSetMetaData
 {
 	private JsonObject gjObj;
+	private ColumnStore gStore;
 	private String gCatalogName;
 	private String gSchemaName;
 
@@ -34,6 +35,19 @@ public class JsonBackedResultSetMetadata
 		this.gSchemaName = pSchemaName;
 	}
 
+	/**
+	 *	Constructs a new {@link JsonBackedResultSetMetadata} with the supplied data in columnar form
+	 *	@param pStore The data
+	 *	@param pCatalogName The catalog term, as per {@link DatabaseMetaDataStub#getCatalogTerm}
+	 *	@param pSchemaName The schema name, as per {@link DatabaseMetaDataStub#getSchemaName}
+	 */
+	public JsonBackedResultSetMetadata(ColumnStore pStore, String pCatalogName, String pSchemaName)
+	{
+		this.gStore = pStore;
+		this.gCatalogName = pCatalogName;
+		this.gSchemaName = pSchemaName;
+	}
+
 	@Override
 	public String getCatalogName(int column)
 		throws SQLException
@@ -42,36 +56,60 @@ public class JsonBackedResultSetMetadata
 	}
 
 	/**
-	 *	In this implementation, every column is a VARCHAR(80)
-	 *	@return String Fixed to java.lang.String
+	 *	JSON columns are always a VARCHAR(80). {@link ColumnStore} columns have the type they were created with
+	 *	@return String The class returned by getObject
 	 */
 	@Override
 	public String getColumnClassName(int column)
 	{
-		return("java.lang.String");
+		switch(getType(column))
+		{
+			case java.sql.Types.BIGINT:
+				return("java.lang.Long");
+			case java.sql.Types.INTEGER:
+				return("java.lang.Integer");
+			case java.sql.Types.DOUBLE:
+				return("java.lang.Double");
+			default:
+				return("java.lang.String");
+		}
 	}
 
 	@Override
 	public int getColumnCount()
 		throws SQLException
 	{
+		if(null != gStore)
+		{
+			return(gStore.getColumnCount());
+		}
 		return(gjObj.getAsJsonObject("metadata").getAsJsonArray("names").size());
 	}
 
-	/**
-	 *	In this implementation, every column is a VARCHAR(80)
-	 *	@return int Fixed to 80
-	 */
 	@Override
 	public int getColumnDisplaySize(int column)
 	{
-		return(80);
+		switch(getType(column))
+		{
+			case java.sql.Types.BIGINT:
+				return(20);
+			case java.sql.Types.INTEGER:
+				return(11);
+			case java.sql.Types.DOUBLE:
+				return(24);
+			default:
+				return(80);
+		}
 	}
 
 	@Override
 	public String getColumnLabel(int column)
 		throws SQLException
 	{
+		if(null != gStore)
+		{
+			return(gStore.getColumnName(column-1));
+		}
 		return(gjObj.getAsJsonObject("metadata").getAsJsonArray("names").get(column-1).getAsString());
 	}
 
@@ -79,43 +117,37 @@ public class JsonBackedResultSetMetadata
 	public String getColumnName(int column)
 		throws SQLException
 	{
+		if(null != gStore)
+		{
+			return(gStore.getColumnName(column-1));
+		}
 		return(gjObj.getAsJsonObject("metadata").getAsJsonArray("names").get(column-1).getAsString());
 	}
 
 	/**
-	 *	In this implementation, every column is a VARCHAR(80)
-	 *	@return int Fixed to java.sql.Types.VARCHAR
+	 *	@return int The java.sql.Types value: always VARCHAR for JSON data
 	 */
 	@Override
 	public int getColumnType(int column)
 		throws SQLException
 	{
-		return(java.sql.Types.VARCHAR);
+		return(getType(column));
 	}
 
-	/**
-	 *	In this implementation, every column is a VARCHAR(80)
-	 *	@return String Fixed to VARCHAR
-	 */
 	@Override
 	public String getColumnTypeName(int column)
 		throws SQLException
 	{
-		return("VARCHAR");
+		return(getTypeName(getType(column)));
 	}
 
-	/**
-	 *	In this implementation, every column is a VARCHAR(80)
-	 *	@return int Fixed to 80
-	 */
 	@Override
 	public int getPrecision(int column)
 	{
-		return(80);
+		return(getPrecisionForType(getType(column)));
 	}
 
 	/**
-	 *	In this implementation, every column is a VARCHAR(80)
 	 *	@return int Fixed to 0
 	 */
 	@Override
@@ -185,7 +217,7 @@ public class JsonBackedResultSetMetadata
 	public boolean isSigned(int column)
 		throws SQLException
 	{
-		throw(new SQLFeatureNotSupportedException());
+		return(java.sql.Types.VARCHAR != getType(column));
 	}
 
 	@Override
@@ -194,6 +226,44 @@ public class JsonBackedResultSetMetadata
 		return(false);
 	}
 
+	// JSON data has no types, so every column is a VARCHAR
+	private int getType(int column)
+	{
+		return(null == gStore ? java.sql.Types.VARCHAR : gStore.getColumnType(column-1));
+	}
+
+	// Also used by DatabaseMetaDataStub.getColumns
+	static String getTypeName(int pType)
+	{
+		switch(pType)
+		{
+			case java.sql.Types.BIGINT:
+				return("BIGINT");
+			case java.sql.Types.INTEGER:
+				return("INTEGER");
+			case java.sql.Types.DOUBLE:
+				return("DOUBLE");
+			default:
+				return("VARCHAR");
+		}
+	}
+
+	// Also used by DatabaseMetaDataStub.getColumns
+	static int getPrecisionForType(int pType)
+	{
+		switch(pType)
+		{
+			case java.sql.Types.BIGINT:
+				return(19);
+			case java.sql.Types.INTEGER:
+				return(10);
+			case java.sql.Types.DOUBLE:
+				return(15);
+			default:
+				return(80);
+		}
+	}
+
 	@Override
 	public boolean isWrapperFor(Class<?> iface)
 	{
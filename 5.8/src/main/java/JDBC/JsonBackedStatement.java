@@ -15,12 +15,19 @@ import java.sql.*;
 import com.google.gson.*;
 
 /**
- *	This is a PreparedStatement implementation which is backed by a JSON object.<br>
+ *	This is a PreparedStatement implementation which is backed by a JSON object, or by a {@link ColumnStore}, or by a {@link RowCursor} which produces the rows as they are read.<br>
+ *	When the rows are produced as they are read, the query timeout covers reading them all, and {@link #cancel} stops the cursor from another thread.
  */
 public class JsonBackedStatement
 	implements PreparedStatement
 {
 	private JsonObject gjObj;
+	private ColumnStore gStore;
+	private RowCursor.Factory gCursorFactory;
+	private int gFetchSize = 1;
+	private int gQueryTimeoutSecs = 0;
+	private volatile Cancellation gRunning = null;
+	private JsonBackedResultSet gResultSet = null;
 	private String gCatalogName;
 	private String gSchemaName;
 
@@ -37,6 +44,116 @@ public class JsonBackedStatement
 		this.gSchemaName = pSchemaName;
 	}
 
+	/**
+	 *	Constructs a new {@link JsonBackedStatement} with the supplied data in columnar form
+	 *	@param pStore The data
+	 *	@param pCatalogName The catalog term, as per {@link DatabaseMetaDataStub#getCatalogTerm}
+	 *	@param pSchemaName The schema name, as per {@link DatabaseMetaDataStub#getSchemaName}
+	 */
+	public JsonBackedStatement(ColumnStore pStore, String pCatalogName, String pSchemaName)
+	{
+		this.gStore = pStore;
+		this.gCatalogName = pCatalogName;
+		this.gSchemaName = pSchemaName;
+	}
+
+	/**
+	 *	Constructs a new {@link JsonBackedStatement} whose rows are produced lazily, each time it is executed
+	 *	@param pNames The column names
+	 *	@param pTypes The column types from java.sql.Types, as per {@link ColumnStore#ColumnStore(String[], int[])}
+	 *	@param pCursorFactory Opens a cursor over the rows for each execution
+	 *	@param pCatalogName The catalog term, as per {@link DatabaseMetaDataStub#getCatalogTerm}
+	 *	@param pSchemaName The schema name, as per {@link DatabaseMetaDataStub#getSchemaName}
+	 */
+	public JsonBackedStatement(String[] pNames, int[] pTypes, RowCursor.Factory pCursorFactory, String pCatalogName, String pSchemaName)
+	{
+		// The store is empty, and only describes the columns
+		this.gStore = new ColumnStore(pNames, pTypes);
+		this.gCursorFactory = pCursorFactory;
+		this.gCatalogName = pCatalogName;
+		this.gSchemaName = pSchemaName;
+	}
+
+	/**
+	 *	Reads every row of a lazy statement into memory, so that it can be executed any number of times without producing them again.<br>
+	 *	Reading them is covered by this statement's query timeout, and can be stopped by {@link #cancel}
+	 *	@return JsonBackedStatement A statement with the same data in a {@link ColumnStore}, or this one if it is not lazy
+	 */
+	public JsonBackedStatement materialise()
+		throws SQLException
+	{
+		if(null == gCursorFactory)
+		{
+			return(this);
+		}
+
+		Cancellation c = new Cancellation(gQueryTimeoutSecs);
+		gRunning = c;
+		try
+		{
+			return(new JsonBackedStatement(readAll(c), gCatalogName, gSchemaName));
+		}
+		finally
+		{
+			c.finish();
+		}
+	}
+
+	/**
+	 *	Reads every row into a {@link ColumnStore}, for example so that any number of statements can share them
+	 *	@param pCancel Stops the reading, as per {@link RowCursor.Factory#open}. It belongs to the caller, who must see to its timeout
+	 *	@return ColumnStore The rows, which for a statement that is already backed by a ColumnStore is that store
+	 *	@throws SQLException If the statement is backed by JSON, or as per {@link Cancellation#check} if the reading is stopped
+	 */
+	public ColumnStore readAll(Cancellation pCancel)
+		throws SQLException
+	{
+		if(null == gCursorFactory)
+		{
+			if(null == gStore)
+			{
+				throw(new SQLException("Unsupported"));
+			}
+			return(gStore);
+		}
+
+		ColumnStore csRet = newStore();
+		RowCursor rc = cancellable(pCancel, false);
+		String[] arrValues;
+
+		try
+		{
+			while(null != (arrValues = rc.next()))
+			{
+				int iRow = csRet.addRow();
+				for(int i = 0; i < arrValues.length; i++)
+				{
+					csRet.setString(iRow, i, arrValues[i]);
+				}
+			}
+		}
+		finally
+		{
+			rc.close();
+		}
+
+		return(csRet);
+	}
+
+	// An empty store with the same columns
+	private ColumnStore newStore()
+	{
+		String[] arrNames = new String[gStore.getColumnCount()];
+		int[] arrTypes = new int[arrNames.length];
+
+		for(int i = 0; i < arrNames.length; i++)
+		{
+			arrNames[i] = gStore.getColumnName(i);
+			arrTypes[i] = gStore.getColumnType(i);
+		}
+		return(new ColumnStore(arrNames, arrTypes));
+	}
+
 	/**
 	 *	This method performs a virtual query execution
 	 *	@return ResultSet A {@link JsonBackedResultSet} with the supplied data
@@ -45,7 +162,8 @@ public class JsonBackedStatement
 	public ResultSet executeQuery()
 		throws SQLException
 	{
-		return(new JsonBackedResultSet(gjObj));
+		execute();
+		return(gResultSet);
 	}
 
 	/**
@@ -56,6 +174,10 @@ public class JsonBackedStatement
 	public ResultSetMetaData getMetaData()
 		throws SQLException
 	{
+		if(null != gStore)
+		{
+			return(new JsonBackedResultSetMetadata(gStore, gCatalogName, gSchemaName));
+		}
 		return(new JsonBackedResultSetMetadata(gjObj, gCatalogName, gSchemaName));
 	}
 
@@ -71,10 +193,16 @@ public class JsonBackedStatement
 	{
 	}
 
+	/**
+	 *	Like {@link #executeQuery}, the result set is then available from {@link #getResultSet} until the statement is executed again
+	 */
 	@Override
 	public boolean execute()
 		throws SQLException
 	{
+		// As per the JDBC spec, executing a statement again closes its current result set
+		closeResultSet();
+		gResultSet = open();
 		return(true);
 	}
 
@@ -498,13 +626,21 @@ public class JsonBackedStatement
 	public int getFetchSize()
 		throws SQLException
 	{
-		return(1);
+		return(gFetchSize);
 	}
 
+	/**
+	 *	For lazy data, how many rows are read ahead of the consumer, as per {@link JsonBackedResultSet#setFetchSize}
+	 */
 	@Override
 	public void setFetchSize(int rows)
 		throws SQLException
 	{
+		if(rows < 0)
+		{
+			throw(new SQLException("Fetch size must not be negative"));
+		}
+		gFetchSize = 0 == rows ? 1 : rows;
 	}
 
 	@Override
@@ -534,9 +670,30 @@ public class JsonBackedStatement
 		throw(new SQLException("Unsupported"));
 	}
 
+	/**
+	 *	@return ResultSet The result set of the latest execution, or null if the statement hasn't been executed
+	 */
 	@Override
 	public ResultSet getResultSet()
+		throws SQLException
+	{
+		return(gResultSet);
+	}
+
+	// A new result set, which for lazy data is a new execution
+	private JsonBackedResultSet open()
+		throws SQLException
 	{
+		if(null != gCursorFactory)
+		{
+			Cancellation c = new Cancellation(gQueryTimeoutSecs);
+			gRunning = c;
+			return(new JsonBackedResultSet(newStore(), cancellable(c, true), gFetchSize));
+		}
+		if(null != gStore)
+		{
+			return(new JsonBackedResultSet(gStore));
+		}
 		return(new JsonBackedResultSet(gjObj));
 	}
 
@@ -568,25 +725,99 @@ public class JsonBackedStatement
 		throw(new SQLException("Unsupported"));
 	}
 
+	private void closeResultSet()
+		throws SQLException
+	{
+		if(null != gResultSet)
+		{
+			gResultSet.close();
+			gResultSet = null;
+		}
+	}
+
+	// A cursor from the factory which reports why it failed if it was cancelled, and which stops the timeout when it's closed if bFinish
+	private RowCursor cancellable(final Cancellation pCancel, final boolean bFinish)
+		throws SQLException
+	{
+		final RowCursor rc;
+		try
+		{
+			rc = gCursorFactory.open(pCancel);
+		}
+		catch(SQLException sx)
+		{
+			if(bFinish)
+			{
+				pCancel.finish();
+			}
+			pCancel.check();
+			throw(sx);
+		}
+
+		return(new RowCursor()
+		{
+			@Override
+			public String[] next()
+				throws SQLException
+			{
+				pCancel.check();
+				try
+				{
+					return(rc.next());
+				}
+				catch(SQLException sx)
+				{
+					// The underlying failure, e.g. a closed socket, is just a symptom
+					pCancel.check();
+					throw(sx);
+				}
+			}
+
+			@Override
+			public void close()
+			{
+				rc.close();
+				if(bFinish)
+				{
+					pCancel.finish();
+				}
+			}
+		});
+	}
+
+	/**
+	 *	Stops the rows of the latest execution being produced, from any thread. Reading them then fails with an SQLException whose SQLState is HY008
+	 */
 	@Override
 	public void cancel()
 		throws SQLException
 	{
-		throw(new SQLException("Unsupported"));
+		Cancellation c = gRunning;
+		if(null != c)
+		{
+			c.cancel();
+		}
 	}
 
+	/**
+	 *	For lazy data, how long producing all the rows may take. Then reading them fails with an {@link SQLTimeoutException}
+	 */
 	@Override
 	public void setQueryTimeout(int seconds)
 		throws SQLException
 	{
-		throw(new SQLException("Unsupported"));
+		if(seconds < 0)
+		{
+			throw(new SQLException("Query timeout must not be negative"));
+		}
+		gQueryTimeoutSecs = seconds;
 	}
 
 	@Override
 	public int getQueryTimeout()
 		throws SQLException
 	{
-		throw(new SQLException("Unsupported"));
+		return(gQueryTimeoutSecs);
 	}
 
 	@Override
@@ -624,10 +855,15 @@ public class JsonBackedStatement
 		throw(new SQLException("Unsupported"));
 	}
 
+	/**
+	 *	Stops the latest execution if its rows are still being produced, and closes its result set, so that nothing it was reading ahead is left running
+	 */
 	@Override
 	public void close()
 		throws SQLException
 	{
+		cancel();
+		closeResultSet();
 	}
 
 	@Override
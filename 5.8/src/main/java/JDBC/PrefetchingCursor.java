@@ -0,0 +1,159 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import java.sql.*;
+import java.util.concurrent.*;
+
+/**
+ *	Reads ahead from another {@link RowCursor} on a background thread, into a buffer of a fixed number of rows.<br>
+ *	While the result set works through one batch, the next one is being produced, so any remote calls behind it overlap with the consumer.
+ *	The underlying cursor is only ever used by the background thread, which also closes it.
+ *	If the consumer stops reading without closing the result set, the background thread gives up after {@link #ABANDON_MINS} minutes.
+ */
+final class PrefetchingCursor
+	implements RowCursor
+{
+	// Marks the end of the rows in the buffer
+	private final static String[] END = new String[0];
+
+	protected final static long ABANDON_MINS = 30;
+
+	private final static ExecutorService gPrefetcher = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "JDBC-prefetch");
+			t.setDaemon(true);
+			return(t);
+		}
+	});
+
+	private final BlockingQueue<String[]> gBuffer;
+	private final Future<?> gProducer;
+	private volatile Exception gFailure = null;
+	private boolean gFinished = false;
+
+	/**
+	 *	@param pSource The cursor to read ahead from
+	 *	@param pCapacity The most rows which are read ahead of the consumer
+	 */
+	PrefetchingCursor(final RowCursor pSource, int pCapacity)
+	{
+		gBuffer = new ArrayBlockingQueue<String[]>(pCapacity);
+		gProducer = gPrefetcher.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					String[] arrValues;
+					while(null != (arrValues = pSource.next()))
+					{
+						if(!hand(arrValues))
+						{
+							return;
+						}
+					}
+				}
+				catch(Exception e)
+				{
+					gFailure = e;
+				}
+				finally
+				{
+					pSource.close();
+				}
+
+				hand(END);
+			}
+		});
+	}
+
+	// Put a row in the buffer, returning false if the consumer has closed the cursor or abandoned it
+	private boolean hand(String[] arrValues)
+	{
+		try
+		{
+			return(gBuffer.offer(arrValues, ABANDON_MINS, TimeUnit.MINUTES));
+		}
+		catch(InterruptedException ix)
+		{
+			return(false);
+		}
+	}
+
+	@Override
+	public String[] next()
+		throws SQLException
+	{
+		if(gFinished)
+		{
+			return(null);
+		}
+
+		String[] arrRet;
+		try
+		{
+			while(null == (arrRet = gBuffer.poll(1, TimeUnit.SECONDS)))
+			{
+				// Either way the background thread has stopped, without handing over the end of the rows
+				if(gProducer.isDone() && gBuffer.isEmpty())
+				{
+					close();
+					throw(new SQLException("The result set was idle for too long"));
+				}
+			}
+		}
+		catch(InterruptedException ix)
+		{
+			close();
+			Thread.currentThread().interrupt();
+			throw(new SQLException("Interrupted while waiting for rows"));
+		}
+
+		if(END != arrRet)
+		{
+			return(arrRet);
+		}
+
+		gFinished = true;
+		if(null != gFailure)
+		{
+			if(gFailure instanceof SQLException)
+			{
+				throw((SQLException)gFailure);
+			}
+			throw(new SQLException(gFailure.getMessage(), gFailure));
+		}
+		return(null);
+	}
+
+	/**
+	 *	@return String[] The next row if it has already been read ahead, otherwise null, which does not mean the rows have run out
+	 */
+	String[] nextIfReady()
+	{
+		String[] arrRet = gBuffer.peek();
+
+		// The end, and any failure, are left for next() to report
+		if(null == arrRet || END == arrRet)
+		{
+			return(null);
+		}
+		return(gBuffer.poll());
+	}
+
+	@Override
+	public void close()
+	{
+		gFinished = true;
+		gProducer.cancel(true);
+		gBuffer.clear();
+	}
+}
@@ -0,0 +1,38 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import java.sql.*;
+
+/**
+ *	A forward-only source of rows, for a {@link JsonBackedStatement} whose data is produced as it is read rather than all in advance.<br>
+ *	For example the rows can come from remote calls which are only made as {@link JsonBackedResultSet#next} reaches them, so the first row is available early, and only a few rows are held in memory at once.
+ */
+public interface RowCursor
+{
+	/**
+	 *	Opens a new cursor over the data, once for every execution of the statement
+	 */
+	public interface Factory
+	{
+		/**
+		 *	@param pCancel Says when the execution has been cancelled or has timed out, which the cursor should notice promptly, both in open() and in next()
+		 */
+		RowCursor open(Cancellation pCancel)
+			throws SQLException;
+	}
+
+	/**
+	 *	@return String[] The next row's values in their String form, one per column of the statement, or null when there are no more rows
+	 */
+	String[] next()
+		throws SQLException;
+
+	/**
+	 *	Stop early, abandoning any outstanding work. It is called when the rows run out, when reading them fails, and when the result set is closed
+	 */
+	void close();
+}
@@ -12,8 +12,11 @@ import java.sql.*;
 import java.time.*;
 import java.time.format.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 import com.google.gson.*;
+import com.google.gson.stream.*;
 
 import com.thereisnogravity.jdbcstub.*;
 
@@ -21,293 +24,511 @@ public class APIv1
 {
 	private final static String AUTH_ERROR_MSG = "Invalid username or password, or not privileged to use the API";
 
-	// Return a PreparedStatement which contains all the Groups
-	protected static JsonBackedStatement getGroupQueryStatement(String sUser, String sPassword, boolean pIsCount, Integer pRowLimit)
-		throws Exception
+	// The JobCatalog's background refreshes take their turn with everything else
+	private final static HttpHelper.Options CATALOG_OPTIONS = new HttpHelper.Options(new ConcurrencyLimiter.Flow("jobcatalog", 1), 0, 100, HttpHelper.DEFAULT_READ_TIMEOUT_MS);
+
+	/**
+	 * One REST call per parent path, whose response is a JSON array with one element per child row.<br>
+	 * The same call either builds the child rows, or just counts them for a COUNT(*).
+	 * Lists of names from the group / project / version / job hierarchy can be reused from the {@link ListingCache}.
+	 * With transport=async the call can also be made without blocking, through the {@link AsyncTransport}.
+	 */
+	private static abstract class Listing
 	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
+		private final String gErrorText;
+		private final String gUser;
+		private final String gPassword;
+		private final AsyncTransport gAsync;
+		private final HttpHelper.Options gOptions;
+		private final String gLevel;
+		private final int gTtlSecs;
+
+		// Never cached
+		Listing(String pErrorText, String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+			throws SQLException
+		{
+			this(pErrorText, sUser, sPassword, pSettings, pPlan, null, 0);
+		}
 
-		JsonObject jRet = METLMetaData.getBaseJson();
-		// Add the column name(s) from the metadata
-		for(String s: METLMetaData.METL_COLNAMES.get("group"))
+		// The calls are queued under the table being queried, which isn't necessarily the level being listed
+		Listing(String pErrorText, String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan, String pLevel, int pTtlSecs)
+			throws SQLException
 		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
+			this.gErrorText = pErrorText;
+			this.gUser = sUser;
+			this.gPassword = sPassword;
+			this.gAsync = null != pSettings && pSettings.isAsyncTransport() ? AsyncTransport.getInstance() : null;
+			this.gOptions = null == pSettings ? null : pSettings.getRequestOptions(pPlan.getTable());
+			this.gLevel = pLevel;
+			this.gTtlSecs = pTtlSecs;
 		}
 
-		JsonArray jRaw;
-		JsonObject jRow;
+		// The REST API path which lists the children of the parent
+		abstract String path(String[] arrParent)
+			throws Exception;
 
-		jRaw = new JsonParser().parse(APIv1.getGroups(sUser, sPassword)).getAsJsonArray();
+		void call(String[] arrParent, HttpHelper.JsonHandler pHandler, Cancellation pCancel)
+			throws Exception
+		{
+			APIv1.get(gUser, gPassword, path(arrParent), gErrorText, pHandler, gOptions, pCancel);
+		}
 
-		rowstop:
-		for(Iterator<JsonElement> ji = jRaw.iterator(); ji.hasNext(); )
+		// As per call(), except that it returns straight away, and pHandler is run when the response arrives
+		// Cancelling stops the walk waiting for the response, although the request itself is left to the HTTP client
+		// As with HttpHelper, the call goes through the CircuitBreaker, and fails if the response doesn't start within the read timeout
+		CompletableFuture<Void> callAsync(String[] arrParent, final HttpHelper.JsonHandler pHandler, final Cancellation pCancel)
+			throws Exception
 		{
-			jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-			jRow.addProperty("groupname", ji.next().getAsString());
+			pCancel.check();
 
-			if(0 == --iRowstop)
+			final CircuitBreaker cb = CircuitBreaker.getInstance();
+			final boolean bProbe = cb.admit();
+
+			final CompletableFuture<AsyncTransport.Response> cfResponse;
+			try
 			{
-				break rowstop;
+				cfResponse = gAsync.get(gUser, gPassword, path(arrParent), null == gOptions ? HttpHelper.DEFAULT_READ_TIMEOUT_MS : gOptions.getReadTimeoutMs());
 			}
-		}
+			catch(Exception e)
+			{
+				cb.abandoned(bProbe);
+				throw(e);
+			}
+			final Runnable rAbandon = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					cfResponse.cancel(false);
+				}
+			};
+			pCancel.add(rAbandon);
 
-		if(pIsCount)
-		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
-		}
+			return(cfResponse.handle(new BiFunction<AsyncTransport.Response,Throwable,Void>()
+			{
+				@Override
+				public Void apply(AsyncTransport.Response r, Throwable t)
+				{
+					pCancel.remove(rAbandon);
 
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
-	}
+					// Without a response the call failed to connect or timed out, unless it was abandoned
+					if(null != t && (pCancel.isCancelled() || t instanceof CancellationException))
+					{
+						cb.abandoned(bProbe);
+					}
+					else if(null != t)
+					{
+						Throwable tCause = t instanceof CompletionException && null != t.getCause() ? t.getCause() : t;
+						cb.failed(bProbe, null == tCause.getMessage() ? tCause.getClass().getSimpleName() : tCause.getMessage());
+					}
+					else if(r.getCode() >= 500)
+					{
+						cb.failed(bProbe, "HTTP " + r.getCode());
+					}
+					else
+					{
+						cb.succeeded(bProbe);
+					}
 
-	// http://localhost:8080/rest/v1/group
-	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
-	private static String getGroups(String sUser, String sPassword)
-		throws Exception
-	{
-		String sErrorText = "Error listing groups";
-		HttpHelper u = null;
+					if(null != t || 200 != r.getCode())
+					{
+						throw(new CompletionException(new SQLException(gErrorText)));
+					}
 
-		try
-		{
-			u = new HttpHelper(sUser, sPassword, "/group");
+					try
+					{
+						HttpHelper.parse(r.getBody(), pHandler);
+					}
+					catch(IOException iox)
+					{
+						throw(new CompletionException(new SQLException(gErrorText)));
+					}
+					return(null);
+				}
+			}));
 		}
-		catch(Exception e)
+
+		boolean isAsync()
 		{
-			e.printStackTrace();
-			throw(new SQLException(sErrorText));
+			return(null != gAsync);
 		}
 
-		if(200 != u.getCode())
+		// By default the elements are names, each of which extends the parent path
+		List<String[]> rows(String[] arrParent, Cancellation pCancel)
+			throws Exception
 		{
-			throw(new SQLException(sErrorText));
+			return(extendPath(arrParent, names(arrParent, pCancel)));
 		}
 
-		return(u.getResponse());
-	}
-
-	// Return a PreparedStatement which contains all the Projects
-	protected static JsonBackedStatement getProjectQueryStatement(String sUser, String sPassword, boolean pIsCount, Integer pRowLimit)
-		throws Exception
-	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
+		CompletableFuture<List<String[]>> rowsAsync(final String[] arrParent, Cancellation pCancel)
+			throws Exception
+		{
+			return(namesAsync(arrParent, pCancel).thenApply(new Function<List<String>,List<String[]>>()
+			{
+				@Override
+				public List<String[]> apply(List<String> lNames)
+				{
+					return(extendPath(arrParent, lNames));
+				}
+			}));
+		}
 
-		JsonObject jRet = METLMetaData.getBaseJson();
-		for(String s: METLMetaData.METL_COLNAMES.get("project"))
+		boolean isCached()
 		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
+			return(gTtlSecs > 0);
 		}
 
-		JsonArray jGroups, jProjects;
-		JsonObject jRow;
+		// The child names, from the cache if there's a recent enough listing
+		List<String> names(String[] arrParent, Cancellation pCancel)
+			throws Exception
+		{
+			String sKey = isCached() ? key(arrParent) : null;
+			List<String> lNames;
 
-		jGroups = new JsonParser().parse(APIv1.getGroups(sUser, sPassword)).getAsJsonArray();
+			if(null != sKey && null != (lNames = ListingCache.getInstance().get(gUser, sKey, gTtlSecs)))
+			{
+				return(lNames);
+			}
 
-		rowstop:
-		for(Iterator<JsonElement> ji = jGroups.iterator(); ji.hasNext(); )
-		{
-			String sGroupName = ji.next().getAsString();
+			lNames = new ArrayList<String>();
+			call(arrParent, readNames(lNames), pCancel);
 
-			jProjects = new JsonParser().parse(APIv1.getProjects(sGroupName, sUser, sPassword)).getAsJsonArray();
-			for(Iterator<JsonElement> jp = jProjects.iterator(); jp.hasNext(); )
+			if(null != sKey)
 			{
-				String sProjectName = jp.next().getAsString();
+				ListingCache.getInstance().put(gUser, sKey, lNames);
+			}
+			return(lNames);
+		}
+
+		CompletableFuture<List<String>> namesAsync(String[] arrParent, Cancellation pCancel)
+			throws Exception
+		{
+			final String sKey = isCached() ? key(arrParent) : null;
+			final List<String> lNames = null == sKey ? null : ListingCache.getInstance().get(gUser, sKey, gTtlSecs);
 
-				jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-				jRow.addProperty("groupname", sGroupName);
-				jRow.addProperty("projectname", sProjectName);
+			if(null != lNames)
+			{
+				return(CompletableFuture.completedFuture(lNames));
+			}
 
-				if(0 == --iRowstop)
+			final List<String> lFetched = new ArrayList<String>();
+			return(callAsync(arrParent, readNames(lFetched), pCancel).thenApply(new Function<Void,List<String>>()
+			{
+				@Override
+				public List<String> apply(Void v)
 				{
-					break rowstop;
+					if(null != sKey)
+					{
+						ListingCache.getInstance().put(gUser, sKey, lFetched);
+					}
+					return(lFetched);
 				}
-			}
+			}));
 		}
 
-		if(pIsCount)
+		private String key(String[] arrParent)
 		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+			StringBuilder sb = new StringBuilder(gLevel);
+			for(String s : arrParent)
+			{
+				sb.append('\u0000').append(s);
+			}
+			return(sb.toString());
 		}
+	}
 
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+	// Return a PreparedStatement which contains all the Groups
+	protected static JsonBackedStatement getGroupQueryStatement(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws Exception
+	{
+		return(buildStatement(0, groups(sUser, sPassword, pSettings, pPlan), sUser, sPassword, pSettings, pPlan));
 	}
 
-	// http://localhost:8080/rest/v1/group/name/Matillion/project
+	// The parent of the groups is the empty path
+	private static WalkSource<String[]> root()
+	{
+		return(FanOut.of(Collections.singletonList(new String[0])));
+	}
+
+	private static Listing groups(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws SQLException
+	{
+		return(new Listing("Error listing groups", sUser, sPassword, pSettings, pPlan, "group", pSettings.getGroupTtlSecs())
+		{
+			@Override
+			String path(String[] arrRoot)
+			{
+				return(groupsPath());
+			}
+		});
+	}
+
+	// http://localhost:8080/rest/v1/group
 	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
-	private static String getProjects(String pGroupName, String sUser, String sPassword)
+	private static String groupsPath()
+	{
+		return("/group");
+	}
+
+	// Return a PreparedStatement which contains all the Projects
+	protected static JsonBackedStatement getProjectQueryStatement(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
 		throws Exception
 	{
-		String sErrorText = "Error listing projects";
-		HttpHelper u = null;
+		return(buildStatement(1, projects(sUser, sPassword, pSettings, pPlan), sUser, sPassword, pSettings, pPlan));
+	}
 
-		try
+	// Every path pDepth levels down the hierarchy, e.g. {groupname, projectname} for 2
+	// One REST call per parent, run concurrently on the supplied executor, or asynchronously
+	private static WalkSource<String[]> walkTo(int pDepth, String sUser, String sPassword, METLSettings pSettings, ExecutorService pExecutor, int pWindow, QueryPlan pPlan, Cancellation pCancel)
+		throws SQLException
+	{
+		WalkSource<String[]> wsRet = root();
+
+		if(pDepth >= 1)
 		{
-			u = new HttpHelper(sUser, sPassword,
-					String.format("/group/name/%s/project",
-						makeUrlSafe(pGroupName)));
+			wsRet = walk(wsRet, null, 1, groups(sUser, sPassword, pSettings, pPlan), pPlan, pCancel);
 		}
-		catch(Exception e)
+		if(pDepth >= 2)
 		{
-			e.printStackTrace();
-			throw(new SQLException(sErrorText));
+			wsRet = walk(wsRet, pExecutor, pWindow, projects(sUser, sPassword, pSettings, pPlan), pPlan, pCancel);
 		}
-
-		if(200 != u.getCode())
+		if(pDepth >= 3)
 		{
-			throw(new SQLException(sErrorText));
+			wsRet = walk(wsRet, pExecutor, pWindow, versions(sUser, sPassword, pSettings, pPlan), pPlan, pCancel);
 		}
+		return(wsRet);
+	}
 
-		return(u.getResponse());
+	private static Listing projects(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws SQLException
+	{
+		return(new Listing("Error listing projects", sUser, sPassword, pSettings, pPlan, "project", pSettings.getProjectTtlSecs())
+		{
+			@Override
+			String path(String[] arrGroup)
+				throws Exception
+			{
+				return(projectsPath(arrGroup[0]));
+			}
+		});
 	}
 
-	// Return a PreparedStatement which contains all the Schedules
-	protected static JsonBackedStatement getScheduleQueryStatement(String sUser, String sPassword, boolean pIsCount, Integer pRowLimit)
+	// http://localhost:8080/rest/v1/group/name/Matillion/project
+	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
+	private static String projectsPath(String pGroupName)
 		throws Exception
 	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
+		return(String.format("/group/name/%s/project",
+				makeUrlSafe(pGroupName)));
+	}
 
-		JsonObject jRet = METLMetaData.getBaseJson();
-		for(String s: METLMetaData.METL_COLNAMES.get("schedule"))
+	// Return a PreparedStatement which contains all the Schedules
+	protected static JsonBackedStatement getScheduleQueryStatement(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws Exception
+	{
+		return(buildStatement(2, new Listing("Error listing schedules", sUser, sPassword, pSettings, pPlan)
 		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
-		}
-
-		JsonArray jGroups, jProjects, jSchedules;
-		JsonObject jRow;
+			@Override
+			String path(String[] arrProject)
+				throws Exception
+			{
+				return(schedulesPath(arrProject[0], arrProject[1]));
+			}
+		}, sUser, sPassword, pSettings, pPlan));
+	}
 
-		jGroups = new JsonParser().parse(APIv1.getGroups(sUser, sPassword)).getAsJsonArray();
+	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/schedule
+	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
+	private static String schedulesPath(String pGroupName, String pProjectName)
+		throws Exception
+	{
+		return(String.format("/group/name/%s/project/name/%s/schedule",
+				makeUrlSafe(pGroupName),
+				makeUrlSafe(pProjectName)));
+	}
 
-		rowstop:
-		for(Iterator<JsonElement> ji = jGroups.iterator(); ji.hasNext(); )
+	// Return a PreparedStatement which contains all the Environments
+	protected static JsonBackedStatement getEnvironmentQueryStatement(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws Exception
+	{
+		return(buildStatement(2, new Listing("Error listing environments", sUser, sPassword, pSettings, pPlan)
 		{
-			String sGroupName = ji.next().getAsString();
-
-			jProjects = new JsonParser().parse(APIv1.getProjects(sGroupName, sUser, sPassword)).getAsJsonArray();
-			for(Iterator<JsonElement> jp = jProjects.iterator(); jp.hasNext(); )
+			@Override
+			String path(String[] arrProject)
+				throws Exception
 			{
-				String sProjectName = jp.next().getAsString();
-
-				jSchedules = new JsonParser().parse(APIv1.getSchedules(sGroupName, sProjectName, sUser, sPassword)).getAsJsonArray();
-				for(Iterator<JsonElement> js = jSchedules.iterator(); js.hasNext(); )
-				{
-					String sScheduleName = js.next().getAsString();
+				return(environmentsPath(arrProject[0], arrProject[1]));
+			}
+		}, sUser, sPassword, pSettings, pPlan));
+	}
 
-					jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-					jRow.addProperty("groupname", sGroupName);
-					jRow.addProperty("projectname", sProjectName);
-					jRow.addProperty("schedulename", sScheduleName);
+	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/environment
+	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
+	private static String environmentsPath(String pGroupName, String pProjectName)
+		throws Exception
+	{
+		return(String.format("/group/name/%s/project/name/%s/environment",
+				makeUrlSafe(pGroupName),
+				makeUrlSafe(pProjectName)));
+	}
 
-					if(0 == --iRowstop)
-					{
-						break rowstop;
-					}
-				}
-			}
-		}
+	// Return a PreparedStatement which contains all the Versions
+	protected static JsonBackedStatement getVersionQueryStatement(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws Exception
+	{
+		return(buildStatement(2, versions(sUser, sPassword, pSettings, pPlan), sUser, sPassword, pSettings, pPlan));
+	}
 
-		if(pIsCount)
+	private static Listing versions(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws SQLException
+	{
+		return(new Listing("Error listing versions", sUser, sPassword, pSettings, pPlan, "version", pSettings.getVersionTtlSecs())
 		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
-		}
-
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+			@Override
+			String path(String[] arrProject)
+				throws Exception
+			{
+				return(versionsPath(arrProject[0], arrProject[1]));
+			}
+		});
 	}
 
-	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/schedule
+	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/version
 	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
-	private static String getSchedules(String pGroupName, String pProjectName, String sUser, String sPassword)
+	private static String versionsPath(String pGroupName, String pProjectName)
 		throws Exception
 	{
-		String sErrorText = "Error listing schedules";
-		HttpHelper u = null;
+		return(String.format("/group/name/%s/project/name/%s/version",
+				makeUrlSafe(pGroupName),
+				makeUrlSafe(pProjectName)));
+	}
 
-		try
-		{
-			u = new HttpHelper(sUser, sPassword,
-					String.format("/group/name/%s/project/name/%s/schedule",
-						makeUrlSafe(pGroupName),
-						makeUrlSafe(pProjectName)));
-		}
-		catch(Exception e)
+	// Return a PreparedStatement which contains all the Job Names on the instance
+	// Served from the JobCatalog if this user has a recent enough snapshot
+	protected static JsonBackedStatement getAllJobNamesQueryStatement(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws Exception
+	{
+		List<String[]> lCatalog = JobCatalog.getInstance().getJobs(sUser, sPassword);
+
+		if(null != lCatalog)
 		{
-			e.printStackTrace();
-			throw(new SQLException(sErrorText));
+			return(buildStatement(lCatalog, pPlan));
 		}
 
-		if(200 != u.getCode())
+		return(buildStatement(3, new Listing("Error listing jobs", sUser, sPassword, pSettings, pPlan, "job", pSettings.getJobTtlSecs())
 		{
-			throw(new SQLException(sErrorText));
-		}
+			@Override
+			String path(String[] arrVersion)
+				throws Exception
+			{
+				return(jobsPath(arrVersion[0], arrVersion[1], arrVersion[2]));
+			}
+		}, sUser, sPassword, pSettings, pPlan));
+	}
 
-		return(u.getResponse());
+	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/version/name/default/job
+	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
+	private static String jobsPath(String pGroupName, String pProjectName, String pVersionName)
+		throws Exception
+	{
+		return(String.format("/group/name/%s/project/name/%s/version/name/%s/job",
+				makeUrlSafe(pGroupName),
+				makeUrlSafe(pProjectName),
+				makeUrlSafe(pVersionName)));
 	}
 
-	// Return a PreparedStatement which contains all the Environments
-	protected static JsonBackedStatement getEnvironmentQueryStatement(String sUser, String sPassword, boolean pIsCount, Integer pRowLimit)
+	// One level of the hierarchy below a {groupname, ...} path, always fetched from the REST API
+	// Used by the JobCatalog refresher
+	protected static List<String> listChildren(String sUser, String sPassword, String[] arrParent)
 		throws Exception
 	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
+		List<String> lRet = new ArrayList<String>();
 
-		JsonObject jRet = METLMetaData.getBaseJson();
-		for(String s: METLMetaData.METL_COLNAMES.get("environment"))
+		switch(arrParent.length)
 		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
+			case 0:
+				get(sUser, sPassword, groupsPath(), "Error listing groups", readNames(lRet), CATALOG_OPTIONS, null);
+				break;
+			case 1:
+				get(sUser, sPassword, projectsPath(arrParent[0]), "Error listing projects", readNames(lRet), CATALOG_OPTIONS, null);
+				break;
+			case 2:
+				get(sUser, sPassword, versionsPath(arrParent[0], arrParent[1]), "Error listing versions", readNames(lRet), CATALOG_OPTIONS, null);
+				break;
+			case 3:
+				get(sUser, sPassword, jobsPath(arrParent[0], arrParent[1], arrParent[2]), "Error listing jobs", readNames(lRet), CATALOG_OPTIONS, null);
+				break;
+			default:
+				throw(new IllegalArgumentException("Jobs have no children"));
 		}
+		return(lRet);
+	}
 
-		JsonArray jGroups, jProjects, jEnvironments;
-		JsonObject jRow;
-
-		jGroups = new JsonParser().parse(APIv1.getGroups(sUser, sPassword)).getAsJsonArray();
-
-		rowstop:
-		for(Iterator<JsonElement> ji = jGroups.iterator(); ji.hasNext(); )
+	// Return a PreparedStatement which contains all the Running Jobs
+	protected static JsonBackedStatement getRunningJobQueryStatement(String sUser, String sPassword, METLSettings pSettings, QueryPlan pPlan)
+		throws Exception
+	{
+		return(buildStatement(2, new Listing("Error listing running jobs", sUser, sPassword, pSettings, pPlan)
 		{
-			String sGroupName = ji.next().getAsString();
+			@Override
+			String path(String[] arrProject)
+				throws Exception
+			{
+				return(runningJobsPath(arrProject[0], arrProject[1]));
+			}
 
-			jProjects = new JsonParser().parse(APIv1.getProjects(sGroupName, sUser, sPassword)).getAsJsonArray();
-			for(Iterator<JsonElement> jp = jProjects.iterator(); jp.hasNext(); )
+			// The elements are task objects, which are streamed straight into runningjob rows
+			@Override
+			List<String[]> rows(String[] arrProject, Cancellation pCancel)
+				throws Exception
 			{
-				String sProjectName = jp.next().getAsString();
+				List<String[]> lRet = new ArrayList<String[]>();
+				call(arrProject, readRunningJobs(lRet, arrProject[0], arrProject[1]), pCancel);
+				return(lRet);
+			}
 
-				jEnvironments = new JsonParser().parse(APIv1.getEnvironments(sGroupName, sProjectName, sUser, sPassword)).getAsJsonArray();
-				for(Iterator<JsonElement> je = jEnvironments.iterator(); je.hasNext(); )
+			@Override
+			CompletableFuture<List<String[]>> rowsAsync(String[] arrProject, Cancellation pCancel)
+				throws Exception
+			{
+				final List<String[]> lRet = new ArrayList<String[]>();
+				return(callAsync(arrProject, readRunningJobs(lRet, arrProject[0], arrProject[1]), pCancel).thenApply(new Function<Void,List<String[]>>()
 				{
-					String sEnvironmentName = je.next().getAsString();
-
-					jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-					jRow.addProperty("groupname", sGroupName);
-					jRow.addProperty("projectname", sProjectName);
-					jRow.addProperty("environmentname", sEnvironmentName);
-
-					if(0 == --iRowstop)
+					@Override
+					public List<String[]> apply(Void v)
 					{
-						break rowstop;
+						return(lRet);
 					}
-				}
+				}));
 			}
-		}
-
-		if(pIsCount)
-		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
-		}
+		}, sUser, sPassword, pSettings, pPlan));
+	}
 
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/task/running
+	// Returns a JSON array of JSON Objects
+	private static String runningJobsPath(String pGroupName, String pProjectName)
+		throws Exception
+	{
+		return(String.format("/group/name/%s/project/name/%s/task/running",
+				makeUrlSafe(pGroupName),
+				makeUrlSafe(pProjectName)));
 	}
 
-	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/environment
-	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
-	private static String getEnvironments(String pGroupName, String pProjectName, String sUser, String sPassword)
+	// A GET of any path, passing the body to pHandler
+	// pCancel may be null if the call is not made for a statement
+	private static void get(String sUser, String sPassword, String pPath, String sErrorText, HttpHelper.JsonHandler pHandler, HttpHelper.Options pOptions, Cancellation pCancel)
 		throws Exception
 	{
-		String sErrorText = "Error listing environments";
 		HttpHelper u = null;
 
 		try
 		{
-			u = new HttpHelper(sUser, sPassword,
-					String.format("/group/name/%s/project/name/%s/environment",
-						makeUrlSafe(pGroupName),
-						makeUrlSafe(pProjectName)));
+			u = new HttpHelper(sUser, sPassword, pPath, pHandler, pOptions, pCancel);
+		}
+		catch(SQLException sx)
+		{
+			// Already says what went wrong, e.g. that the API isn't responding
+			throw(sx);
 		}
 		catch(Exception e)
 		{
@@ -319,305 +540,476 @@ public class APIv1
 		{
 			throw(new SQLException(sErrorText));
 		}
-
-		return(u.getResponse());
 	}
 
-	// Return a PreparedStatement which contains all the Versions
-	protected static JsonBackedStatement getVersionQueryStatement(String sUser, String sPassword, boolean pIsCount, Integer pRowLimit)
-		throws Exception
+	// Stream a JSON Array of task objects into runningjob rows
+	private static HttpHelper.JsonHandler readRunningJobs(final List<String[]> pRows, final String pGroupName, final String pProjectName)
 	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
-
-		JsonObject jRet = METLMetaData.getBaseJson();
-		for(String s: METLMetaData.METL_COLNAMES.get("version"))
+		return(new HttpHelper.JsonHandler()
 		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
-		}
-
-		JsonArray jGroups, jProjects, jVersions;
-		JsonObject jRow;
+			@Override
+			public void handle(JsonReader pReader)
+				throws IOException
+			{
+				pReader.beginArray();
+				while(pReader.hasNext())
+				{
+					pRows.add(readRunningJob(pReader, pGroupName, pProjectName));
+				}
+				pReader.endArray();
+			}
+		});
+	}
 
-		jGroups = new JsonParser().parse(APIv1.getGroups(sUser, sPassword)).getAsJsonArray();
+	// One task object, e.g. {"id":123, "jobName":"Blah", "versionName":"default", "state":"RUNNING", "startTime":1600000000000, ...}
+	// Returns {groupname, projectname, versionname, id, jobname, starttime}
+	private static String[] readRunningJob(JsonReader pReader, String pGroupName, String pProjectName)
+		throws IOException
+	{
+		String sVersionName = null, sId = null, sJobName = null, sJobState = null;
+		long lStartTime = 0;
 
-		rowstop:
-		for(Iterator<JsonElement> ji = jGroups.iterator(); ji.hasNext(); )
+		pReader.beginObject();
+		while(pReader.hasNext())
 		{
-			String sGroupName = ji.next().getAsString();
+			String sName = pReader.nextName();
 
-			jProjects = new JsonParser().parse(APIv1.getProjects(sGroupName, sUser, sPassword)).getAsJsonArray();
-			for(Iterator<JsonElement> jp = jProjects.iterator(); jp.hasNext(); )
+			if(JsonToken.NULL == pReader.peek())
 			{
-				String sProjectName = jp.next().getAsString();
-
-				jVersions = new JsonParser().parse(APIv1.getVersions(sGroupName, sProjectName, sUser, sPassword)).getAsJsonArray();
-				for(Iterator<JsonElement> je = jVersions.iterator(); je.hasNext(); )
-				{
-					String sVersionName = je.next().getAsString();
-
-					jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-					jRow.addProperty("groupname", sGroupName);
-					jRow.addProperty("projectname", sProjectName);
-					jRow.addProperty("versionname", sVersionName);
-
-					if(0 == --iRowstop)
-					{
-						break rowstop;
-					}
-				}
+				pReader.nextNull();
+			}
+			else if(sName.equals("versionName"))
+			{
+				sVersionName = pReader.nextString();
+			}
+			else if(sName.equals("id"))
+			{
+				sId = pReader.nextString();
+			}
+			else if(sName.equals("jobName"))
+			{
+				sJobName = pReader.nextString();
+			}
+			else if(sName.equals("state"))
+			{
+				sJobState = pReader.nextString();
+			}
+			else if(sName.equals("startTime"))
+			{
+				lStartTime = pReader.nextLong();
+			}
+			else
+			{
+				pReader.skipValue();
 			}
 		}
+		pReader.endObject();
+
+		String sStartTime;
 
-		if(pIsCount)
+		// Queued jobs also show up here
+		if("RUNNING".equals(sJobState))
 		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+			java.util.Date d = new java.util.Date(lStartTime);
+			LocalDateTime ldt = d.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
+			sStartTime = ldt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+		}
+		else
+		{
+			sStartTime = sJobState;
 		}
 
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+		return(new String[] {pGroupName, pProjectName, sVersionName, sId, sJobName, sStartTime});
 	}
 
-	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/version
-	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
-	private static String getVersions(String pGroupName, String pProjectName, String sUser, String sPassword)
-		throws Exception
+	// http://localhost:8080/rest/v1/userconfig/export
+	// This is used during connect()
+	protected static void tryLogin(String sUser, String sPassword)
+		throws SQLException
 	{
-		String sErrorText = "Error listing versions";
+		int iRespCode;
+		StringBuffer sbData = new StringBuffer();
+
 		HttpHelper u = null;
 
 		try
 		{
-			u = new HttpHelper(sUser, sPassword,
-					String.format("/group/name/%s/project/name/%s/version",
-						makeUrlSafe(pGroupName),
-						makeUrlSafe(pProjectName)));
+			u = new HttpHelper(sUser, sPassword, "");
+		}
+		catch(SQLException sx)
+		{
+			throw(sx);
 		}
 		catch(Exception e)
 		{
 			e.printStackTrace();
-			throw(new SQLException(sErrorText));
+			throw(new SQLException(AUTH_ERROR_MSG));
 		}
 
 		if(200 != u.getCode())
 		{
-			throw(new SQLException(sErrorText));
+			throw(new SQLException(AUTH_ERROR_MSG));
 		}
-
-		return(u.getResponse());
 	}
 
-	// Return a PreparedStatement which contains all the Job Names on the instance
-	protected static JsonBackedStatement getAllJobNamesQueryStatement(String sUser, String sPassword, boolean pIsCount, Integer pRowLimit)
+	// Build a table from rows which are already in memory, or just count them
+	private static JsonBackedStatement buildStatement(List<String[]> pRows, final QueryPlan pPlan)
 		throws Exception
 	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
+		final List<String[]> lRows = filter(new ArrayList<String[]>(pRows), pPlan);
 
-		JsonObject jRet = METLMetaData.getBaseJson();
-		for(String s: METLMetaData.METL_COLNAMES.get("job"))
+		if(pPlan.isCount())
 		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
+			Integer iRowLimit = pPlan.getRowLimit();
+			int iCount = null == iRowLimit || iRowLimit.intValue() <= 0 ? lRows.size() : Math.min(lRows.size(), iRowLimit.intValue());
+			return(METLMetaData.getRowcountStatement(iCount, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
 		}
 
-		JsonArray jGroups, jProjects, jVersions, jJobs;
-		JsonObject jRow;
+		return(lazyStatement(pPlan, new RowCursor.Factory()
+		{
+			@Override
+			public RowCursor open(Cancellation pCancel)
+			{
+				return(cursor(FanOut.of(lRows), null, pPlan));
+			}
+		}));
+	}
 
-		jGroups = new JsonParser().parse(APIv1.getGroups(sUser, sPassword)).getAsJsonArray();
+	// Build a table from the children of every path pDepth levels down the hierarchy, or just count them
+	// Nothing is fetched until the statement is executed, so that the walk is covered by its query timeout and can be cancelled
+	// The rows are only walked as far as they are read, whereas a count is made as soon as the statement is executed
+	private static JsonBackedStatement buildStatement(final int pDepth, final Listing pListing, final String sUser, final String sPassword, final METLSettings pSettings, final QueryPlan pPlan)
+		throws Exception
+	{
+		final int iWindow = pSettings.getParallelism();
 
-		rowstop:
-		for(Iterator<JsonElement> ji = jGroups.iterator(); ji.hasNext(); )
+		if(pPlan.isCount())
 		{
-			String sGroupName = ji.next().getAsString();
-
-			jProjects = new JsonParser().parse(APIv1.getProjects(sGroupName, sUser, sPassword)).getAsJsonArray();
-			for(Iterator<JsonElement> jp = jProjects.iterator(); jp.hasNext(); )
+			return(new JsonBackedStatement(new String[] {"counter"}, new int[] {Types.BIGINT}, new RowCursor.Factory()
 			{
-				String sProjectName = jp.next().getAsString();
-
-				jVersions = new JsonParser().parse(APIv1.getVersions(sGroupName, sProjectName, sUser, sPassword)).getAsJsonArray();
-				for(Iterator<JsonElement> je = jVersions.iterator(); je.hasNext(); )
+				@Override
+				public RowCursor open(Cancellation pCancel)
+					throws SQLException
 				{
-					String sVersionName = je.next().getAsString();
+					ExecutorService x = newExecutor(pSettings);
 
-					jJobs = new JsonParser().parse(APIv1.getJobs(sGroupName, sProjectName, sVersionName, sUser, sPassword)).getAsJsonArray();
-					for(Iterator<JsonElement> jj = jJobs.iterator(); jj.hasNext(); )
+					try
 					{
-						String sJobName = jj.next().getAsString();
-
-						jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-						jRow.addProperty("groupname", sGroupName);
-						jRow.addProperty("projectname", sProjectName);
-						jRow.addProperty("versionname", sVersionName);
-						jRow.addProperty("jobname", sJobName);
-
-						if(0 == --iRowstop)
-						{
-							break rowstop;
-						}
+						int iCount = count(walkTo(pDepth, sUser, sPassword, pSettings, x, iWindow, pPlan, pCancel), x, iWindow, pListing, pPlan, pCancel);
+						return(rowcountCursor(iCount));
+					}
+					catch(SQLException sx)
+					{
+						throw(sx);
+					}
+					catch(Exception e)
+					{
+						throw(new SQLException(e.getMessage(), e));
+					}
+					finally
+					{
+						FanOut.shutdown(x);
 					}
 				}
-			}
+			}, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
 		}
 
-		if(pIsCount)
+		return(lazyStatement(pPlan, new RowCursor.Factory()
 		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
-		}
-
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+			@Override
+			public RowCursor open(Cancellation pCancel)
+				throws SQLException
+			{
+				// The executor lasts as long as the cursor
+				ExecutorService x = newExecutor(pSettings);
+				return(cursor(walk(walkTo(pDepth, sUser, sPassword, pSettings, x, iWindow, pPlan, pCancel), x, iWindow, pListing, pPlan, pCancel), x, pPlan));
+			}
+		}));
 	}
 
-	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/version/name/default/job
-	// Returns a JSON Array, e.g. [ "Blah", "Blah Blah" ]
-	private static String getJobs(String pGroupName, String pProjectName, String pVersionName, String sUser, String sPassword)
-		throws Exception
+	// The one row of a count, as per METLMetaData.getRowcountStatement
+	private static RowCursor rowcountCursor(final int pCount)
 	{
-		String sErrorText = "Error listing jobs";
-		HttpHelper u = null;
-
-		try
+		return(new RowCursor()
 		{
-			u = new HttpHelper(sUser, sPassword,
-					String.format("/group/name/%s/project/name/%s/version/name/%s/job",
-						makeUrlSafe(pGroupName),
-						makeUrlSafe(pProjectName),
-						makeUrlSafe(pVersionName)));
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-			throw(new SQLException(sErrorText));
-		}
+			private boolean bDone = false;
 
-		if(200 != u.getCode())
-		{
-			throw(new SQLException(sErrorText));
-		}
+			@Override
+			public String[] next()
+			{
+				if(bDone)
+				{
+					return(null);
+				}
+				bDone = true;
+				return(new String[] {String.valueOf(pCount)});
+			}
 
-		return(u.getResponse());
+			@Override
+			public void close()
+			{
+			}
+		});
 	}
 
-	// Return a PreparedStatement which contains all the Running Jobs
-	protected static JsonBackedStatement getRunningJobQueryStatement(String sUser, String sPassword, boolean pIsCount, Integer pRowLimit)
-		throws Exception
+	// The asynchronous transport needs no threads of its own to keep calls in flight
+	private static ExecutorService newExecutor(METLSettings pSettings)
 	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
-
-		JsonObject jRet = METLMetaData.getBaseJson();
-		for(String s: METLMetaData.METL_COLNAMES.get("runningjob"))
-		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
-		}
+		return(pSettings.isAsyncTransport() ? null : FanOut.newExecutor(pSettings.getParallelism(), pSettings.isVirtualThreads()));
+	}
 
-		JsonArray jGroups, jProjects, jRunningJobs;
-		JsonObject jJob, jRow;
+	private static JsonBackedStatement lazyStatement(QueryPlan pPlan, RowCursor.Factory pCursorFactory)
+	{
+		return(new JsonBackedStatement(pPlan.getColumns(), pPlan.getColumnTypes(), pCursorFactory, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+	}
 
-		jGroups = new JsonParser().parse(APIv1.getGroups(sUser, sPassword)).getAsJsonArray();
+	// Hands out the rows of a table one by one, stopping (and cancelling any outstanding REST calls) at the LIMIT
+	// Only the columns in the SELECT list are returned
+	private static RowCursor cursor(final WalkSource<String[]> pRows, final ExecutorService pExecutor, QueryPlan pPlan)
+	{
+		final int[] arrProjection = pPlan.getProjection();
+		final int iRowLimit = null == pPlan.getRowLimit() ? -1 : pPlan.getRowLimit().intValue();
 
-		rowstop:
-		for(Iterator<JsonElement> ji = jGroups.iterator(); ji.hasNext(); )
+		return(new RowCursor()
 		{
-			String sGroupName = ji.next().getAsString();
+			private int iRowsLeft = iRowLimit <= 0 ? Integer.MAX_VALUE : iRowLimit;
 
-			jProjects = new JsonParser().parse(APIv1.getProjects(sGroupName, sUser, sPassword)).getAsJsonArray();
-			for(Iterator<JsonElement> jp = jProjects.iterator(); jp.hasNext(); )
+			@Override
+			public String[] next()
+				throws SQLException
 			{
-				String sProjectName = jp.next().getAsString();
-				String sJobState;
-
-				jRunningJobs = APIv1.getRunningJobs(sGroupName, sProjectName, sUser, sPassword);
-
-				for(Iterator<JsonElement> jj = jRunningJobs.iterator(); jj.hasNext(); )
+				try
 				{
-					jJob = jj.next().getAsJsonObject();
-
-					jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-					jRow.addProperty("groupname", sGroupName);
-					jRow.addProperty("projectname", sProjectName);
-					jRow.addProperty("versionname", jJob.get("versionName").getAsString());
-					jRow.addProperty("id", jJob.get("id").getAsString());
-					jRow.addProperty("jobname", jJob.get("jobName").getAsString());
-
-					// Queued jobs also show up here
-					sJobState = jJob.get("state").getAsString();
-					if(sJobState.equals("RUNNING"))
+					if(iRowsLeft <= 0 || !pRows.hasNext())
 					{
-						java.util.Date d = new java.util.Date(jJob.get("startTime").getAsLong());
-						LocalDateTime ldt = d.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
-						jRow.addProperty("starttime", ldt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-					}
-					else
-					{
-						jRow.addProperty("starttime", sJobState);
+						return(null);
 					}
 
-					if(0 == --iRowstop)
+					String[] arrValues = pRows.next();
+					String[] arrRet = new String[arrProjection.length];
+
+					for(int i = 0; i < arrProjection.length; i++)
 					{
-						break rowstop;
+						arrRet[i] = arrValues[arrProjection[i]];
 					}
+					iRowsLeft--;
+					return(arrRet);
+				}
+				catch(SQLException sx)
+				{
+					throw(sx);
+				}
+				catch(Exception e)
+				{
+					throw(new SQLException(e.getMessage(), e));
 				}
 			}
-		}
 
-		if(pIsCount)
+			@Override
+			public void close()
+			{
+				pRows.close();
+				FanOut.shutdown(pExecutor);
+			}
+		});
+	}
+
+	// The children of every parent path, in order, leaving out any which don't match the WHERE clause
+	// One REST call per parent, run concurrently on the supplied executor
+	private static WalkSource<String[]> walk(WalkSource<String[]> pParents, ExecutorService pExecutor, int pWindow, final Listing pListing, final QueryPlan pPlan, final Cancellation pCancel)
+	{
+		if(pListing.isAsync())
 		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+			return(FanOut.flatten(new FanOut<String[],List<String[]>>(pParents, pWindow, new FanOut.AsyncTask<String[],List<String[]>>()
+			{
+				@Override
+				public CompletableFuture<List<String[]>> call(String[] arrParent)
+					throws Exception
+				{
+					return(pListing.rowsAsync(arrParent, pCancel).thenApply(new Function<List<String[]>,List<String[]>>()
+					{
+						@Override
+						public List<String[]> apply(List<String[]> lRows)
+						{
+							return(filter(lRows, pPlan));
+						}
+					}));
+				}
+			})));
 		}
 
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+		return(FanOut.flatten(new FanOut<String[],List<String[]>>(pParents, pExecutor, pWindow, new FanOut.Task<String[],List<String[]>>()
+		{
+			@Override
+			public List<String[]> call(String[] arrParent)
+				throws Exception
+			{
+				return(filter(pListing.rows(arrParent, pCancel), pPlan));
+			}
+		})));
+	}
+
+	// Pruning the paths at each level means the subtrees below them are never fetched
+	private static List<String[]> filter(List<String[]> pRows, QueryPlan pPlan)
+	{
+		for(Iterator<String[]> it = pRows.iterator(); it.hasNext(); )
+		{
+			if(!pPlan.accepts(it.next()))
+			{
+				it.remove();
+			}
+		}
+		return(pRows);
 	}
 
-	// http://localhost:8080/rest/v1/group/name/Matillion/project/name/Demo/task/running
-	// Returns a JSON array of JSON Objects
-	private static JsonArray getRunningJobs(String pGroupName, String pProjectName, String sUser, String sPassword)
+	// For a COUNT(*), tally the length of each parent's JSON array as it streams past, without building any rows
+	// Unless the WHERE clause has a predicate on the children themselves, in which case they have to be built and checked,
+	// or the listing is cached, in which case it is read from or saved to the cache
+	// As with the rows, the count stops at the LIMIT
+	private static int count(WalkSource<String[]> pParents, ExecutorService pExecutor, int pWindow, final Listing pListing, final QueryPlan pPlan, final Cancellation pCancel)
 		throws Exception
 	{
-		String sErrorText = "Error listing running jobs";
-		HttpHelper u = null;
+		Integer iRowLimit = pPlan.getRowLimit();
+		int iRowstop = null == iRowLimit || iRowLimit.intValue() <= 0 ? Integer.MAX_VALUE : iRowLimit.intValue();
+		long lRet = 0;
+
+		FanOut<String[],Integer> foCounts = pListing.isAsync() ? countAsync(pParents, pWindow, pListing, pPlan, pCancel) : new FanOut<String[],Integer>(pParents, pExecutor, pWindow, new FanOut.Task<String[],Integer>()
+		{
+			@Override
+			public Integer call(String[] arrParent)
+				throws Exception
+			{
+				if(pPlan.hasFilterFrom(arrParent.length) || pListing.isCached())
+				{
+					return(Integer.valueOf(filter(pListing.rows(arrParent, pCancel), pPlan).size()));
+				}
+
+				int[] arrCount = new int[1];
+				pListing.call(arrParent, countElements(arrCount), pCancel);
+				return(Integer.valueOf(arrCount[0]));
+			}
+		});
 
 		try
 		{
-			u = new HttpHelper(sUser, sPassword,
-					String.format("/group/name/%s/project/name/%s/task/running",
-						makeUrlSafe(pGroupName),
-						makeUrlSafe(pProjectName)));
+			while(lRet < iRowstop && foCounts.hasNext())
+			{
+				lRet += foCounts.next().intValue();
+			}
 		}
-		catch(Exception e)
+		finally
 		{
-			e.printStackTrace();
-			throw(new SQLException(sErrorText));
+			foCounts.close();
 		}
 
-		if(200 != u.getCode())
-		{
-			throw(new SQLException(sErrorText));
-		}
+		return((int)Math.min(lRet, iRowstop));
+	}
 
-		return(new JsonParser().parse(u.getResponse()).getAsJsonArray());
+	// Asynchronously, every row is built and counted
+	private static FanOut<String[],Integer> countAsync(WalkSource<String[]> pParents, int pWindow, final Listing pListing, final QueryPlan pPlan, final Cancellation pCancel)
+	{
+		return(new FanOut<String[],Integer>(pParents, pWindow, new FanOut.AsyncTask<String[],Integer>()
+		{
+			@Override
+			public CompletableFuture<Integer> call(String[] arrParent)
+				throws Exception
+			{
+				return(pListing.rowsAsync(arrParent, pCancel).thenApply(new Function<List<String[]>,Integer>()
+				{
+					@Override
+					public Integer apply(List<String[]> lRows)
+					{
+						return(Integer.valueOf(filter(lRows, pPlan).size()));
+					}
+				}));
+			}
+		}));
 	}
 
-	// http://localhost:8080/rest/v1/userconfig/export
-	// This is used during connect()
-	protected static void tryLogin(String sUser, String sPassword)
-		throws SQLException
+	// Count the elements of a JSON Array into pCount[0], skipping over their content
+	// If the array hasn't changed since it was last counted, the count is reused
+	private static HttpHelper.JsonHandler countElements(final int[] pCount)
 	{
-		int iRespCode;
-		StringBuffer sbData = new StringBuffer();
+		return(new HttpHelper.ReusableHandler()
+		{
+			private int iCounted = 0;
 
-		HttpHelper u = null;
+			@Override
+			public void handle(JsonReader pReader)
+				throws IOException
+			{
+				pReader.beginArray();
+				while(pReader.hasNext())
+				{
+					pReader.skipValue();
+					iCounted++;
+				}
+				pReader.endArray();
+				pCount[0] += iCounted;
+			}
 
-		try
-		{
-			u = new HttpHelper(sUser, sPassword, "");
-		}
-		catch(Exception e)
+			@Override
+			public Object getResult()
+			{
+				return(Integer.valueOf(iCounted));
+			}
+
+			@Override
+			public void reuse(Object pResult)
+			{
+				pCount[0] += ((Integer)pResult).intValue();
+			}
+		});
+	}
+
+	// Stream a JSON Array of names, e.g. [ "Blah", "Blah Blah" ], into pNames
+	// If the array hasn't changed since it was last read, the names are reused
+	private static HttpHelper.JsonHandler readNames(final List<String> pNames)
+	{
+		return(new HttpHelper.ReusableHandler()
 		{
-			e.printStackTrace();
-			throw(new SQLException(AUTH_ERROR_MSG));
-		}
+			private final List<String> lRead = new ArrayList<String>();
 
-		if(200 != u.getCode())
+			@Override
+			public void handle(JsonReader pReader)
+				throws IOException
+			{
+				pReader.beginArray();
+				while(pReader.hasNext())
+				{
+					lRead.add(pReader.nextString());
+				}
+				pReader.endArray();
+				pNames.addAll(lRead);
+			}
+
+			@Override
+			public Object getResult()
+			{
+				return(Collections.unmodifiableList(lRead));
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public void reuse(Object pResult)
+			{
+				pNames.addAll((List<String>)pResult);
+			}
+		});
+	}
+
+	// One new path per child name, e.g. {group, project} + [v1, v2] gives {group, project, v1} and {group, project, v2}
+	private static List<String[]> extendPath(String[] arrParent, List<String> lChildren)
+	{
+		List<String[]> lRet = new ArrayList<String[]>(lChildren.size());
+
+		for(String sChild : lChildren)
 		{
-			throw(new SQLException(AUTH_ERROR_MSG));
+			String[] arrPath = Arrays.copyOf(arrParent, arrParent.length + 1);
+			arrPath[arrParent.length] = sChild;
+			lRet.add(arrPath);
 		}
+		return(lRet);
 	}
 
 	// URLEncoder.encode converts to application/x-www-form-urlencoded where a space is a + sign
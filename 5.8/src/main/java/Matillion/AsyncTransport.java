@@ -0,0 +1,72 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.sql.*;
+import java.util.concurrent.*;
+
+/**
+ * A non-blocking alternative to HttpHelper, used when a connection sets transport=async.<br>
+ * Each GET returns straight away with a CompletableFuture, so a walk of the hierarchy can keep many REST calls in flight without a thread for each one.
+ * The implementation uses java.net.http, which needs Java 11, so it's only loaded, by name, when it's first asked for. On older JVMs the driver carries on working with the blocking transport.
+ */
+abstract class AsyncTransport
+{
+	private final static String IMPLEMENTATION = "com.thereisnogravity.JdkAsyncTransport";
+
+	private static AsyncTransport gTransportSingleton = null;
+
+	/**
+	 * A complete response. Unlike HttpHelper's, the body is buffered, since it arrives on another thread
+	 */
+	protected static class Response
+	{
+		private final int gRespCode;
+		private final byte[] gBody;
+
+		protected Response(int pRespCode, byte[] pBody)
+		{
+			this.gRespCode = pRespCode;
+			this.gBody = pBody;
+		}
+
+		protected int getCode()
+		{
+			return(gRespCode);
+		}
+
+		protected byte[] getBody()
+		{
+			return(gBody);
+		}
+	}
+
+	/**
+	 * @throws SQLException If the JVM is too old for java.net.http
+	 */
+	protected static synchronized AsyncTransport getInstance()
+		throws SQLException
+	{
+		if(null == gTransportSingleton)
+		{
+			try
+			{
+				gTransportSingleton = (AsyncTransport)Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+			}
+			catch(Throwable t)
+			{
+				throw(new SQLException("transport=async needs Java 11 or later"));
+			}
+		}
+		return(gTransportSingleton);
+	}
+
+	/**
+	 * Start a GET of a REST API path, e.g. /group
+	 * @param pReadTimeoutMs How long to wait for the response to start, after which the future fails
+	 */
+	protected abstract CompletableFuture<Response> get(String sUser, String sPassword, String pPath, int pReadTimeoutMs);
+}
@@ -0,0 +1,142 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.sql.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * CircuitBreaker stops the driver waiting for timeouts, call after call, while the REST API is down or not responding.<br>
+ * After {@link #FAILURE_THRESHOLD} calls in a row have failed to get a response, or got a 5xx one, the circuit opens:
+ * from then on every call in the JVM fails straight away with a {@link SQLTransientConnectionException} which says why.
+ * Once the circuit has been open for a while it is half open, and the next call is let through as a probe while the others go on failing.
+ * If the probe gets a response the circuit closes. If not, it opens again, for twice as long, up to {@link #MAX_OPEN_SECS}.
+ * A response with any other code, even 401 or 404, shows the API is up, and resets the count.
+ */
+final class CircuitBreaker
+{
+	protected final static int FAILURE_THRESHOLD = 5;
+	protected final static int MIN_OPEN_SECS = 5;
+	protected final static int MAX_OPEN_SECS = 60;
+
+	private static CircuitBreaker gBreakerSingleton = null;
+
+	private enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private State gState = State.CLOSED;
+	private int gFailures = 0;
+	private int gOpenSecs = MIN_OPEN_SECS;
+	private long gOpenUntil = 0;
+	private boolean gProbing = false;
+	private String gLastFailure = null;
+
+	private final AtomicLong gFailedFast = new AtomicLong();
+
+	protected static synchronized CircuitBreaker getInstance()
+	{
+		if(null == gBreakerSingleton)
+		{
+			gBreakerSingleton = new CircuitBreaker();
+		}
+		return(gBreakerSingleton);
+	}
+
+	/**
+	 * Called before each call. Every call which is admitted must be followed by exactly one of {@link #succeeded}, {@link #failed} or {@link #abandoned}
+	 * @return boolean Whether the call is the half-open circuit's probe
+	 * @throws SQLTransientConnectionException If the circuit is open
+	 */
+	protected synchronized boolean admit()
+		throws SQLTransientConnectionException
+	{
+		if(State.OPEN == gState && System.currentTimeMillis() >= gOpenUntil)
+		{
+			gState = State.HALF_OPEN;
+		}
+
+		if(State.CLOSED == gState)
+		{
+			return(false);
+		}
+
+		if(State.HALF_OPEN == gState && !gProbing)
+		{
+			gProbing = true;
+			return(true);
+		}
+
+		gFailedFast.incrementAndGet();
+		long lWaitSecs = Math.max(1, (gOpenUntil - System.currentTimeMillis() + 999) / 1000);
+		throw(new SQLTransientConnectionException(State.OPEN == gState
+			? String.format("The Matillion API is not responding (%s), so calls to it are failing fast for the next %d seconds", gLastFailure, lWaitSecs)
+			: String.format("The Matillion API is not responding (%s), so calls to it are failing fast until it has been checked", gLastFailure)));
+	}
+
+	/**
+	 * The call got a response which shows the API is working
+	 */
+	protected synchronized void succeeded(boolean bProbe)
+	{
+		gFailures = 0;
+		if(bProbe || State.CLOSED != gState)
+		{
+			gState = State.CLOSED;
+			gOpenSecs = MIN_OPEN_SECS;
+			gProbing = false;
+		}
+	}
+
+	/**
+	 * The call timed out, couldn't connect, or got a 5xx response
+	 * @param pWhy What went wrong, for the message when calls fail fast
+	 */
+	protected synchronized void failed(boolean bProbe, String pWhy)
+	{
+		gLastFailure = pWhy;
+
+		if(bProbe)
+		{
+			gProbing = false;
+			gOpenSecs = Math.min(MAX_OPEN_SECS, 2 * gOpenSecs);
+			open();
+		}
+		else if(State.CLOSED == gState && ++gFailures >= FAILURE_THRESHOLD)
+		{
+			open();
+		}
+	}
+
+	/**
+	 * The call ended without showing whether the API works, e.g. because it was cancelled, so a half-open circuit needs another probe
+	 */
+	protected synchronized void abandoned(boolean bProbe)
+	{
+		if(bProbe)
+		{
+			gProbing = false;
+		}
+	}
+
+	protected synchronized String getState()
+	{
+		return(gState.name());
+	}
+
+	/**
+	 * The number of calls which failed without being made because the circuit was open
+	 */
+	protected long getFailedFast()
+	{
+		return(gFailedFast.get());
+	}
+
+	private void open()
+	{
+		gState = State.OPEN;
+		gFailures = 0;
+		gOpenUntil = System.currentTimeMillis() + gOpenSecs * 1000L;
+	}
+}
@@ -0,0 +1,319 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ConcurrencyLimiter bounds the number of HTTP requests in flight to the REST API across the whole JVM, adapting the bound to how the API is coping.<br>
+ * The API is served by the same Tomcat which runs the ETL jobs, so the driver backs off as soon as it sees signs of load, rather than waiting to be told.
+ * The limit grows while responses come back about as quickly as they do when the API is idle: doubling at first, then by about one for every limit's worth of responses.
+ * It is cut by 10% when responses take more than {@link #SLOW_FACTOR} times as long as that, and halved when the API fails or returns a 5xx or 429 response.
+ * Only one cut is made for every limit's worth of responses, since the requests which were already in flight will have suffered from the same problem.
+ * <p>
+ * Requests which have to wait are queued by {@link Flow}, normally the table being queried, and the flows take turns in proportion to their weights.
+ * So a poll of a small table waits for at most a turn or two, however many requests a walk of a large table has queued.
+ * Each flow has a pass, which goes up by 1/weight for every request it's allowed to make, and the waiting flow with the lowest pass goes next.
+ * A flow which starts waiting has its pass brought up to the pass of the last request allowed, so it can't save up turns while it's idle.
+ */
+final class ConcurrencyLimiter
+{
+	protected final static int MIN_LIMIT = 1;
+	protected final static int INITIAL_LIMIT = 8;
+	protected final static int MAX_LIMIT = 64;
+	protected final static double SLOW_FACTOR = 2.0;
+
+	// Differences smaller than this are noise, however quick the idle API is
+	private final static long SLOW_MARGIN_NS = 20 * 1000000L;
+
+	// How often the idle latency is measured again, so that it can follow a change in the API's normal speed
+	private final static int BASELINE_SAMPLES = 500;
+
+	private static ConcurrencyLimiter gLimiterSingleton = null;
+
+	private double gLimit = INITIAL_LIMIT;
+	private boolean gSlowStart = true;
+	private int gInFlight = 0;
+	private int gSinceCut = 0;
+
+	// Keyed by flow name. Flows are never forgotten, since there's one for each table or request class
+	private final HashMap<String,FlowState> gFlows = new HashMap<String,FlowState>();
+	private int gWaiting = 0;
+	private double gLastPass = 0;
+
+	// The quickest response seen in the last full sample window, and in the current one
+	private long gBaselineNs = Long.MAX_VALUE;
+	private long gWindowMinNs = Long.MAX_VALUE;
+	private int gWindowSamples = 0;
+
+	private final AtomicLong gThrottled = new AtomicLong();
+	private final AtomicLong gCuts = new AtomicLong();
+
+	/**
+	 * What a request is queued under, and its share of the requests when several flows are waiting
+	 */
+	protected static final class Flow
+	{
+		private final String gName;
+		private final int gWeight;
+
+		protected Flow(String pName, int pWeight)
+		{
+			this.gName = pName;
+			this.gWeight = pWeight < 1 ? 1 : pWeight;
+		}
+	}
+
+	// Requests which aren't made for any particular table, such as checking a password
+	protected final static Flow OTHER = new Flow("other", 1);
+
+	private static class FlowState
+	{
+		private final LinkedList<Ticket> gQueue = new LinkedList<Ticket>();
+		private double gPass;
+	}
+
+	private static class Ticket
+	{
+		// Each request brings its own weight, since connections may give the same flow different weights
+		private final int gWeight;
+		private boolean gGranted = false;
+
+		private Ticket(int pWeight)
+		{
+			this.gWeight = pWeight;
+		}
+	}
+
+	protected static synchronized ConcurrencyLimiter getInstance()
+	{
+		if(null == gLimiterSingleton)
+		{
+			gLimiterSingleton = new ConcurrencyLimiter();
+		}
+		return(gLimiterSingleton);
+	}
+
+	/**
+	 * Wait until another request may be made. Every acquire must be followed by exactly one {@link #release}
+	 * @param pFlow What to queue the request under, or null for {@link #OTHER}
+	 */
+	protected synchronized void acquire(Flow pFlow)
+		throws InterruptedException
+	{
+		if(null == pFlow)
+		{
+			pFlow = OTHER;
+		}
+
+		FlowState fs = getFlowState(pFlow);
+
+		// Nobody to be fair to
+		if(0 == gWaiting && gInFlight < getCapacity())
+		{
+			gInFlight++;
+			fs.gPass = Math.max(fs.gPass, gLastPass) + 1.0 / pFlow.gWeight;
+			return;
+		}
+
+		gThrottled.incrementAndGet();
+		if(fs.gQueue.isEmpty())
+		{
+			fs.gPass = Math.max(fs.gPass, gLastPass);
+		}
+
+		Ticket t = new Ticket(pFlow.gWeight);
+		fs.gQueue.add(t);
+		gWaiting++;
+
+		try
+		{
+			while(!t.gGranted)
+			{
+				wait();
+			}
+		}
+		catch(InterruptedException ix)
+		{
+			if(t.gGranted)
+			{
+				// Too late, so hand the slot on
+				gInFlight--;
+				dispatch();
+			}
+			else
+			{
+				fs.gQueue.remove(t);
+				gWaiting--;
+			}
+			throw(ix);
+		}
+	}
+
+	/**
+	 * Take a slot only if one is free and nobody is waiting, for requests which are only worth making if they cost nothing else, such as hedges
+	 * @return boolean Whether a slot was taken, in which case it must be given back with {@link #release}
+	 */
+	protected synchronized boolean tryAcquire(Flow pFlow)
+	{
+		if(0 != gWaiting || gInFlight >= getCapacity())
+		{
+			return(false);
+		}
+
+		if(null == pFlow)
+		{
+			pFlow = OTHER;
+		}
+
+		FlowState fs = getFlowState(pFlow);
+		fs.gPass = Math.max(fs.gPass, gLastPass) + 1.0 / pFlow.gWeight;
+		gInFlight++;
+		return(true);
+	}
+
+	/**
+	 * @param pLatencyNs How long the API took to start responding, or a negative number if it's unknown or not representative
+	 * @param pOverloaded Whether the request failed in a way which suggests the API is struggling
+	 */
+	protected synchronized void release(long pLatencyNs, boolean pOverloaded)
+	{
+		// Whether the requests were keeping the limit busy, since there's no evidence the API can take more if they weren't
+		boolean bSaturated = 2 * gInFlight >= getLimit();
+
+		gInFlight--;
+		gSinceCut++;
+
+		if(pOverloaded)
+		{
+			cut(0.5);
+		}
+		else if(pLatencyNs >= 0)
+		{
+			sample(pLatencyNs);
+
+			if(pLatencyNs > SLOW_FACTOR * gBaselineNs && pLatencyNs - gBaselineNs > SLOW_MARGIN_NS)
+			{
+				cut(0.9);
+			}
+			else if(bSaturated)
+			{
+				gLimit = Math.min(MAX_LIMIT, gLimit + (gSlowStart ? 1.0 : 1.0 / gLimit));
+			}
+		}
+		dispatch();
+	}
+
+	/**
+	 * The number of requests which may currently be in flight
+	 */
+	protected synchronized int getLimit()
+	{
+		return((int)gLimit);
+	}
+
+	/**
+	 * The number of requests waiting for a turn
+	 */
+	protected synchronized int getWaiting()
+	{
+		return(gWaiting);
+	}
+
+	protected synchronized int getInFlight()
+	{
+		return(gInFlight);
+	}
+
+	/**
+	 * The number of requests which had to wait for others to finish
+	 */
+	protected long getThrottled()
+	{
+		return(gThrottled.get());
+	}
+
+	/**
+	 * The number of times the limit has been reduced
+	 */
+	protected long getCuts()
+	{
+		return(gCuts.get());
+	}
+
+	private FlowState getFlowState(Flow pFlow)
+	{
+		FlowState fsRet = gFlows.get(pFlow.gName);
+		if(null == fsRet)
+		{
+			fsRet = new FlowState();
+			gFlows.put(pFlow.gName, fsRet);
+		}
+		return(fsRet);
+	}
+
+	// No more than the keep-alive pool can serve at once, otherwise requests would queue again there, unfairly
+	private int getCapacity()
+	{
+		return(Math.min(getLimit(), HttpPool.getInstance().getMaxConnections()));
+	}
+
+	// Let waiting requests go, lowest pass first, while there's capacity
+	private void dispatch()
+	{
+		boolean bGranted = false;
+
+		while(gWaiting > 0 && gInFlight < getCapacity())
+		{
+			FlowState fsNext = null;
+			for(FlowState fs : gFlows.values())
+			{
+				if(!fs.gQueue.isEmpty() && (null == fsNext || fs.gPass < fsNext.gPass))
+				{
+					fsNext = fs;
+				}
+			}
+
+			Ticket t = fsNext.gQueue.removeFirst();
+			t.gGranted = true;
+			gLastPass = fsNext.gPass;
+			fsNext.gPass += 1.0 / t.gWeight;
+			gWaiting--;
+			gInFlight++;
+			bGranted = true;
+		}
+
+		if(bGranted)
+		{
+			notifyAll();
+		}
+	}
+
+	private void cut(double pFactor)
+	{
+		gSlowStart = false;
+		if(gSinceCut >= getLimit())
+		{
+			gLimit = Math.max(MIN_LIMIT, gLimit * pFactor);
+			gSinceCut = 0;
+			gCuts.incrementAndGet();
+		}
+	}
+
+	private void sample(long pLatencyNs)
+	{
+		gWindowMinNs = Math.min(gWindowMinNs, pLatencyNs);
+		gBaselineNs = Math.min(gBaselineNs, pLatencyNs);
+
+		if(++gWindowSamples >= BASELINE_SAMPLES)
+		{
+			gBaselineNs = gWindowMinNs;
+			gWindowMinNs = Long.MAX_VALUE;
+			gWindowSamples = 0;
+		}
+	}
+}
@@ -15,8 +15,6 @@ public class Driver
 	private static boolean registered = false;
 	private static final com.thereisnogravity.Driver gDriverInstance = new com.thereisnogravity.Driver();
 
-	private DriverPropertyInfo[] gInfo = null;
-
 	protected final static String CATALOG_TERM = "catalog";
 	protected final static String METL_SCHEMA_NAME = "public";
 
@@ -24,6 +22,7 @@ public class Driver
 		registerSelf();
 		com.thereisnogravity.LinuxUtils.runVMMonitor();
 		com.thereisnogravity.LinuxUtils.runProviderGuesser();
+		com.thereisnogravity.JobCatalog.runRefresher();
 	}
 
 	public static synchronized Driver registerSelf()
@@ -94,11 +93,7 @@ public class Driver
 	@Override
 	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
 	{
-		if(null == gInfo)
-		{
-			gInfo = new DriverPropertyInfo[] {};
-		}
-		return(gInfo);
+		return(METLSettings.getPropertyInfo(METLSettings.withUrlParameters(url, info)));
 	}
 
 	@Override
@@ -0,0 +1,437 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * FanOut runs a blocking task (usually one REST call) for every item from an input {@link WalkSource}, keeping a bounded number of tasks in flight.<br>
+ * Results are always handed back in input order, so the output is identical to a serial loop. Stages can be chained to walk the group / project / version / job hierarchy.
+ */
+class FanOut<I,O>
+	implements WalkSource<O>
+{
+	/**
+	 * A unit of work which returns without blocking, completing its future later
+	 */
+	protected interface AsyncTask<I,O>
+	{
+		CompletableFuture<O> call(I pIn)
+			throws Exception;
+	}
+
+	/**
+	 * The unit of work run for each input item
+	 */
+	protected interface Task<I,O>
+	{
+		O call(I pIn)
+			throws Exception;
+	}
+
+	private final static long IDLE_THREAD_SECS = 5;
+
+	// Makes virtual threads, or null if the JVM has none. Looked up once, by reflection, since they need Java 21
+	private static ThreadFactory gVirtualThreads = null;
+	private static boolean gLookedForVirtualThreads = false;
+
+	private final WalkSource<I> gInputs;
+	private final ExecutorService gExecutor;
+	private final int gWindow;
+	private final Task<I,O> gTask;
+	private final AsyncTask<I,O> gAsyncTask;
+
+	private final LinkedList<Future<O>> gInFlight = new LinkedList<Future<O>>();
+	private boolean gClosed = false;
+
+	/**
+	 * @param pInputs Where the items come from
+	 * @param pExecutor The walk's executor, as per {@link #newExecutor}. If null the task runs serially on the calling thread
+	 * @param pWindow The maximum number of items which may be submitted ahead of the consumer
+	 * @param pTask What to do with each item
+	 */
+	protected FanOut(WalkSource<I> pInputs, ExecutorService pExecutor, int pWindow, Task<I,O> pTask)
+	{
+		this.gInputs = pInputs;
+		this.gExecutor = pExecutor;
+		this.gWindow = pWindow < 1 ? 1 : pWindow;
+		this.gTask = pTask;
+		this.gAsyncTask = null;
+	}
+
+	/**
+	 * As above, except that the tasks are started on the calling thread and complete by themselves, so no executor is needed to keep pWindow of them in flight
+	 */
+	protected FanOut(WalkSource<I> pInputs, int pWindow, AsyncTask<I,O> pTask)
+	{
+		this.gInputs = pInputs;
+		this.gExecutor = null;
+		this.gWindow = pWindow < 1 ? 1 : pWindow;
+		this.gTask = null;
+		this.gAsyncTask = pTask;
+	}
+
+	// Without an executor or asynchronous tasks, each task runs in next()
+	private boolean isSerial()
+	{
+		return(null == gExecutor && null == gAsyncTask);
+	}
+
+	@Override
+	public boolean hasNext()
+		throws Exception
+	{
+		if(gClosed)
+		{
+			return(false);
+		}
+
+		if(isSerial())
+		{
+			return(gInputs.hasNext());
+		}
+
+		fill();
+		return(!gInFlight.isEmpty());
+	}
+
+	@Override
+	public O next()
+		throws Exception
+	{
+		if(!hasNext())
+		{
+			throw(new NoSuchElementException());
+		}
+
+		if(isSerial())
+		{
+			return(gTask.call(gInputs.next()));
+		}
+
+		Future<O> f = gInFlight.removeFirst();
+		try
+		{
+			return(f.get());
+		}
+		catch(ExecutionException ex)
+		{
+			close();
+			Throwable t = ex.getCause();
+			if(t instanceof Exception)
+			{
+				throw((Exception)t);
+			}
+			throw(new SQLException(t));
+		}
+		finally
+		{
+			// Keep the pipeline full while the consumer works on this result
+			if(!gClosed)
+			{
+				fill();
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		gClosed = true;
+		for(Future<O> f : gInFlight)
+		{
+			f.cancel(true);
+		}
+		gInFlight.clear();
+		gInputs.close();
+	}
+
+	// Submit inputs until the window is full or the inputs run out
+	private void fill()
+		throws Exception
+	{
+		while(gInFlight.size() < gWindow && gInputs.hasNext())
+		{
+			final I in = gInputs.next();
+			if(null != gAsyncTask)
+			{
+				gInFlight.add(gAsyncTask.call(in));
+			}
+			else
+			{
+				gInFlight.add(gExecutor.submit(new Callable<O>()
+				{
+					@Override
+					public O call()
+						throws Exception
+					{
+						return(gTask.call(in));
+					}
+				}));
+			}
+		}
+	}
+
+	/**
+	 * Returns an executor to be shared by every stage of one walk, so that no more than pParallelism calls run at once.
+	 * Returns null if pParallelism is 1 or less, meaning the stages run serially on the calling thread.
+	 * Idle threads exit after a few seconds, so a walk which is abandoned without being shut down doesn't leave them behind.
+	 * @param pVirtual Start a virtual thread for every call, if the JVM supports them, instead of using a pool of platform threads
+	 */
+	protected static ExecutorService newExecutor(int pParallelism, boolean pVirtual)
+	{
+		if(pParallelism <= 1)
+		{
+			return(null);
+		}
+
+		ThreadFactory tfVirtual = pVirtual ? getVirtualThreads() : null;
+		if(null != tfVirtual)
+		{
+			return(new CappedExecutor(tfVirtual, pParallelism));
+		}
+
+		ThreadPoolExecutor tpeRet = new ThreadPoolExecutor(pParallelism, pParallelism, IDLE_THREAD_SECS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "METL-fanout");
+				t.setDaemon(true);
+				return(t);
+			}
+		});
+		tpeRet.allowCoreThreadTimeOut(true);
+		return(tpeRet);
+	}
+
+	/**
+	 * Whether {@link #newExecutor} can use virtual threads in this JVM
+	 */
+	protected static boolean hasVirtualThreads()
+	{
+		return(null != getVirtualThreads());
+	}
+
+	// Thread.ofVirtual().name("METL-fanout-", 0).factory()
+	private static synchronized ThreadFactory getVirtualThreads()
+	{
+		if(!gLookedForVirtualThreads)
+		{
+			gLookedForVirtualThreads = true;
+			try
+			{
+				Class<?> cBuilder = Class.forName("java.lang.Thread$Builder");
+				Object oBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+				oBuilder = cBuilder.getMethod("name", String.class, long.class).invoke(oBuilder, "METL-fanout-", 0L);
+				gVirtualThreads = (ThreadFactory)cBuilder.getMethod("factory").invoke(oBuilder);
+			}
+			catch(Throwable t)
+			{
+				// Older than Java 21, or Java 19/20 without --enable-preview
+				gVirtualThreads = null;
+			}
+		}
+		return(gVirtualThreads);
+	}
+
+	/**
+	 * Runs every task on a thread of its own, but only lets pParallelism of them make progress at once, to protect the REST API.
+	 * The waiting is done by the new thread rather than by the caller, which is cheap for a virtual thread.
+	 * Shutting it down interrupts every thread it started, whether running or still waiting for a permit
+	 */
+	private static class CappedExecutor
+		extends AbstractExecutorService
+	{
+		private final ThreadFactory gThreads;
+		private final Semaphore gPermits;
+		private final Set<Thread> gStarted = new HashSet<Thread>();
+		private boolean gShutdown = false;
+
+		private CappedExecutor(ThreadFactory pThreads, int pParallelism)
+		{
+			this.gThreads = pThreads;
+			this.gPermits = new Semaphore(pParallelism);
+		}
+
+		@Override
+		public void execute(final Runnable pTask)
+		{
+			Thread t = gThreads.newThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						gPermits.acquire();
+						try
+						{
+							pTask.run();
+						}
+						finally
+						{
+							gPermits.release();
+						}
+					}
+					catch(InterruptedException ix)
+					{
+						// Shut down while waiting. The task's Future was cancelled, so nobody is waiting for it
+					}
+					finally
+					{
+						finished(Thread.currentThread());
+					}
+				}
+			});
+
+			synchronized(this)
+			{
+				if(gShutdown)
+				{
+					throw(new RejectedExecutionException());
+				}
+				gStarted.add(t);
+			}
+			t.start();
+		}
+
+		private synchronized void finished(Thread pThread)
+		{
+			gStarted.remove(pThread);
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void shutdown()
+		{
+			gShutdown = true;
+		}
+
+		@Override
+		public synchronized List<Runnable> shutdownNow()
+		{
+			gShutdown = true;
+			for(Thread t : gStarted)
+			{
+				t.interrupt();
+			}
+			return(Collections.<Runnable>emptyList());
+		}
+
+		@Override
+		public synchronized boolean isShutdown()
+		{
+			return(gShutdown);
+		}
+
+		@Override
+		public synchronized boolean isTerminated()
+		{
+			return(gShutdown && gStarted.isEmpty());
+		}
+
+		@Override
+		public synchronized boolean awaitTermination(long pTimeout, TimeUnit pUnit)
+			throws InterruptedException
+		{
+			long lDeadline = System.nanoTime() + pUnit.toNanos(pTimeout);
+
+			while(!isTerminated())
+			{
+				long lWaitMs = TimeUnit.NANOSECONDS.toMillis(lDeadline - System.nanoTime());
+				if(lWaitMs <= 0)
+				{
+					return(false);
+				}
+				wait(lWaitMs);
+			}
+			return(true);
+		}
+	}
+
+	// Counterpart to newExecutor, interrupting any outstanding calls
+	protected static void shutdown(ExecutorService pExecutor)
+	{
+		if(null != pExecutor)
+		{
+			pExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adapts an in-memory collection into a WalkSource
+	 */
+	protected static <T> WalkSource<T> of(final Iterable<T> pItems)
+	{
+		return(new WalkSource<T>()
+		{
+			private final Iterator<T> it = pItems.iterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				return(it.hasNext());
+			}
+
+			@Override
+			public T next()
+			{
+				return(it.next());
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		});
+	}
+
+	/**
+	 * Turns a WalkSource of lists (typically one list per REST call) into a WalkSource of their elements
+	 */
+	protected static <T> WalkSource<T> flatten(final WalkSource<? extends List<T>> pLists)
+	{
+		return(new WalkSource<T>()
+		{
+			private Iterator<T> it = null;
+
+			@Override
+			public boolean hasNext()
+				throws Exception
+			{
+				while(null == it || !it.hasNext())
+				{
+					if(!pLists.hasNext())
+					{
+						return(false);
+					}
+					it = pLists.next().iterator();
+				}
+				return(true);
+			}
+
+			@Override
+			public T next()
+				throws Exception
+			{
+				if(!hasNext())
+				{
+					throw(new NoSuchElementException());
+				}
+				return(it.next());
+			}
+
+			@Override
+			public void close()
+			{
+				pLists.close();
+			}
+		});
+	}
+}
@@ -0,0 +1,279 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Hedging cuts the tail latency of REST calls by sending a second, identical GET when the first is unusually slow to respond, and using whichever response starts first.<br>
+ * "Unusually slow" is a percentile of the recent time to the response headers for the same kind of endpoint, e.g. /group/name/&#42;/project/name/&#42;/task/running.
+ * Every call's time is recorded, whether or not it was hedged, so the percentiles are ready as soon as a connection turns hedging on.
+ * The extra load is bounded by a budget: each call earns a percentage of a hedge, and a hedge is only sent when a whole one has been earned,
+ * and when the {@link ConcurrencyLimiter} has room for it without making anything else wait.
+ * The slower request is abandoned once the other one has responded. Its connection is closed rather than reused, since its response may still be arriving.
+ */
+final class Hedging
+{
+	// Responses kept for each kind of endpoint, and how many there must be before its percentiles mean anything
+	private final static int WINDOW = 100;
+	private final static int MIN_SAMPLES = 20;
+
+	// Unspent hedges can't be saved up beyond this, so a quiet spell can't be followed by a burst of them
+	private final static double MAX_TOKENS = 10;
+
+	private final static HashMap<String,long[]> gLatencies = new HashMap<String,long[]>();
+	private final static HashMap<String,Integer> gCounts = new HashMap<String,Integer>();
+	private static double gTokens = 0;
+
+	private final static AtomicLong gHedged = new AtomicLong();
+	private final static AtomicLong gHedgeWins = new AtomicLong();
+
+	private final static ExecutorService gAttempts = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "METL-hedge");
+			t.setDaemon(true);
+			return(t);
+		}
+	});
+
+	/**
+	 * Makes one attempt at the request
+	 */
+	protected interface Attempt
+	{
+		HttpPool.Exchange call()
+			throws IOException;
+	}
+
+	/**
+	 * The number of second requests which have been sent
+	 */
+	protected static long getHedged()
+	{
+		return(gHedged.get());
+	}
+
+	/**
+	 * The number of times the second request responded first
+	 */
+	protected static long getHedgeWins()
+	{
+		return(gHedgeWins.get());
+	}
+
+	/**
+	 * The kind of endpoint a path is, with the names in it replaced by &#42;
+	 */
+	protected static String endpoint(String pPath)
+	{
+		return(pPath.replaceAll("/name/[^/]*", "/name/*"));
+	}
+
+	/**
+	 * Remember how long a request to pEndpoint took to respond, and earn part of a hedge
+	 * @param pBudgetPercent How many hedges may be sent for every 100 requests
+	 */
+	protected static synchronized void record(String pEndpoint, long pLatencyNs, int pBudgetPercent)
+	{
+		long[] arrWindow = gLatencies.get(pEndpoint);
+		if(null == arrWindow)
+		{
+			arrWindow = new long[WINDOW];
+			gLatencies.put(pEndpoint, arrWindow);
+		}
+
+		Integer iCount = gCounts.get(pEndpoint);
+		int iNext = null == iCount ? 0 : iCount.intValue();
+		arrWindow[iNext % WINDOW] = pLatencyNs;
+		gCounts.put(pEndpoint, Integer.valueOf(iNext + 1));
+
+		gTokens = Math.min(MAX_TOKENS, gTokens + pBudgetPercent / 100.0);
+	}
+
+	/**
+	 * Make the request, sending a second one if the first hasn't responded within the pPercentile'th percentile of pEndpoint's recent times
+	 * @param pFlow The flow that a second request is let through under
+	 */
+	protected static HttpPool.Exchange get(String pEndpoint, int pPercentile, ConcurrencyLimiter.Flow pFlow, Attempt pAttempt)
+		throws Exception
+	{
+		// Without a hedge to spend, racing would only add a thread, so the call is made directly. A hedge earned in the meantime waits for the next call
+		long lThresholdNs = threshold(pEndpoint, pPercentile);
+		if(lThresholdNs < 0 || !hasToken())
+		{
+			return(pAttempt.call());
+		}
+
+		Race r = new Race();
+		r.start(pAttempt, false);
+
+		synchronized(r)
+		{
+			long lDeadline = System.nanoTime() + lThresholdNs;
+			long lWaitNs;
+			while(!r.isDecided() && (lWaitNs = lDeadline - System.nanoTime()) > 0)
+			{
+				r.waitNanos(lWaitNs);
+			}
+
+			if(!r.isDecided() && spendToken() && ConcurrencyLimiter.getInstance().tryAcquire(pFlow))
+			{
+				gHedged.incrementAndGet();
+				r.start(pAttempt, true);
+			}
+
+			while(!r.isDecided())
+			{
+				r.waitNanos(Long.MAX_VALUE);
+			}
+			return(r.take());
+		}
+	}
+
+	// The pPercentile'th percentile of pEndpoint's recent response times, or -1 if there aren't enough of them
+	private static synchronized long threshold(String pEndpoint, int pPercentile)
+	{
+		Integer iCount = gCounts.get(pEndpoint);
+		if(null == iCount || iCount.intValue() < MIN_SAMPLES)
+		{
+			return(-1);
+		}
+
+		long[] arrSorted = Arrays.copyOf(gLatencies.get(pEndpoint), Math.min(WINDOW, iCount.intValue()));
+		Arrays.sort(arrSorted);
+		return(arrSorted[Math.min(arrSorted.length - 1, arrSorted.length * pPercentile / 100)]);
+	}
+
+	private static synchronized boolean hasToken()
+	{
+		return(gTokens >= 1);
+	}
+
+	private static synchronized boolean spendToken()
+	{
+		if(gTokens < 1)
+		{
+			return(false);
+		}
+		gTokens -= 1;
+		return(true);
+	}
+
+	// One or two attempts at the same request, the first of which to respond wins
+	private static class Race
+	{
+		private HttpPool.Exchange gWinner = null;
+		private Exception gFailure = null;
+		private int gRunning = 0;
+		private boolean gTaken = false;
+
+		private synchronized void start(final Attempt pAttempt, final boolean bHedge)
+		{
+			gRunning++;
+			gAttempts.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					HttpPool.Exchange x = null;
+					Exception ex = null;
+
+					try
+					{
+						x = pAttempt.call();
+					}
+					catch(Exception e)
+					{
+						ex = e;
+					}
+					finished(x, ex, bHedge);
+				}
+			});
+		}
+
+		private synchronized void finished(HttpPool.Exchange x, Exception ex, boolean bHedge)
+		{
+			gRunning--;
+
+			if(null != x && null == gWinner && !gTaken)
+			{
+				gWinner = x;
+				if(bHedge)
+				{
+					gHedgeWins.incrementAndGet();
+				}
+			}
+			else
+			{
+				// Lost the race, or nobody is waiting any more
+				if(null != x)
+				{
+					x.abort();
+					x.close();
+				}
+				if(null == gFailure)
+				{
+					gFailure = ex;
+				}
+			}
+
+			// The second request's slot in the limiter is given back once it has finished, whether it won, lost or failed
+			if(bHedge)
+			{
+				ConcurrencyLimiter.getInstance().release(-1, false);
+			}
+			notifyAll();
+		}
+
+		private synchronized boolean isDecided()
+		{
+			return(null != gWinner || 0 == gRunning);
+		}
+
+		private void waitNanos(long pNanos)
+			throws InterruptedException
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.timedWait(this, pNanos);
+			}
+			catch(InterruptedException ix)
+			{
+				abandon();
+				throw(ix);
+			}
+		}
+
+		// Whatever responds from now on is closed as soon as it arrives, as is a response which has arrived but not been taken
+		private synchronized void abandon()
+		{
+			gTaken = true;
+			if(null != gWinner)
+			{
+				gWinner.abort();
+				gWinner.close();
+				gWinner = null;
+			}
+		}
+
+		private synchronized HttpPool.Exchange take()
+			throws Exception
+		{
+			gTaken = true;
+			if(null == gWinner)
+			{
+				throw(gFailure);
+			}
+			return(gWinner);
+		}
+	}
+}
@@ -9,157 +9,554 @@ import java.io.*;
 import java.net.*;
 import java.nio.charset.*;
 import java.security.*;
-import java.security.cert.*;
 import java.util.*;
-import javax.net.ssl.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.google.gson.stream.*;
+
+import com.thereisnogravity.jdbcstub.*;
 
 /**
- * HttpHelper makes it simpler to interact with Matillion's REST API, trying HTTPS first, and silently falling back to HTTP if necessary.
+ * HttpHelper makes it simpler to interact with Matillion's REST API, trying HTTPS first, and silently falling back to HTTP if necessary.<br>
+ * Requests share a pool of keep-alive connections, so a long walk of the API pays for the TCP and TLS handshakes only once per connection.
+ * Identical requests which are made at the same time, for example by several connections listing the groups, share one HTTP call:
+ * the first one makes the call, and any others which arrive before its response has started wait for it, and then read a copy of the body.
+ * The body is only copied if someone is waiting for it, and anyone arriving later makes their own call, so an unshared body is always streamed.
+ * Every call waits for the {@link ConcurrencyLimiter}, which keeps the number in flight to what the API can comfortably handle.
+ * A call which is unusually slow to respond can be {@link Hedging hedged} with a second one.
+ * While the API isn't responding at all, the {@link CircuitBreaker} makes calls fail straight away instead of each waiting to time out.
+ * A call made for a statement stops as soon as the statement is cancelled or times out, whether it is waiting for its turn or for the response.
+ * A call whose handler can reuse its results is revalidated through the {@link ResponseCache}, so that a listing which hasn't changed isn't sent or parsed again.
  */
 public class HttpHelper
 {
 	private int gRespCode;
-	private String gResponse;
+	private JsonHandler gHandler;
+	private Flight gFlight;
+	private ByteArrayOutputStream gBodyCopy;
+	private long gLatencyNs;
+	private Options gOptions;
+	private Cancellation gCancel;
+	private String gCacheKey;
 
-	private static Boolean gUseTLS = null;
-	private static TrustManager[] gTrustMgr = null;
-	private static HostnameVerifier gHostVerif = null;
+	private static volatile Boolean gUseTLS = null;
 
 	private final static String APIHOST = "localhost";
-	private final static String TLS_SPEC = "TLSv1.2";
+
+	// Where the REST API listens for HTTPS and HTTP, which only tests change
+	private static volatile int gHttpsPort = 8443;
+	private static volatile int gHttpPort = 8080;
 	private final static int TIMEOUT_MS = 1500;
+	protected final static int DEFAULT_READ_TIMEOUT_MS = 30000;
+
+	// Keyed by user, password and path, so that requests with different credentials never share a response
+	private final static HashMap<String,Flight> gFlights = new HashMap<String,Flight>();
+	private final static AtomicLong gRequests = new AtomicLong();
+	private final static AtomicLong gCollapsed = new AtomicLong();
+
+	/**
+	 * How one connection's calls for one table are made
+	 */
+	protected static final class Options
+	{
+		private final ConcurrencyLimiter.Flow gFlow;
+		private final int gHedgeBudgetPercent;
+		private final int gHedgePercentile;
+		private final int gReadTimeoutMs;
+
+		/**
+		 * @param pFlow What to queue the calls under if the API is busy
+		 * @param pHedgeBudgetPercent How many calls may be hedged for every 100 made. 0 turns hedging off
+		 * @param pHedgePercentile How slow a call must be to be hedged, as a percentile of recent calls to the same kind of endpoint
+		 * @param pReadTimeoutMs How long to wait for a response to start, and then between parts of it
+		 */
+		protected Options(ConcurrencyLimiter.Flow pFlow, int pHedgeBudgetPercent, int pHedgePercentile, int pReadTimeoutMs)
+		{
+			this.gFlow = pFlow;
+			this.gHedgeBudgetPercent = pHedgeBudgetPercent;
+			this.gHedgePercentile = pHedgePercentile;
+			this.gReadTimeoutMs = pReadTimeoutMs;
+		}
+
+		protected int getReadTimeoutMs()
+		{
+			return(gReadTimeoutMs);
+		}
+	}
+
+	private final static Options DEFAULT_OPTIONS = new Options(null, 0, 100, DEFAULT_READ_TIMEOUT_MS);
+
+	// One HTTP call, which any number of identical requests may be waiting for. gJoinable and gWaiters are guarded by gFlights
+	private static class Flight
+	{
+		private final CountDownLatch gDone = new CountDownLatch(1);
+		private volatile boolean gSucceeded = false;
+		private boolean gJoinable = true;
+		private int gWaiters = 0;
+		private int gRespCode;
+		private byte[] gBody;
+	}
 
 	protected int getCode()
 	{
 		return(gRespCode);
 	}
 
-	protected String getResponse()
+	/**
+	 * Receives a successful response as a stream of JSON tokens, so it never has to be buffered or parsed into a tree
+	 */
+	protected interface JsonHandler
 	{
-		return(gResponse);
+		void handle(JsonReader pReader)
+			throws IOException;
+	}
+
+	/**
+	 * A handler whose result can be kept with a cached response, and given back to a later handler of the same class instead of parsing the same body again
+	 */
+	protected interface ReusableHandler
+		extends JsonHandler
+	{
+		// What handle() produced, which must not be changed afterwards, since it's shared
+		Object getResult();
+
+		// Do what handle() would have done, from the result of an earlier handler of the same class
+		void reuse(Object pResult);
 	}
 
-	private void initHostnameVerifier()
+	/**
+	 * Send every call to a server on another port of this machine, e.g. a test's mock REST API, without first trying whichever protocol it doesn't use
+	 */
+	protected static void useEndpoint(boolean bSecure, int pPort)
 	{
-		gHostVerif = new HostnameVerifier()
+		if(bSecure)
+		{
+			gHttpsPort = pPort;
+		}
+		else
+		{
+			gHttpPort = pPort;
+		}
+		gUseTLS = bSecure;
+	}
+
+	/**
+	 * The number of HTTP calls which have been made
+	 */
+	protected static long getRequests()
+	{
+		return(gRequests.get());
+	}
+
+	/**
+	 * The number of requests which were answered by sharing another request's HTTP call
+	 */
+	protected static long getCollapsed()
+	{
+		return(gCollapsed.get());
+	}
+
+	/**
+	 * Size the shared keep-alive connection pool, as per the poolsize and poolidlesecs connection properties
+	 */
+	protected static void configurePool(int pMaxConnections, int pIdleSecs)
+	{
+		HttpPool.getInstance().configure(pMaxConnections, pIdleSecs);
+	}
+
+	private void doGet(String sUser, String sPassword, String pPath, final boolean bSecure)
+		throws Exception
+	{
+		final String sPathAndQuery = String.format("/rest/v1/%s",
+			pPath.startsWith("/") ? pPath.substring(1) : pPath);
+
+		final TreeMap<String,String> tmHeaders = new TreeMap<String,String>();
+		if(null != sUser && null != sPassword)
+		{
+			tmHeaders.put("Authorization",
+					"Basic "+Base64.getEncoder().encodeToString((sUser+":"+sPassword)
+						.getBytes(StandardCharsets.UTF_8)));
+		}
+
+		// A listing which has been fetched before is only sent again if it has changed
+		boolean bCacheable = gHandler instanceof ReusableHandler && ResponseCache.getInstance().isEnabled();
+		ResponseCache.Entry eOld = bCacheable ? ResponseCache.getInstance().get(gCacheKey) : null;
+		if(null != eOld && null != eOld.getETag())
+		{
+			tmHeaders.put("If-None-Match", eOld.getETag());
+		}
+		else if(null != eOld && null != eOld.getLastModified())
+		{
+			tmHeaders.put("If-Modified-Since", eOld.getLastModified());
+		}
+
+		// Closing the exchange hands the connection back to the pool for reuse
+		Hedging.Attempt aGet = new Hedging.Attempt()
 		{
 			@Override
-			public boolean verify(String hostname, SSLSession session)
+			public HttpPool.Exchange call()
+				throws IOException
 			{
-				return(hostname.equals(APIHOST));
+				return(HttpPool.getInstance().get(bSecure, APIHOST, bSecure ? gHttpsPort : gHttpPort, sPathAndQuery, tmHeaders, TIMEOUT_MS, gOptions.gReadTimeoutMs, gCancel));
 			}
 		};
-	}
 
-	private void initTrustManager()
-	{
-		gTrustMgr = new TrustManager[]
-		{ 
-			new X509TrustManager()
-			{     
-				@Override
-				public java.security.cert.X509Certificate[] getAcceptedIssuers()
-				{ 
-					return new X509Certificate[0];
+		// Not while finding out whether HTTPS works, since a hedge would have to find out too
+		String sEndpoint = Hedging.endpoint(pPath);
+		boolean bHedge = gOptions.gHedgeBudgetPercent > 0 && null != gUseTLS;
+
+		long lStart = System.nanoTime();
+		try(HttpPool.Exchange x = bHedge ? Hedging.get(sEndpoint, gOptions.gHedgePercentile, gOptions.gFlow, aGet) : aGet.call())
+		{
+			// The time to the response headers reflects how busy the API is, whereas reading the body also depends on the handler
+			gLatencyNs = System.nanoTime() - lStart;
+			Hedging.record(sEndpoint, gLatencyNs, gOptions.gHedgeBudgetPercent);
+			gRespCode = x.getCode();
+
+			if(beginBody())
+			{
+				gBodyCopy = new ByteArrayOutputStream();
+			}
+
+			if(304 == gRespCode && null != eOld && eOld.isRevalidatable())
+			{
+				ResponseCache.getInstance().notModified();
+				gRespCode = 200;
+				if(null != gBodyCopy)
+				{
+					gBodyCopy.write(eOld.getBody());
 				}
-				@Override
-				public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType)
+				handle(eOld, eOld.getBody());
+			}
+			// Anything else is drained and discarded when the exchange is closed
+			else if(200 == gRespCode)
+			{
+				InputStream isBody = null == gBodyCopy ? x.getBody() : new CopyingInputStream(x.getBody(), gBodyCopy);
+
+				if(bCacheable)
 				{
-				} 
-				@Override
-				public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType)
+					handle(eOld, isBody, x.getHeader("ETag"), x.getHeader("Last-Modified"));
+				}
+				else if(null != gHandler)
 				{
+					handle(isBody);
 				}
-			} 
-		};
+
+				// Anyone sharing this call gets the whole body, even if the handler stopped early
+				if(null != gBodyCopy)
+				{
+					drain(isBody);
+				}
+			}
+		}
 	}
 
-	private void doGet(String sUser, String sPassword, String pPath, boolean bSecure)
-		throws Exception
+	// Once the response has started, nobody else can share it, so it is only copied if someone already is
+	private boolean beginBody()
 	{
-		URL uIn = new URL(String.format("%s://%s:%d/rest/v1/%s",
-			bSecure ? "https" : "http",
-			APIHOST,
-			bSecure ? 8443 : 8080,
-			pPath.startsWith("/") ? pPath.substring(1) : pPath));
+		if(null == gFlight)
+		{
+			return(false);
+		}
 
-		URLConnection ucIn = uIn.openConnection();
+		synchronized(gFlights)
+		{
+			gFlight.gJoinable = false;
+			return(gFlight.gWaiters > 0);
+		}
+	}
 
-		ucIn.setConnectTimeout(TIMEOUT_MS);
+	private void handle(InputStream pBody)
+		throws IOException
+	{
+		parse(pBody, gHandler);
+	}
 
-		HttpURLConnection hIn = (HttpURLConnection) ucIn;
+	// Reuse what a handler of the same class made of the cached body, or parse it and keep the result for next time
+	private void handle(ResponseCache.Entry pEntry, byte[] pBody)
+		throws IOException
+	{
+		ReusableHandler rh = (ReusableHandler)gHandler;
+		Object oResult = pEntry.getResult(rh.getClass());
 
-		hIn.setRequestMethod("GET");
-		if(null != sUser && null != sPassword)
+		if(null != oResult)
 		{
-			hIn.setRequestProperty("Authorization",
-					"Basic "+Base64.getEncoder().encodeToString((sUser+":"+sPassword)
-						.getBytes(StandardCharsets.UTF_8)));
+			rh.reuse(oResult);
+			return;
 		}
 
-		if(hIn instanceof HttpsURLConnection)
+		parse(pBody, rh);
+		pEntry.putResult(rh.getClass(), rh.getResult());
+	}
+
+	// Parse a new body as it arrives, hashing it to tell whether it has changed, and only keeping it if the API can say next time that it hasn't
+	private void handle(ResponseCache.Entry pOld, InputStream pBody, String pETag, String pLastModified)
+		throws IOException
+	{
+		ReusableHandler rh = (ReusableHandler)gHandler;
+		MessageDigest md = ResponseCache.newDigest();
+		ByteArrayOutputStream baosBody = null == pETag && null == pLastModified ? null : new ByteArrayOutputStream();
+		InputStream isBody = new DigestInputStream(null == baosBody ? pBody : new CopyingInputStream(pBody, baosBody), md);
+
+		parse(isBody, rh);
+
+		// The hash, and the copy, are of the whole body, even if the handler stopped early
+		drain(isBody);
+
+		ResponseCache.Entry e = ResponseCache.getInstance().put(gCacheKey, pOld, pETag, pLastModified, null == baosBody ? null : baosBody.toByteArray(), md.digest());
+		e.putResult(rh.getClass(), rh.getResult());
+	}
+
+	private static void drain(InputStream pIn)
+		throws IOException
+	{
+		byte[] arrBuf = new byte[8192];
+		while(pIn.read(arrBuf) >= 0) {}
+	}
+
+	private static void parse(InputStream pBody, JsonHandler pHandler)
+		throws IOException
+	{
+		JsonReader jr = new JsonReader(new InputStreamReader(pBody, StandardCharsets.UTF_8));
+		jr.setLenient(true);
+		pHandler.handle(jr);
+	}
+
+	/**
+	 * Pass a body which has already been read, e.g. by the {@link AsyncTransport}, to a handler
+	 */
+	protected static void parse(byte[] pBody, JsonHandler pHandler)
+		throws IOException
+	{
+		parse(new ByteArrayInputStream(pBody), pHandler);
+	}
+
+	/**
+	 * Make a request where only the response code matters
+	 */
+	protected HttpHelper(String sUser, String sPassword, String pPath)
+		throws Exception
+	{
+		this(sUser, sPassword, pPath, null);
+	}
+
+	/**
+	 * Make a request, passing the body to pHandler if the response code is 200
+	 */
+	protected HttpHelper(String sUser, String sPassword, String pPath, JsonHandler pHandler)
+		throws Exception
+	{
+		this(sUser, sPassword, pPath, pHandler, null, null);
+	}
+
+	/**
+	 * As above, with a connection's options for the table being queried
+	 * @param pCancel The statement's execution which the call is for, or null
+	 * @throws java.sql.SQLException As per {@link Cancellation#check} if the execution is cancelled before the call has finished
+	 */
+	protected HttpHelper(String sUser, String sPassword, String pPath, JsonHandler pHandler, Options pOptions, Cancellation pCancel)
+		throws Exception
+	{
+		gHandler = pHandler;
+		gOptions = null == pOptions ? DEFAULT_OPTIONS : pOptions;
+		gCancel = pCancel;
+		gRespCode = 500;
+
+		if(null == gCancel)
 		{
-			HttpsURLConnection hsIn = (HttpsURLConnection) hIn;
+			call(sUser, sPassword, pPath);
+			return;
+		}
+
+		gCancel.check();
 
-			if(null == gTrustMgr)
+		// Wakes the caller from waiting for its turn, a connection or someone else's identical call. The connection itself is closed by the pool
+		final Thread tCaller = Thread.currentThread();
+		Runnable rInterrupt = new Runnable()
+		{
+			@Override
+			public void run()
 			{
-				initTrustManager();
+				tCaller.interrupt();
 			}
-			if(null == gHostVerif)
+		};
+		gCancel.add(rInterrupt);
+
+		try
+		{
+			call(sUser, sPassword, pPath);
+		}
+		catch(Exception e)
+		{
+			// Whatever went wrong, e.g. a closed socket, was caused by the cancellation
+			gCancel.check();
+			throw(e);
+		}
+		finally
+		{
+			gCancel.remove(rInterrupt);
+			if(gCancel.isCancelled())
 			{
-				initHostnameVerifier();
+				Thread.interrupted();
 			}
+		}
+	}
 
-			SSLContext scTrustAll12 = SSLContext.getInstance(TLS_SPEC);
-			scTrustAll12.init(null, gTrustMgr, new java.security.SecureRandom());
+	private void call(String sUser, String sPassword, String pPath)
+		throws Exception
+	{
+		String sKey = credentialsKey(sUser, sPassword) + '\u0000' + pPath;
+		gCacheKey = sKey;
+		Flight f;
+		boolean bLeader = false;
 
-			hsIn.setSSLSocketFactory(scTrustAll12.getSocketFactory());
-			hsIn.setHostnameVerifier(gHostVerif);
+		synchronized(gFlights)
+		{
+			if(null == (f = gFlights.get(sKey)))
+			{
+				f = new Flight();
+				gFlights.put(sKey, f);
+				bLeader = true;
+			}
+			else if(f.gJoinable)
+			{
+				f.gWaiters++;
+			}
+			else
+			{
+				f = null;
+			}
 		}
 
-		try
+		// Its response has already started streaming to its own caller, without a copy
+		if(null == f)
 		{
-			hIn.connect();
+			send(sUser, sPassword, pPath);
+			return;
+		}
 
-			gRespCode = hIn.getResponseCode();
+		if(!bLeader)
+		{
+			f.gDone.await();
 
-			StringBuffer sbData = new StringBuffer();
-			String sLine;
-			try(BufferedReader bIn = new BufferedReader(new InputStreamReader(hIn.getInputStream())))
+			if(f.gSucceeded && (200 != f.gRespCode || null != f.gBody))
 			{
-				while(null != (sLine = bIn.readLine()))
+				gCollapsed.incrementAndGet();
+				gRespCode = f.gRespCode;
+				if(200 == gRespCode && null != gHandler)
 				{
-					sbData.append(sLine);
+					handle(new ByteArrayInputStream(f.gBody));
 				}
+				return;
 			}
 
-			gResponse = sbData.toString();
+			// The shared call failed, perhaps because its caller was cancelled, so make this one independently
+			send(sUser, sPassword, pPath);
+			return;
+		}
+
+		try
+		{
+			gFlight = f;
+			send(sUser, sPassword, pPath);
+
+			f.gRespCode = gRespCode;
+			f.gBody = null == gBodyCopy ? null : gBodyCopy.toByteArray();
+			f.gSucceeded = true;
 		}
 		finally
 		{
-			try
+			gFlight = null;
+			gBodyCopy = null;
+			synchronized(gFlights)
 			{
-				hIn.disconnect();
+				gFlights.remove(sKey);
 			}
-			catch(Throwable t) {}
-			try
+			f.gDone.countDown();
+		}
+	}
+
+	/**
+	 * Calls are shared, and responses cached, by user and password, but those maps last as long as the JVM, so they only hold a hash of them
+	 */
+	protected static String credentialsKey(String sUser, String sPassword)
+	{
+		byte[] arrCredentials = (String.valueOf(sUser) + '\u0000' + String.valueOf(sPassword)).getBytes(StandardCharsets.UTF_8);
+		return(Base64.getEncoder().encodeToString(ResponseCache.hash(arrCredentials)));
+	}
+
+	private void send(String sUser, String sPassword, String pPath)
+		throws Exception
+	{
+		CircuitBreaker cb = CircuitBreaker.getInstance();
+		boolean bProbe = cb.admit();
+
+		ConcurrencyLimiter cl = ConcurrencyLimiter.getInstance();
+		boolean bOverloaded = true;
+
+		try
+		{
+			cl.acquire(gOptions.gFlow);
+		}
+		catch(InterruptedException ix)
+		{
+			cb.abandoned(bProbe);
+			throw(ix);
+		}
+
+		gLatencyNs = -1;
+		try
+		{
+			sendWithFallback(sUser, sPassword, pPath);
+			bOverloaded = 429 == gRespCode || gRespCode >= 500;
+
+			if(gRespCode >= 500)
+			{
+				cb.failed(bProbe, "HTTP " + gRespCode);
+			}
+			else
+			{
+				cb.succeeded(bProbe);
+			}
+		}
+		catch(Exception e)
+		{
+			// Once the response has started the API is evidently up, so a problem reading it only counts against the API if it's a timeout
+			// A call which was cancelled says nothing about the API, even if it was slow
+			if(null != gCancel && gCancel.isCancelled())
 			{
-				hIn.getInputStream().close();
+				cb.abandoned(bProbe);
+				bOverloaded = false;
 			}
-			catch(Throwable t) {}
-			try
+			else if(e instanceof SocketTimeoutException || e instanceof HttpPool.ReadTimeoutException)
 			{
-				hIn.getErrorStream().close();
+				cb.failed(bProbe, null == e.getMessage() ? e.getClass().getSimpleName() : e.getMessage());
 			}
-			catch(Throwable t) {}
+			else if(e instanceof InterruptedException || e instanceof InterruptedIOException)
+			{
+				cb.abandoned(bProbe);
+			}
+			else if(gLatencyNs < 0)
+			{
+				cb.failed(bProbe, null == e.getMessage() ? e.getClass().getSimpleName() : e.getMessage());
+			}
+			else
+			{
+				cb.succeeded(bProbe);
+			}
+			throw(e);
+		}
+		finally
+		{
+			cl.release(bOverloaded ? -1 : gLatencyNs, bOverloaded);
 		}
 	}
 
-	protected HttpHelper(String sUser, String sPassword, String pPath)
+	private void sendWithFallback(String sUser, String sPassword, String pPath)
 		throws Exception
 	{
-		gResponse = null;
-		gRespCode = 500;
+		gRequests.incrementAndGet();
 
 		if(null == gUseTLS)
 		{
@@ -170,8 +567,17 @@ public class HttpHelper
 			}
 			catch(SocketTimeoutException sx)
 			{
+				// Only if HTTPS never got as far as a response
+				if(gLatencyNs >= 0)
+				{
+					throw(sx);
+				}
+
 				doGet(sUser, sPassword, pPath, false);
 				gUseTLS = false;
+
+				// Not representative, since it includes the wait for HTTPS
+				gLatencyNs = -1;
 			}
 		}
 		else
@@ -186,5 +592,54 @@ public class HttpHelper
 			}
 		}
 	}
-}
 
+	// Keeps a copy of everything which is read through it
+	private static class CopyingInputStream
+		extends FilterInputStream
+	{
+		private final ByteArrayOutputStream gCopy;
+
+		private CopyingInputStream(InputStream pIn, ByteArrayOutputStream pCopy)
+		{
+			super(pIn);
+			this.gCopy = pCopy;
+		}
+
+		@Override
+		public int read()
+			throws IOException
+		{
+			int iRet = super.read();
+			if(iRet >= 0)
+			{
+				gCopy.write(iRet);
+			}
+			return(iRet);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+			throws IOException
+		{
+			int iRet = super.read(b, off, len);
+			if(iRet > 0)
+			{
+				gCopy.write(b, off, iRet);
+			}
+			return(iRet);
+		}
+
+		@Override
+		public long skip(long n)
+			throws IOException
+		{
+			return(read(new byte[(int)Math.min(n, 8192)], 0, (int)Math.min(n, 8192)));
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return(false);
+		}
+	}
+}
@@ -0,0 +1,849 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.security.cert.*;
+import java.util.*;
+import javax.net.ssl.*;
+
+import com.thereisnogravity.jdbcstub.*;
+
+/**
+ * HttpPool is a small, thread-safe pool of persistent HTTP/1.1 connections to Matillion's REST API.<br>
+ * Connections are kept alive between requests, TLS sessions are resumed from one shared SSLContext, and idle connections are evicted after a configurable time.
+ * It only needs to support what HttpHelper does: a GET to a single fixed host.
+ */
+class HttpPool
+{
+	private final static String TLS_SPEC = "TLSv1.2";
+	private final static String TRUSTED_HOST = "localhost";
+	private final static int DEFAULT_MAX_CONNECTIONS = 8;
+	private final static int DEFAULT_IDLE_SECS = 30;
+	private final static int MAX_DRAIN_BYTES = 65536;
+
+	private static HttpPool gPoolSingleton = null;
+
+	// Any certificate is trusted, which is only safe for the REST API on this machine, so as with HttpURLConnection, no other host is accepted
+	private final static HostnameVerifier gHostVerif = new HostnameVerifier()
+	{
+		@Override
+		public boolean verify(String hostname, SSLSession session)
+		{
+			return(hostname.equals(TRUSTED_HOST));
+		}
+	};
+
+	private final LinkedList<PooledConnection> gIdle = new LinkedList<PooledConnection>();
+	private int gLeased = 0;
+	private int gMaxConnections = DEFAULT_MAX_CONNECTIONS;
+	private long gIdleMillis = DEFAULT_IDLE_SECS * 1000L;
+
+	private SSLSocketFactory gSocketFactory = null;
+
+	/**
+	 * The API accepted the request but didn't respond in time, at any point in the response. Unlike a SocketTimeoutException while connecting, this doesn't suggest trying HTTP instead of HTTPS
+	 */
+	protected static class ReadTimeoutException
+		extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		protected ReadTimeoutException(String pMessage)
+		{
+			super(pMessage);
+		}
+	}
+
+	protected static synchronized HttpPool getInstance()
+	{
+		if(null == gPoolSingleton)
+		{
+			gPoolSingleton = new HttpPool();
+		}
+		return(gPoolSingleton);
+	}
+
+	protected synchronized int getMaxConnections()
+	{
+		return(gMaxConnections);
+	}
+
+	/**
+	 * The pool is shared by every connection in the JVM, so the most recently supplied settings apply
+	 * @param pMaxConnections The most sockets which may be open (leased or idle) at once
+	 * @param pIdleSecs How long an unused connection is kept before being closed
+	 */
+	protected synchronized void configure(int pMaxConnections, int pIdleSecs)
+	{
+		gMaxConnections = pMaxConnections;
+		gIdleMillis = pIdleSecs * 1000L;
+		evictIdle(System.currentTimeMillis());
+		notifyAll();
+	}
+
+	/**
+	 * Send a GET and return the response, whose body must be closed to give the connection back to the pool
+	 * @param pReadTimeoutMs How long to wait for the response to start, and then for each part of the body. 0 waits for ever
+	 * @param pCancel If not null, cancelling it closes the connection, so that a request which is waiting for a response, or reading one, fails straight away
+	 */
+	protected Exchange get(boolean bSecure, String pHost, int pPort, String pPathAndQuery, Map<String,String> pHeaders, int pConnectTimeoutMs, int pReadTimeoutMs, Cancellation pCancel)
+		throws IOException
+	{
+		PooledConnection pc = lease(bSecure, pHost, pPort, pConnectTimeoutMs);
+
+		try
+		{
+			return(pc.exchange(pHost, pPort, pPathAndQuery, pHeaders, pReadTimeoutMs, pCancel));
+		}
+		catch(IOException iox)
+		{
+			release(pc, false);
+
+			// A slow API would be just as slow on a new connection, and a cancelled request has nobody waiting for it
+			if(!pc.gReused || iox instanceof ReadTimeoutException || (null != pCancel && pCancel.isCancelled()))
+			{
+				throw(iox);
+			}
+
+			// The server may have closed an idle connection: GETs are idempotent, so retry once on a fresh socket
+			pc = connect(bSecure, pHost, pPort, pConnectTimeoutMs);
+			try
+			{
+				return(pc.exchange(pHost, pPort, pPathAndQuery, pHeaders, pReadTimeoutMs, pCancel));
+			}
+			catch(IOException iox2)
+			{
+				release(pc, false);
+				throw(iox2);
+			}
+		}
+	}
+
+	// Take an idle connection to the same endpoint, or open a new one if the pool has room
+	private PooledConnection lease(boolean bSecure, String pHost, int pPort, int pConnectTimeoutMs)
+		throws IOException
+	{
+		synchronized(this)
+		{
+			long lNow = System.currentTimeMillis();
+			long lGiveUp = lNow + Math.max(pConnectTimeoutMs, 1000) * 10L;
+
+			while(true)
+			{
+				evictIdle(lNow);
+
+				for(Iterator<PooledConnection> it = gIdle.iterator(); it.hasNext(); )
+				{
+					PooledConnection pc = it.next();
+					if(pc.gSecure == bSecure && pc.gHost.equals(pHost) && pc.gPort == pPort)
+					{
+						it.remove();
+						gLeased++;
+						pc.gReused = true;
+						return(pc);
+					}
+				}
+
+				if(gLeased + gIdle.size() < gMaxConnections)
+				{
+					break;
+				}
+
+				// Make room by dropping an idle connection to a different endpoint
+				if(!gIdle.isEmpty())
+				{
+					gIdle.removeFirst().closeQuietly();
+					continue;
+				}
+
+				if(lNow >= lGiveUp)
+				{
+					throw(new IOException("Timed out waiting for a free connection to the Matillion API"));
+				}
+
+				try
+				{
+					wait(lGiveUp - lNow);
+				}
+				catch(InterruptedException ix)
+				{
+					Thread.currentThread().interrupt();
+					throw(new InterruptedIOException("Interrupted waiting for a free connection"));
+				}
+				lNow = System.currentTimeMillis();
+			}
+
+			gLeased++;
+		}
+
+		try
+		{
+			return(open(bSecure, pHost, pPort, pConnectTimeoutMs));
+		}
+		catch(IOException iox)
+		{
+			synchronized(this)
+			{
+				gLeased--;
+				notifyAll();
+			}
+			throw(iox);
+		}
+	}
+
+	// A brand new connection, counted against the pool
+	private PooledConnection connect(boolean bSecure, String pHost, int pPort, int pConnectTimeoutMs)
+		throws IOException
+	{
+		synchronized(this)
+		{
+			gLeased++;
+		}
+
+		try
+		{
+			return(open(bSecure, pHost, pPort, pConnectTimeoutMs));
+		}
+		catch(IOException iox)
+		{
+			synchronized(this)
+			{
+				gLeased--;
+				notifyAll();
+			}
+			throw(iox);
+		}
+	}
+
+	private PooledConnection open(boolean bSecure, String pHost, int pPort, int pConnectTimeoutMs)
+		throws IOException
+	{
+		Socket s = new Socket();
+		try
+		{
+			s.setTcpNoDelay(true);
+			s.setKeepAlive(true);
+			s.connect(new InetSocketAddress(pHost, pPort), pConnectTimeoutMs);
+
+			if(bSecure)
+			{
+				// Layering over the plain socket keeps the connect timeout, and the shared factory lets TLS sessions be resumed
+				SSLSocket ss = (SSLSocket) getSocketFactory().createSocket(s, pHost, pPort, true);
+				ss.setSoTimeout(pConnectTimeoutMs);
+				ss.startHandshake();
+				ss.setSoTimeout(0);
+				s = ss;
+
+				if(!gHostVerif.verify(pHost, ss.getSession()))
+				{
+					throw(new SSLPeerUnverifiedException(String.format("Not verifying the certificate of %s", pHost)));
+				}
+			}
+
+			return(new PooledConnection(s, bSecure, pHost, pPort));
+		}
+		catch(IOException iox)
+		{
+			try
+			{
+				s.close();
+			}
+			catch(Throwable t) {}
+			throw(iox);
+		}
+	}
+
+	// Return a connection after use. It's only kept if it can safely carry another request
+	private synchronized void release(PooledConnection pc, boolean bReusable)
+	{
+		gLeased--;
+
+		if(bReusable && gLeased + gIdle.size() < gMaxConnections)
+		{
+			pc.gIdleSince = System.currentTimeMillis();
+			gIdle.addLast(pc);
+		}
+		else
+		{
+			pc.closeQuietly();
+		}
+		notifyAll();
+	}
+
+	// Caller must hold the lock
+	private void evictIdle(long lNow)
+	{
+		for(Iterator<PooledConnection> it = gIdle.iterator(); it.hasNext(); )
+		{
+			PooledConnection pc = it.next();
+			if(lNow - pc.gIdleSince >= gIdleMillis || pc.gSocket.isClosed())
+			{
+				it.remove();
+				pc.closeQuietly();
+			}
+		}
+	}
+
+	// Matillion's REST API on localhost usually has a self-signed certificate, so trust it
+	private synchronized SSLSocketFactory getSocketFactory()
+		throws IOException
+	{
+		if(null == gSocketFactory)
+		{
+			TrustManager[] arrTrustAll = new TrustManager[]
+			{
+				new X509TrustManager()
+				{
+					@Override
+					public X509Certificate[] getAcceptedIssuers()
+					{
+						return new X509Certificate[0];
+					}
+					@Override
+					public void checkClientTrusted(X509Certificate[] certs, String authType)
+					{
+					}
+					@Override
+					public void checkServerTrusted(X509Certificate[] certs, String authType)
+					{
+					}
+				}
+			};
+
+			try
+			{
+				SSLContext scTrustAll12 = SSLContext.getInstance(TLS_SPEC);
+				scTrustAll12.init(null, arrTrustAll, new java.security.SecureRandom());
+				gSocketFactory = scTrustAll12.getSocketFactory();
+			}
+			catch(GeneralSecurityException gx)
+			{
+				throw(new IOException(gx));
+			}
+		}
+		return(gSocketFactory);
+	}
+
+	/**
+	 * One socket, able to carry any number of sequential requests
+	 */
+	private class PooledConnection
+	{
+		private final Socket gSocket;
+		private final InputStream gIn;
+		private final OutputStream gOut;
+		private final boolean gSecure;
+		private final String gHost;
+		private final int gPort;
+		private long gIdleSince;
+		private boolean gReused = false;
+
+		private PooledConnection(Socket pSocket, boolean bSecure, String pHost, int pPort)
+			throws IOException
+		{
+			this.gSocket = pSocket;
+			this.gIn = new BufferedInputStream(new ReadTimeoutInputStream(pSocket));
+			this.gOut = new BufferedOutputStream(pSocket.getOutputStream());
+			this.gSecure = bSecure;
+			this.gHost = pHost;
+			this.gPort = pPort;
+		}
+
+		// Until the exchange is closed, cancelling pCancel closes the socket
+		private Exchange exchange(String pHost, int pPort, String pPathAndQuery, Map<String,String> pHeaders, int pReadTimeoutMs, Cancellation pCancel)
+			throws IOException
+		{
+			Runnable rAbort = null;
+			if(null != pCancel)
+			{
+				rAbort = new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						closeQuietly();
+					}
+				};
+				pCancel.add(rAbort);
+			}
+
+			try
+			{
+				return(exchange(pHost, pPort, pPathAndQuery, pHeaders, pReadTimeoutMs, pCancel, rAbort));
+			}
+			catch(IOException iox)
+			{
+				if(null != pCancel)
+				{
+					pCancel.remove(rAbort);
+				}
+				throw(iox);
+			}
+		}
+
+		private Exchange exchange(String pHost, int pPort, String pPathAndQuery, Map<String,String> pHeaders, int pReadTimeoutMs, Cancellation pCancel, Runnable rAbort)
+			throws IOException
+		{
+			gSocket.setSoTimeout(pReadTimeoutMs);
+
+			StringBuilder sbReq = new StringBuilder();
+			sbReq.append("GET ").append(pPathAndQuery).append(" HTTP/1.1\r\n");
+			sbReq.append("Host: ").append(pHost).append(':').append(pPort).append("\r\n");
+			sbReq.append("Accept: application/json\r\n");
+			sbReq.append("Connection: keep-alive\r\n");
+			for(Map.Entry<String,String> me : pHeaders.entrySet())
+			{
+				sbReq.append(me.getKey()).append(": ").append(me.getValue()).append("\r\n");
+			}
+			sbReq.append("\r\n");
+
+			gOut.write(sbReq.toString().getBytes(StandardCharsets.ISO_8859_1));
+			gOut.flush();
+
+			String sStatus = readLine(gIn);
+			if(null == sStatus)
+			{
+				throw(new EOFException("Connection closed by the server"));
+			}
+
+			String[] arrStatus = sStatus.split(" ", 3);
+			if(arrStatus.length < 2 || !arrStatus[0].startsWith("HTTP/"))
+			{
+				throw(new IOException("Bad HTTP status line: " + sStatus));
+			}
+
+			int iCode;
+			try
+			{
+				iCode = Integer.parseInt(arrStatus[1]);
+			}
+			catch(NumberFormatException nx)
+			{
+				throw(new IOException("Bad HTTP status line: " + sStatus));
+			}
+
+			// A header sent more than once is one comma separated list, and a line starting with whitespace continues the one before
+			TreeMap<String,String> tmHeaders = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+			String sLine;
+			String sName = null;
+			while(null != (sLine = readLine(gIn)) && !sLine.isEmpty())
+			{
+				int iColon = sLine.indexOf(':');
+				if((' ' == sLine.charAt(0) || '\t' == sLine.charAt(0)) && null != sName)
+				{
+					tmHeaders.put(sName, (tmHeaders.get(sName) + ' ' + sLine.trim()).trim());
+				}
+				else if(iColon > 0)
+				{
+					sName = sLine.substring(0, iColon).trim();
+					String sValue = sLine.substring(iColon + 1).trim();
+					String sPrevious = tmHeaders.get(sName);
+					tmHeaders.put(sName, null == sPrevious ? sValue : sPrevious + ", " + sValue);
+				}
+			}
+
+			boolean bKeepAlive = arrStatus[0].equals("HTTP/1.1") && !"close".equalsIgnoreCase(tmHeaders.get("Connection"));
+
+			InputStream isBody;
+			Long lLength = getContentLength(tmHeaders.get("Content-Length"));
+			if("chunked".equalsIgnoreCase(tmHeaders.get("Transfer-Encoding")))
+			{
+				isBody = new ChunkedInputStream(gIn);
+			}
+			else if(null != lLength)
+			{
+				isBody = new FixedLengthInputStream(gIn, lLength.longValue());
+			}
+			else if(204 == iCode || 304 == iCode || (iCode >= 100 && iCode < 200))
+			{
+				isBody = new FixedLengthInputStream(gIn, 0);
+			}
+			else
+			{
+				// Body runs to the end of the connection
+				isBody = gIn;
+				bKeepAlive = false;
+			}
+
+			return(new Exchange(this, iCode, tmHeaders, isBody, bKeepAlive, pCancel, rAbort));
+		}
+
+		private void closeQuietly()
+		{
+			try
+			{
+				gSocket.close();
+			}
+			catch(Throwable t) {}
+		}
+	}
+
+	/**
+	 * The response to one request. Closing it drains any unread body and returns the connection to the pool
+	 */
+	protected class Exchange
+		implements Closeable
+	{
+		private final PooledConnection gConnection;
+		private final int gCode;
+		private final Map<String,String> gHeaders;
+		private final InputStream gBody;
+		private final boolean gKeepAlive;
+		private final Cancellation gCancel;
+		private final Runnable gAbortOnCancel;
+		private boolean gClosed = false;
+
+		private Exchange(PooledConnection pConnection, int pCode, Map<String,String> pHeaders, InputStream pBody, boolean bKeepAlive, Cancellation pCancel, Runnable rAbortOnCancel)
+		{
+			this.gConnection = pConnection;
+			this.gCode = pCode;
+			this.gHeaders = pHeaders;
+			this.gBody = pBody;
+			this.gKeepAlive = bKeepAlive;
+			this.gCancel = pCancel;
+			this.gAbortOnCancel = rAbortOnCancel;
+		}
+
+		protected int getCode()
+		{
+			return(gCode);
+		}
+
+		// Header names are case insensitive
+		protected String getHeader(String pName)
+		{
+			return(gHeaders.get(pName));
+		}
+
+		protected InputStream getBody()
+		{
+			return(gBody);
+		}
+
+		// Abandon the exchange from another thread, closing the socket rather than returning it to the pool
+		protected void abort()
+		{
+			gConnection.closeQuietly();
+		}
+
+		@Override
+		public void close()
+		{
+			if(gClosed)
+			{
+				return;
+			}
+			gClosed = true;
+
+			boolean bReusable = gKeepAlive;
+			if(bReusable)
+			{
+				try
+				{
+					// Consume whatever the caller didn't read, so the next response starts at the right place
+					byte[] arrSkip = new byte[4096];
+					long lDrained = 0;
+					int iRead;
+					while(-1 != (iRead = gBody.read(arrSkip)))
+					{
+						lDrained += iRead;
+						if(lDrained > MAX_DRAIN_BYTES)
+						{
+							bReusable = false;
+							break;
+						}
+					}
+				}
+				catch(IOException iox)
+				{
+					bReusable = false;
+				}
+			}
+
+			// Before the connection can go to anyone else
+			if(null != gCancel)
+			{
+				gCancel.remove(gAbortOnCancel);
+			}
+			release(gConnection, bReusable && !gConnection.gSocket.isClosed());
+		}
+	}
+
+	/**
+	 * Everything read from a connection comes after a request has been written to it, so a timeout always means the API accepted the request but went quiet.
+	 * Whether it's the status line, a header or the body, it's a {@link ReadTimeoutException}
+	 */
+	private static class ReadTimeoutInputStream
+		extends FilterInputStream
+	{
+		private final Socket gSocket;
+
+		private ReadTimeoutInputStream(Socket pSocket)
+			throws IOException
+		{
+			super(pSocket.getInputStream());
+			this.gSocket = pSocket;
+		}
+
+		@Override
+		public int read()
+			throws IOException
+		{
+			try
+			{
+				return(super.read());
+			}
+			catch(SocketTimeoutException sx)
+			{
+				throw(timedOut());
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+			throws IOException
+		{
+			try
+			{
+				return(super.read(b, off, len));
+			}
+			catch(SocketTimeoutException sx)
+			{
+				throw(timedOut());
+			}
+		}
+
+		private ReadTimeoutException timedOut()
+		{
+			int iTimeoutMs = 0;
+			try
+			{
+				iTimeoutMs = gSocket.getSoTimeout();
+			}
+			catch(IOException iox) {}
+			return(new ReadTimeoutException(String.format("No response from the Matillion API within %d ms", iTimeoutMs)));
+		}
+	}
+
+	// The length of the body, or null if there's no Content-Length. If it was sent more than once, every value must be the same
+	private static Long getContentLength(String pHeader)
+		throws IOException
+	{
+		if(null == pHeader)
+		{
+			return(null);
+		}
+
+		Long lRet = null;
+		for(String s : pHeader.split(","))
+		{
+			long lLength;
+			try
+			{
+				lLength = Long.parseLong(s.trim());
+			}
+			catch(NumberFormatException nx)
+			{
+				throw(new IOException("Bad Content-Length: " + pHeader));
+			}
+			if(lLength < 0 || (null != lRet && lRet.longValue() != lLength))
+			{
+				throw(new IOException("Bad Content-Length: " + pHeader));
+			}
+			lRet = Long.valueOf(lLength);
+		}
+		return(lRet);
+	}
+
+	// Read one CRLF terminated header line as ISO-8859-1, or null at end of stream
+	private static String readLine(InputStream pIn)
+		throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while(-1 != (c = pIn.read()))
+		{
+			if('\n' == c)
+			{
+				int iLen = sb.length();
+				if(iLen > 0 && '\r' == sb.charAt(iLen - 1))
+				{
+					sb.setLength(iLen - 1);
+				}
+				return(sb.toString());
+			}
+			sb.append((char) c);
+		}
+		return(0 == sb.length() ? null : sb.toString());
+	}
+
+	/**
+	 * A body with a Content-Length. Reads stop at the end of the body without closing the socket
+	 */
+	private static class FixedLengthInputStream
+		extends InputStream
+	{
+		private final InputStream gIn;
+		private long gRemaining;
+
+		private FixedLengthInputStream(InputStream pIn, long pLength)
+		{
+			this.gIn = pIn;
+			this.gRemaining = pLength;
+		}
+
+		@Override
+		public int read()
+			throws IOException
+		{
+			if(gRemaining <= 0)
+			{
+				return(-1);
+			}
+			int c = gIn.read();
+			if(-1 == c)
+			{
+				throw(new EOFException("Response body truncated"));
+			}
+			gRemaining--;
+			return(c);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+			throws IOException
+		{
+			if(gRemaining <= 0)
+			{
+				return(-1);
+			}
+			int iRead = gIn.read(b, off, (int) Math.min(len, gRemaining));
+			if(-1 == iRead)
+			{
+				throw(new EOFException("Response body truncated"));
+			}
+			gRemaining -= iRead;
+			return(iRead);
+		}
+
+		@Override
+		public void close()
+		{
+			// The socket belongs to the pool
+		}
+	}
+
+	/**
+	 * A body with Transfer-Encoding: chunked, as Tomcat sends for most REST API responses
+	 */
+	private static class ChunkedInputStream
+		extends InputStream
+	{
+		private final InputStream gIn;
+		private long gChunkRemaining = 0;
+		private boolean gEof = false;
+
+		private ChunkedInputStream(InputStream pIn)
+		{
+			this.gIn = pIn;
+		}
+
+		// Returns false once the final zero-length chunk and trailers have been read
+		private boolean nextChunk()
+			throws IOException
+		{
+			if(gEof)
+			{
+				return(false);
+			}
+
+			if(0 == gChunkRemaining)
+			{
+				String sSize = readLine(gIn);
+				// Skip the CRLF which ends the previous chunk
+				if(null != sSize && sSize.isEmpty())
+				{
+					sSize = readLine(gIn);
+				}
+				if(null == sSize)
+				{
+					throw(new EOFException("Response body truncated"));
+				}
+
+				int iSemi = sSize.indexOf(';');
+				try
+				{
+					gChunkRemaining = Long.parseLong((iSemi >= 0 ? sSize.substring(0, iSemi) : sSize).trim(), 16);
+				}
+				catch(NumberFormatException nx)
+				{
+					throw(new IOException("Bad chunk size: " + sSize));
+				}
+
+				if(0 == gChunkRemaining)
+				{
+					// Trailers end with an empty line
+					String sTrailer;
+					while(null != (sTrailer = readLine(gIn)) && !sTrailer.isEmpty())
+					{
+					}
+					gEof = true;
+					return(false);
+				}
+			}
+			return(true);
+		}
+
+		@Override
+		public int read()
+			throws IOException
+		{
+			if(!nextChunk())
+			{
+				return(-1);
+			}
+			int c = gIn.read();
+			if(-1 == c)
+			{
+				throw(new EOFException("Response body truncated"));
+			}
+			gChunkRemaining--;
+			return(c);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+			throws IOException
+		{
+			if(!nextChunk())
+			{
+				return(-1);
+			}
+			int iRead = gIn.read(b, off, (int) Math.min(len, gChunkRemaining));
+			if(-1 == iRead)
+			{
+				throw(new EOFException("Response body truncated"));
+			}
+			gChunkRemaining -= iRead;
+			return(iRead);
+		}
+
+		@Override
+		public void close()
+		{
+			// The socket belongs to the pool
+		}
+	}
+
+	// This class is only used through getInstance
+	private HttpPool()
+	{
+	}
+}
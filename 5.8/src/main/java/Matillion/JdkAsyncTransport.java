@@ -0,0 +1,156 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.*;
+import java.security.cert.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import javax.net.ssl.*;
+
+/**
+ * The java.net.http implementation of {@link AsyncTransport}. Only ever loaded by name, so nothing else refers to it.<br>
+ * One HttpClient is shared by the whole JVM. It multiplexes every connection's requests over a selector thread, and completes them on a couple of daemon threads.
+ * As with HttpHelper, HTTPS is tried first, falling back to HTTP if that can't connect.
+ */
+final class JdkAsyncTransport
+	extends AsyncTransport
+{
+	private final static String APIHOST = "localhost";
+	private final static int TIMEOUT_MS = 1500;
+	private final static int COMPLETION_THREADS = 2;
+
+	private final HttpClient gClient;
+	private volatile Boolean gUseTLS = null;
+
+	public JdkAsyncTransport()
+		throws Exception
+	{
+		// Matillion's REST API on localhost usually has a self-signed certificate, so trust it
+		// An X509ExtendedTrustManager also stops the client checking the host name against the certificate
+		SSLContext scTrustAll = SSLContext.getInstance("TLSv1.2");
+		scTrustAll.init(null, new TrustManager[] { new X509ExtendedTrustManager()
+		{
+			@Override
+			public X509Certificate[] getAcceptedIssuers()
+			{
+				return new X509Certificate[0];
+			}
+			@Override
+			public void checkClientTrusted(X509Certificate[] certs, String authType)
+			{
+			}
+			@Override
+			public void checkServerTrusted(X509Certificate[] certs, String authType)
+			{
+			}
+			@Override
+			public void checkClientTrusted(X509Certificate[] certs, String authType, Socket s)
+			{
+			}
+			@Override
+			public void checkServerTrusted(X509Certificate[] certs, String authType, Socket s)
+			{
+			}
+			@Override
+			public void checkClientTrusted(X509Certificate[] certs, String authType, SSLEngine e)
+			{
+			}
+			@Override
+			public void checkServerTrusted(X509Certificate[] certs, String authType, SSLEngine e)
+			{
+			}
+		}}, new java.security.SecureRandom());
+
+		gClient = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofMillis(TIMEOUT_MS))
+			.sslContext(scTrustAll)
+			.executor(Executors.newFixedThreadPool(COMPLETION_THREADS, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "METL-async");
+					t.setDaemon(true);
+					return(t);
+				}
+			}))
+			.build();
+	}
+
+	@Override
+	protected CompletableFuture<Response> get(final String sUser, final String sPassword, final String pPath, final int pReadTimeoutMs)
+	{
+		if(null != gUseTLS)
+		{
+			return(send(sUser, sPassword, pPath, pReadTimeoutMs, gUseTLS.booleanValue()));
+		}
+
+		// Try HTTPS first
+		return(send(sUser, sPassword, pPath, pReadTimeoutMs, true).handle(new BiFunction<Response,Throwable,CompletableFuture<Response>>()
+		{
+			@Override
+			public CompletableFuture<Response> apply(Response r, Throwable t)
+			{
+				if(null == t)
+				{
+					gUseTLS = Boolean.TRUE;
+					return(CompletableFuture.completedFuture(r));
+				}
+
+				Throwable tCause = t instanceof CompletionException && null != t.getCause() ? t.getCause() : t;
+				if(tCause instanceof HttpConnectTimeoutException)
+				{
+					gUseTLS = Boolean.FALSE;
+					return(send(sUser, sPassword, pPath, pReadTimeoutMs, false));
+				}
+
+				CompletableFuture<Response> cfRet = new CompletableFuture<Response>();
+				cfRet.completeExceptionally(tCause);
+				return(cfRet);
+			}
+		}).thenCompose(new Function<CompletableFuture<Response>,CompletableFuture<Response>>()
+		{
+			@Override
+			public CompletableFuture<Response> apply(CompletableFuture<Response> cf)
+			{
+				return(cf);
+			}
+		}));
+	}
+
+	private CompletableFuture<Response> send(String sUser, String sPassword, String pPath, int pReadTimeoutMs, boolean bSecure)
+	{
+		String sUrl = String.format("%s://%s:%d/rest/v1/%s",
+			bSecure ? "https" : "http",
+			APIHOST,
+			bSecure ? 8443 : 8080,
+			pPath.startsWith("/") ? pPath.substring(1) : pPath);
+
+		// As with HttpHelper's readtimeoutsecs, so that a hung API can't stall a walk forever. A timeout fails with an HttpTimeoutException
+		HttpRequest.Builder rb = HttpRequest.newBuilder(URI.create(sUrl)).timeout(Duration.ofMillis(pReadTimeoutMs)).GET();
+		if(null != sUser && null != sPassword)
+		{
+			rb.header("Authorization",
+					"Basic "+Base64.getEncoder().encodeToString((sUser+":"+sPassword)
+						.getBytes(StandardCharsets.UTF_8)));
+		}
+
+		return(gClient.sendAsync(rb.build(), HttpResponse.BodyHandlers.ofByteArray()).thenApply(new Function<HttpResponse<byte[]>,Response>()
+		{
+			@Override
+			public Response apply(HttpResponse<byte[]> hr)
+			{
+				return(new Response(hr.statusCode(), hr.body()));
+			}
+		}));
+	}
+}
@@ -0,0 +1,344 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * JobCatalog keeps an in-memory snapshot of every job in the group / project / version / job hierarchy, so that the job table can be served without a REST call per version.<br>
+ * A connection opts in with the jobcatalogsecs property, and from then on a background thread refreshes that user's snapshot every so many seconds.
+ * Each refresh lists the groups, projects and versions, but only lists the jobs again for projects whose list of versions has changed.
+ * Jobs can also change inside an existing version, so every {@link #FULL_REFRESH_CYCLES}th refresh lists all the jobs again.
+ * A snapshot which is more than {@link #MAX_AGE_INTERVALS} intervals old is not used, so queries fall back to the REST API if refreshing keeps failing.
+ */
+final class JobCatalog
+{
+	protected final static int FULL_REFRESH_CYCLES = 10;
+	protected final static int MAX_AGE_INTERVALS = 3;
+
+	// A user's snapshot stops being refreshed when no connection or query has asked for it for this long
+	private final static long IDLE_MS = 3600 * 1000L;
+
+	private static JobCatalog gCatalogSingleton = null;
+	private static boolean gRefresherRunning = false;
+
+	private final HashMap<String,Subscription> gSubscriptions = new HashMap<String,Subscription>();
+
+	// One user's snapshot, and how to refresh it
+	private static class Subscription
+	{
+		private final String gUser;
+		private String gPassword;
+		private int gRefreshSecs;
+		private int gParallelism;
+		private boolean gVirtualThreads;
+		private long gNextDue;
+		private long gLastUsed;
+		private int gCycles;
+		private Snapshot gSnapshot;
+
+		private Subscription(String pUser)
+		{
+			this.gUser = pUser;
+		}
+	}
+
+	private static class Snapshot
+	{
+		// Keyed by group and project name
+		private final Map<String,Project> gProjects;
+
+		// Every job, as {groupname, projectname, versionname, jobname}, in the same order as a REST walk
+		private final List<String[]> gRows;
+		private final long gTakenAt;
+
+		private Snapshot(Map<String,Project> pProjects, List<String[]> pRows)
+		{
+			this.gProjects = pProjects;
+			this.gRows = Collections.unmodifiableList(pRows);
+			this.gTakenAt = System.currentTimeMillis();
+		}
+	}
+
+	private static class Project
+	{
+		// {groupname, projectname}
+		private final String[] gPath;
+		private final List<String> gVersions;
+
+		// The job names in each version, in the same order as gVersions
+		private final List<List<String>> gJobs;
+
+		private Project(String[] pPath, List<String> pVersions, List<List<String>> pJobs)
+		{
+			this.gPath = pPath;
+			this.gVersions = pVersions;
+			this.gJobs = pJobs;
+		}
+	}
+
+	protected static synchronized JobCatalog getInstance()
+	{
+		if(null == gCatalogSingleton)
+		{
+			gCatalogSingleton = new JobCatalog();
+		}
+		return(gCatalogSingleton);
+	}
+
+	/**
+	 * Started from the Driver's static block. The thread is idle until a connection subscribes,
+	 * and it's a daemon so it never keeps the JVM alive
+	 */
+	protected static synchronized void runRefresher()
+	{
+		if(gRefresherRunning)
+		{
+			return;
+		}
+
+		gRefresherRunning = true;
+		Thread t = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				getInstance().refreshLoop();
+			}
+		}, "METL-jobcatalog");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Ask for a user's snapshot to be kept up to date. Called by every connection which sets jobcatalogsecs, after its credentials have been checked
+	 * @param pRefreshSecs How often to refresh. If connections ask for different intervals the shortest applies
+	 * @param pParallelism The maximum number of concurrent REST calls while refreshing
+	 * @param pVirtualThreads Make the calls on virtual threads, if the JVM has them
+	 */
+	protected synchronized void subscribe(String pUser, String pPassword, int pRefreshSecs, int pParallelism, boolean pVirtualThreads)
+	{
+		long lNow = System.currentTimeMillis();
+		Subscription s = gSubscriptions.get(pUser);
+
+		if(null == s || !s.gPassword.equals(pPassword))
+		{
+			// A new password may have different permissions, so start again
+			s = new Subscription(pUser);
+			s.gPassword = pPassword;
+			s.gRefreshSecs = pRefreshSecs;
+			s.gNextDue = lNow;
+			gSubscriptions.put(pUser, s);
+		}
+		else if(pRefreshSecs < s.gRefreshSecs)
+		{
+			s.gRefreshSecs = pRefreshSecs;
+			s.gNextDue = Math.min(s.gNextDue, lNow + pRefreshSecs * 1000L);
+		}
+
+		s.gParallelism = pParallelism;
+		s.gVirtualThreads = pVirtualThreads;
+		s.gLastUsed = lNow;
+		notifyAll();
+	}
+
+	/**
+	 * @return List Every job the user can see, as {groupname, projectname, versionname, jobname}, or null if there's no snapshot which is recent enough
+	 */
+	protected synchronized List<String[]> getJobs(String pUser, String pPassword)
+	{
+		Subscription s = gSubscriptions.get(pUser);
+
+		if(null == s || !s.gPassword.equals(pPassword) || null == s.gSnapshot)
+		{
+			return(null);
+		}
+
+		long lNow = System.currentTimeMillis();
+		if(lNow - s.gSnapshot.gTakenAt > MAX_AGE_INTERVALS * s.gRefreshSecs * 1000L)
+		{
+			return(null);
+		}
+
+		s.gLastUsed = lNow;
+		return(s.gSnapshot.gRows);
+	}
+
+	private void refreshLoop()
+	{
+		while(true)
+		{
+			Subscription s;
+			Snapshot snPrevious;
+			boolean bFull;
+
+			synchronized(this)
+			{
+				try
+				{
+					if(null == (s = nextDue()))
+					{
+						wait();
+						continue;
+					}
+
+					long lWait = s.gNextDue - System.currentTimeMillis();
+					if(lWait > 0)
+					{
+						wait(lWait);
+						continue;
+					}
+				}
+				catch(InterruptedException ix)
+				{
+					return;
+				}
+
+				s.gNextDue = System.currentTimeMillis() + s.gRefreshSecs * 1000L;
+				snPrevious = s.gSnapshot;
+				bFull = 0 == s.gCycles++ % FULL_REFRESH_CYCLES;
+			}
+
+			try
+			{
+				Snapshot snNew = refresh(s.gUser, s.gPassword, s.gParallelism, s.gVirtualThreads, bFull ? null : snPrevious);
+
+				synchronized(this)
+				{
+					// Unless the subscription was replaced meanwhile
+					if(s == gSubscriptions.get(s.gUser))
+					{
+						s.gSnapshot = snNew;
+					}
+				}
+			}
+			catch(Throwable t)
+			{
+				// Keep the previous snapshot until it's too old to use, and try again at the next interval
+			}
+		}
+	}
+
+	// The subscription which is due soonest, forgetting any which nobody has used for a while
+	private Subscription nextDue()
+	{
+		long lNow = System.currentTimeMillis();
+		Subscription sRet = null;
+
+		for(Iterator<Subscription> it = gSubscriptions.values().iterator(); it.hasNext(); )
+		{
+			Subscription s = it.next();
+
+			if(lNow - s.gLastUsed > IDLE_MS)
+			{
+				it.remove();
+			}
+			else if(null == sRet || s.gNextDue < sRet.gNextDue)
+			{
+				sRet = s;
+			}
+		}
+		return(sRet);
+	}
+
+	// Take a new snapshot, reusing the jobs from pPrevious for every project whose versions are unchanged
+	// If pPrevious is null every project's jobs are listed
+	private static Snapshot refresh(final String pUser, final String pPassword, int pParallelism, boolean pVirtualThreads, final Snapshot pPrevious)
+		throws Exception
+	{
+		ExecutorService x = FanOut.newExecutor(pParallelism, pVirtualThreads);
+
+		try
+		{
+			WalkSource<String[]> wsProjects = children(children(FanOut.of(Collections.singletonList(new String[0])), null, 1, pUser, pPassword), x, pParallelism, pUser, pPassword);
+
+			FanOut<String[],Project> foProjects = new FanOut<String[],Project>(wsProjects, x, pParallelism, new FanOut.Task<String[],Project>()
+			{
+				@Override
+				public Project call(String[] arrProject)
+					throws Exception
+				{
+					List<String> lVersions = APIv1.listChildren(pUser, pPassword, arrProject);
+
+					if(null != pPrevious)
+					{
+						Project pOld = pPrevious.gProjects.get(key(arrProject));
+						if(null != pOld && pOld.gVersions.equals(lVersions))
+						{
+							return(pOld);
+						}
+					}
+
+					List<List<String>> lJobs = new ArrayList<List<String>>(lVersions.size());
+					for(String sVersion : lVersions)
+					{
+						lJobs.add(APIv1.listChildren(pUser, pPassword, new String[] {arrProject[0], arrProject[1], sVersion}));
+					}
+					return(new Project(arrProject, lVersions, lJobs));
+				}
+			});
+
+			Map<String,Project> mProjects = new HashMap<String,Project>();
+			List<String[]> lRows = new ArrayList<String[]>();
+
+			try
+			{
+				while(foProjects.hasNext())
+				{
+					Project p = foProjects.next();
+
+					mProjects.put(key(p.gPath), p);
+					for(int i = 0; i < p.gVersions.size(); i++)
+					{
+						for(String sJob : p.gJobs.get(i))
+						{
+							lRows.add(new String[] {p.gPath[0], p.gPath[1], p.gVersions.get(i), sJob});
+						}
+					}
+				}
+			}
+			finally
+			{
+				foProjects.close();
+			}
+
+			return(new Snapshot(mProjects, lRows));
+		}
+		finally
+		{
+			FanOut.shutdown(x);
+		}
+	}
+
+	// One level further down the hierarchy from every parent path
+	private static WalkSource<String[]> children(WalkSource<String[]> pParents, ExecutorService pExecutor, int pWindow, final String pUser, final String pPassword)
+	{
+		return(FanOut.flatten(new FanOut<String[],List<String[]>>(pParents, pExecutor, pWindow, new FanOut.Task<String[],List<String[]>>()
+		{
+			@Override
+			public List<String[]> call(String[] arrParent)
+				throws Exception
+			{
+				List<String> lNames = APIv1.listChildren(pUser, pPassword, arrParent);
+				List<String[]> lRet = new ArrayList<String[]>(lNames.size());
+
+				for(String sName : lNames)
+				{
+					String[] arrPath = Arrays.copyOf(arrParent, arrParent.length + 1);
+					arrPath[arrParent.length] = sName;
+					lRet.add(arrPath);
+				}
+				return(lRet);
+			}
+		})));
+	}
+
+	// A NUL can't appear in a group or project name
+	private static String key(String[] arrProject)
+	{
+		return(arrProject[0] + '\u0000' + arrProject[1]);
+	}
+}
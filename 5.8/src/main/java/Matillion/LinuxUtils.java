@@ -39,22 +39,27 @@ public class LinuxUtils
 	private static String prevProcNetDev = null;
 
 	// Return a PreparedStatement which contains the job launch stats
-	protected static JsonBackedStatement getJobLaunchStatsQueryStatement(boolean pIsCount, Integer pRowLimit)
+	protected static JsonBackedStatement getJobLaunchStatsQueryStatement(QueryPlan pPlan)
 		throws Exception
 	{
-		int iRowstop = null == pRowLimit ? -1 : pRowLimit.intValue();
+		int iRowstop = null == pPlan.getRowLimit() ? -1 : pPlan.getRowLimit().intValue();
 
-		JsonObject jRet = METLMetaData.getBaseJson();
-		// Add the column name(s) from the metadata
-		// "hour", "totaljobs", "totaldelaysecs", "meanlatencysecs", "maxlatencysecs"
-		for(String s: METLMetaData.METL_COLNAMES.get("joblaunchstats"))
-		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
-		}
+		// "hour", "totaljobs", "totaldelaysecs", "meanlatencysecs", "maxlatencysecs", or whichever of them are selected
+		ColumnStore csRet = new ColumnStore(pPlan.getColumns(), pPlan.getColumnTypes());
+		int iHour = csRet.findColumn("hour");
+		int iTotalJobs = csRet.findColumn("totaljobs");
+		int iTotalDelay = csRet.findColumn("totaldelaysecs");
+		int iMeanLatency = csRet.findColumn("meanlatencysecs");
+		int iMaxLatency = csRet.findColumn("maxlatencysecs");
 
 		TreeMap<String,LatencyMetrics> tmData = collectJobLatencyMetrics();
 
-		JsonObject jRow;
+		// A count doesn't need the rows, only how many there would be
+		if(pPlan.isCount())
+		{
+			int iCount = iRowstop < 0 ? tmData.size() : Math.min(tmData.size(), iRowstop);
+			return(METLMetaData.getRowcountStatement(iCount, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+		}
 
 		rowstop:
 		for(Iterator<String> iKs = tmData.keySet().iterator(); iKs.hasNext() ;)
@@ -62,12 +67,27 @@ public class LinuxUtils
 			String sBucket = iKs.next();
 			LatencyMetrics l = tmData.get(sBucket);
 
-			jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-			jRow.addProperty("hour", String.format("%s:00:00", sBucket));
-			jRow.addProperty("totaljobs", l.getTotalJobsAsString());
-			jRow.addProperty("totaldelaysecs", l.getCumlSecsAsString());
-			jRow.addProperty("meanlatencysecs", l.getMeanLatencyAsString());
-			jRow.addProperty("maxlatencysecs", l.getLongestSecsAsString());
+			int iRow = csRet.addRow();
+			if(iHour >= 0)
+			{
+				csRet.setString(iRow, iHour, String.format("%s:00:00", sBucket));
+			}
+			if(iTotalJobs >= 0)
+			{
+				csRet.setLong(iRow, iTotalJobs, l.getTotalJobs());
+			}
+			if(iTotalDelay >= 0)
+			{
+				csRet.setLong(iRow, iTotalDelay, l.getCumlSecs());
+			}
+			if(iMeanLatency >= 0)
+			{
+				csRet.setLong(iRow, iMeanLatency, l.getMeanLatency());
+			}
+			if(iMaxLatency >= 0)
+			{
+				csRet.setLong(iRow, iMaxLatency, l.getLongestSecs());
+			}
 
 			if(0 == --iRowstop)
 			{
@@ -75,12 +95,7 @@ public class LinuxUtils
 			}
 		}
 
-		if(pIsCount)
-		{
-			return(METLMetaData.getRowcountStatement(jRet.getAsJsonArray("data").size(), com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
-		}
-
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+		return(new JsonBackedStatement(csRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
 	}
 
 	private static TreeMap<String,LatencyMetrics> collectJobLatencyMetrics()
@@ -169,31 +184,32 @@ public class LinuxUtils
 			}
 		}
 
-		public String getTotalJobsAsString()
+		public int getTotalJobs()
 		{
-			return(String.format("%d", launchCount));
+			return(launchCount);
 		}
 
-		public String getCumlSecsAsString()
+		public int getCumlSecs()
 		{
-			return(String.format("%d", cumulativeSeconds));
+			return(cumulativeSeconds);
 		}
 
-		public String getLongestSecsAsString()
+		public int getLongestSecs()
 		{
-			return(String.format("%d", longestDelaySeconds));
+			return(longestDelaySeconds);
 		}
 
-		public String getMeanLatencyAsString()
+		// Rounded to the nearest second
+		public long getMeanLatency()
 		{
 			if(0 >= cumulativeSeconds || 0 >= launchCount)
 			{
-				return("0");
+				return(0);
 			}
 
 			double dRet = cumulativeSeconds;
 			dRet /= launchCount;
-			return(String.format("%.0f", dRet));
+			return(Math.round(dRet));
 		}
 	}
 
@@ -230,41 +246,63 @@ public class LinuxUtils
 	}
 
 	// Return a PreparedStatement which contains the instance data
-	protected static JsonBackedStatement getInstanceQueryStatement(boolean pIsCount, Integer pRowLimit)
+	// Only the selected columns are computed, so for example "df" is only run for diskused
+	protected static JsonBackedStatement getInstanceQueryStatement(QueryPlan pPlan)
 		throws Exception
 	{
-		if(pIsCount)
+		if(pPlan.isCount())
 		{
 			return(METLMetaData.getRowcountStatement(1, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
 		}
 
-		JsonObject jRet = METLMetaData.getBaseJson();
-		// Add the column name(s) from the metadata
-		for(String s: METLMetaData.METL_COLNAMES.get("instance"))
+		ColumnStore csRet = new ColumnStore(pPlan.getColumns(), pPlan.getColumnTypes());
+
+		int iRow = csRet.addRow();
+
+		if(pPlan.hasColumn("provider"))
 		{
-			jRet.getAsJsonObject("metadata").getAsJsonArray("names").add(s);
+			csRet.setString(iRow, csRet.findColumn("provider"), getProvider());
+		}
+		if(pPlan.hasColumn("cdw"))
+		{
+			csRet.setString(iRow, csRet.findColumn("cdw"), getCDW());
+		}
+		if(pPlan.hasColumn("version"))
+		{
+			csRet.setString(iRow, csRet.findColumn("version"), getVersion());
+		}
+		if(pPlan.hasColumn("timezone"))
+		{
+			csRet.setString(iRow, csRet.findColumn("timezone"), ZoneId.systemDefault().toString());
+		}
+		if(pPlan.hasColumn("diskused"))
+		{
+			csRet.setString(iRow, csRet.findColumn("diskused"), getDiskused());
+		}
+		if(pPlan.hasColumn("cpuused"))
+		{
+			csRet.setString(iRow, csRet.findColumn("cpuused"), getCpuUsed());
 		}
 
-		JsonObject jRow;
-		jRet.getAsJsonArray("data").add(jRow = new JsonObject());
-
-		jRow.addProperty("provider", getProvider());
-		jRow.addProperty("cdw", getCDW());
-		jRow.addProperty("version", getVersion());
-		jRow.addProperty("timezone", ZoneId.systemDefault().toString());
-		jRow.addProperty("diskused", getDiskused());
-		jRow.addProperty("cpuused", getCpuUsed());
+		if(pPlan.hasColumn("netifname") || pPlan.hasColumn("netrxbytespersec") || pPlan.hasColumn("nettxbytespersec"))
+		{
+			TreeMap<String,String> tmNetStats = getNetworkUsed();
+			for(Iterator<String> iMapIt = tmNetStats.keySet().iterator(); iMapIt.hasNext() ;)
+			{
+				String sKey = iMapIt.next();
+				if(pPlan.hasColumn(sKey))
+				{
+					csRet.setString(iRow, csRet.findColumn(sKey), tmNetStats.get(sKey));
+				}
+			}
+		}
 
-		TreeMap<String,String> tmNetStats = getNetworkUsed();
-		for(Iterator<String> iMapIt = tmNetStats.keySet().iterator(); iMapIt.hasNext() ;)
+		if(pPlan.hasColumn("memoryused"))
 		{
-			String sKey = iMapIt.next();
-			jRow.addProperty(sKey, tmNetStats.get(sKey));
+			csRet.setString(iRow, csRet.findColumn("memoryused"), getMemoryused());
 		}
-		
-		jRow.addProperty("memoryused", getMemoryused());
 
-		return(new JsonBackedStatement(jRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+		return(new JsonBackedStatement(csRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
 	}
 
 	// For instance.provider
@@ -286,12 +324,13 @@ public class LinuxUtils
 	}
 
 	// For instance.networkused
+	// The byte rates are numeric columns, so they are null rather than "?" when unknown
 	protected static TreeMap<String,String> getNetworkUsed()
 	{
 		TreeMap<String,String> tmRet = new TreeMap<String,String>();
 		tmRet.put("netifname", "?");
-		tmRet.put("netrxbytespersec", "?");
-		tmRet.put("nettxbytespersec", "?");
+		tmRet.put("netrxbytespersec", null);
+		tmRet.put("nettxbytespersec", null);
 
 		if(null != currProcNetDev && null != prevProcNetDev)
 		{
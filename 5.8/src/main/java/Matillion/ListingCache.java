@@ -0,0 +1,148 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ListingCache holds recent REST API listings of the group / project / version / job hierarchy, which change far less often than they are queried.<br>
+ * It is shared by every connection in the JVM and bounded in size, with the least recently used listings evicted first.
+ * Entries are keyed by user as well as by path, so one user never sees a listing fetched with another user's permissions.
+ * How old a listing may be is decided by each lookup, so connections can use different TTLs for each level of the hierarchy.
+ */
+class ListingCache
+{
+	private final static int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static ListingCache gCacheSingleton = null;
+
+	private final LinkedHashMap<String,Entry> gEntries = new LinkedHashMap<String,Entry>(64, 0.75f, true);
+	private int gMaxEntries = DEFAULT_MAX_ENTRIES;
+
+	private final AtomicLong gHits = new AtomicLong();
+	private final AtomicLong gMisses = new AtomicLong();
+	private final AtomicLong gEvictions = new AtomicLong();
+
+	private static class Entry
+	{
+		private final List<String> gNames;
+		private final long gFetchedAt;
+
+		private Entry(List<String> pNames, long pFetchedAt)
+		{
+			this.gNames = pNames;
+			this.gFetchedAt = pFetchedAt;
+		}
+	}
+
+	protected static synchronized ListingCache getInstance()
+	{
+		if(null == gCacheSingleton)
+		{
+			gCacheSingleton = new ListingCache();
+		}
+		return(gCacheSingleton);
+	}
+
+	/**
+	 * The cache is shared by every connection in the JVM, so the most recently supplied size applies
+	 * @param pMaxEntries The most listings which are kept. 0 turns the cache off
+	 */
+	protected synchronized void configure(int pMaxEntries)
+	{
+		gMaxEntries = pMaxEntries;
+		trim();
+	}
+
+	/**
+	 * @param pUser Whose permissions the listing was fetched with
+	 * @param pPath Identifies the listing, e.g. its REST path
+	 * @param pMaxAgeSecs How old a listing may be
+	 * @return List The names, or null if there's no listing which is recent enough
+	 */
+	protected List<String> get(String pUser, String pPath, int pMaxAgeSecs)
+	{
+		Entry e;
+
+		synchronized(this)
+		{
+			e = gEntries.get(key(pUser, pPath));
+		}
+
+		if(null == e || System.currentTimeMillis() - e.gFetchedAt > pMaxAgeSecs * 1000L)
+		{
+			gMisses.incrementAndGet();
+			return(null);
+		}
+
+		gHits.incrementAndGet();
+		return(e.gNames);
+	}
+
+	protected synchronized void put(String pUser, String pPath, List<String> pNames)
+	{
+		gEntries.put(key(pUser, pPath), new Entry(Collections.unmodifiableList(new ArrayList<String>(pNames)), System.currentTimeMillis()));
+		trim();
+	}
+
+	/**
+	 * Forget every listing fetched by one user
+	 * @return int The number of listings removed
+	 */
+	protected synchronized int invalidate(String pUser)
+	{
+		String sPrefix = key(pUser, "");
+		int iRet = 0;
+
+		for(Iterator<String> it = gEntries.keySet().iterator(); it.hasNext(); )
+		{
+			if(it.next().startsWith(sPrefix))
+			{
+				it.remove();
+				iRet++;
+			}
+		}
+		return(iRet);
+	}
+
+	protected long getHits()
+	{
+		return(gHits.get());
+	}
+
+	protected long getMisses()
+	{
+		return(gMisses.get());
+	}
+
+	protected long getEvictions()
+	{
+		return(gEvictions.get());
+	}
+
+	protected synchronized int getSize()
+	{
+		return(gEntries.size());
+	}
+
+	// Least recently used first
+	private void trim()
+	{
+		for(Iterator<String> it = gEntries.keySet().iterator(); gEntries.size() > gMaxEntries && it.hasNext(); )
+		{
+			it.next();
+			it.remove();
+			gEvictions.incrementAndGet();
+		}
+	}
+
+	// A NUL can't appear in a user name or in a URL path
+	private static String key(String pUser, String pPath)
+	{
+		return(String.valueOf(pUser) + '\u0000' + pPath);
+	}
+}
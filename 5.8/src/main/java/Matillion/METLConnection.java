@@ -10,7 +10,6 @@ import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.logging.*;
-import java.util.regex.*;
 import java.sql.*;
 
 import com.google.gson.*;
@@ -25,13 +24,16 @@ public class METLConnection
 {
 	private String gUserName;
 	private String gPassword;
+	private METLSettings gSettings;
 
 	private static TreeMap<String,String> tmKnownGoodCreds = null;
 	private static TreeMap<String,LocalDateTime> tmKnownBadCreds = null;
 
-	public METLConnection(String url, Properties info)
+	public METLConnection(String url, Properties pInfo)
 		throws SQLException
 	{
+		Properties info = METLSettings.withUrlParameters(url, pInfo);
+
 		if(null == tmKnownGoodCreds)
 		{
 			tmKnownGoodCreds = new TreeMap<String,String>();
@@ -44,6 +46,22 @@ public class METLConnection
 
 		gUserName = null;
 		gPassword = null;
+		gSettings = new METLSettings(info);
+
+		if(gSettings.hasPoolSettings())
+		{
+			HttpHelper.configurePool(gSettings.getPoolSize(), gSettings.getPoolIdleSecs());
+		}
+
+		if(gSettings.hasCacheSize())
+		{
+			ListingCache.getInstance().configure(gSettings.getCacheSize());
+		}
+
+		if(gSettings.hasResponseCacheSize())
+		{
+			ResponseCache.getInstance().configure(gSettings.getResponseCacheSize());
+		}
 
 		for(Iterator<String> itKeys = new TreeSet<String>(info.stringPropertyNames()).iterator(); itKeys.hasNext(); )
 		{
@@ -59,6 +77,11 @@ public class METLConnection
 			}
 		}
 
+		if(gSettings.isCacheRefresh())
+		{
+			ListingCache.getInstance().invalidate(gUserName);
+		}
+
 		if(null != gUserName && null != gPassword && null != tmKnownGoodCreds)
 		{
 			try
@@ -66,6 +89,7 @@ public class METLConnection
 				if(tmKnownGoodCreds.get(gUserName).equals(gPassword))
 				{
 					// We know these credentials are valid
+					subscribeToJobCatalog();
 					return;
 				}
 			}
@@ -123,179 +147,151 @@ public class METLConnection
 		{
 			tmKnownGoodCreds.put(gUserName, gPassword);
 		}
+
+		subscribeToJobCatalog();
+	}
+
+	// Only once the credentials are known to be good, since the refresher goes on using them in the background
+	private void subscribeToJobCatalog()
+	{
+		if(gSettings.getJobCatalogSecs() > 0 && null != gUserName && null != gPassword)
+		{
+			JobCatalog.getInstance().subscribe(gUserName, gPassword, gSettings.getJobCatalogSecs(), gSettings.getParallelism(), gSettings.isVirtualThreads());
+		}
 	}
 
 	@Override
 	public PreparedStatement prepareStatementImpl(String sql)
 		throws SQLException
 	{
-		Pattern p;
-		Matcher m;
-
-		boolean bIsCount = false;	// Is this a SELECT COUNT(*) FROM ( ...
-		Integer iRowLimit = null;		// For the optional LIMIT clause
-
-		p = Pattern.compile("SELECT\\s+COUNT\\(\\*\\)\\s+", Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		bIsCount = m.find();
-
-		if(false == bIsCount)
+		// Pseudo-SQL for the caches and counters
+		if(isCommand(sql, "REFRESH", "CACHE"))
 		{
-			p = Pattern.compile("LIMIT\\s(\\d+)", Pattern.MULTILINE | Pattern.DOTALL);
-			m = p.matcher(sql);
-			if(m.find())
-			{
-				if(1 == m.groupCount())
-				{
-					try
-					{
-						iRowLimit = Integer.parseInt(m.group(1));
-					}
-					catch(Throwable t)
-					{
-						iRowLimit = null;
-					}
-				}
-			}
+			int iRemoved = ListingCache.getInstance().invalidate(gUserName) + StatementCache.getInstance().invalidate(gUserName, gPassword);
+			return(METLMetaData.getRowcountStatement(iRemoved, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
 		}
-
-		// Instance is backed by Java calls on the VM
-		p = Pattern.compile("SELECT.*FROM.*\"instance\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
+		if(isCommand(sql, "SHOW", "CACHE"))
 		{
-			try
-			{
-				return(LinuxUtils.getInstanceQueryStatement(bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
+			return(getCacheStatsStatement());
 		}
-
-		// Joblaunchstats is backed by Java calls on the VM
-		p = Pattern.compile("SELECT.*FROM.*\"joblaunchstats\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
+		if(isCommand(sql, "SHOW", "HTTP"))
 		{
-			try
-			{
-				return(LinuxUtils.getJobLaunchStatsQueryStatement(bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
+			return(getHttpStatsStatement());
 		}
 
-		// Group is backed by an API call
-		p = Pattern.compile("SELECT.*FROM[\\s\"]+group\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
-		{
-			try
-			{
-				return(APIv1.getGroupQueryStatement(gUserName, gPassword, bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
-		}
+		final QueryPlan qp = QueryPlan.parse(sql);
 
-		// Project is backed by an API call
-		p = Pattern.compile("SELECT.*FROM[\\s\"]+project\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
+		try
 		{
-			try
+			switch(qp.getTable())
 			{
-				return(APIv1.getProjectQueryStatement(gUserName, gPassword, bIsCount, iRowLimit));
+				// Instance and joblaunchstats are backed by Java calls on the VM
+				case "instance":
+					return(LinuxUtils.getInstanceQueryStatement(qp));
+				case "joblaunchstats":
+					return(LinuxUtils.getJobLaunchStatsQueryStatement(qp));
 			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
-		}
 
-		// Schedule is backed by an API call
-		p = Pattern.compile("SELECT.*FROM[\\s\"]+schedule\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
-		{
-			try
-			{
-				return(APIv1.getScheduleQueryStatement(gUserName, gPassword, bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
+			// The others are backed by API calls, and can be served from a snapshot if the table allows it
+			int iMaxStaleSecs = gSettings.getMaxStaleSecs(qp.getTable());
+			if(iMaxStaleSecs > 0)
 			{
-				throw(new SQLException(t.getMessage()));
+				return(StatementCache.getInstance().get(gUserName, gPassword, sql, iMaxStaleSecs, getApiStatement(qp)));
 			}
+			return(getApiStatement(qp));
 		}
-
-		// Environment is backed by an API call
-		p = Pattern.compile("SELECT.*FROM[\\s\"]+environment\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
+		catch(SQLException sx)
 		{
-			try
-			{
-				return(APIv1.getEnvironmentQueryStatement(gUserName, gPassword, bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
+			// Including the SQLTransientConnectionException of a REST API which isn't responding
+			throw(sx);
 		}
-
-		// Version is backed by an API call
-		p = Pattern.compile("SELECT.*FROM[\\s\"]+version\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
+		catch(Throwable t)
 		{
-			try
-			{
-				return(APIv1.getVersionQueryStatement(gUserName, gPassword, bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
+			throw(new SQLException(t.getMessage(), t));
 		}
+	}
 
-		// Runningjob is backed by an API call
-		p = Pattern.compile("SELECT.*FROM[\\s\"]+runningjob\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
+	private JsonBackedStatement getApiStatement(QueryPlan qp)
+		throws Exception
+	{
+		switch(qp.getTable())
 		{
-			try
-			{
-				return(APIv1.getRunningJobQueryStatement(gUserName, gPassword, bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
+			case "group":
+				return(APIv1.getGroupQueryStatement(gUserName, gPassword, gSettings, qp));
+			case "project":
+				return(APIv1.getProjectQueryStatement(gUserName, gPassword, gSettings, qp));
+			case "schedule":
+				return(APIv1.getScheduleQueryStatement(gUserName, gPassword, gSettings, qp));
+			case "environment":
+				return(APIv1.getEnvironmentQueryStatement(gUserName, gPassword, gSettings, qp));
+			case "version":
+				return(APIv1.getVersionQueryStatement(gUserName, gPassword, gSettings, qp));
+			case "runningjob":
+				return(APIv1.getRunningJobQueryStatement(gUserName, gPassword, gSettings, qp));
+			case "job":
+				return(APIv1.getAllJobNamesQueryStatement(gUserName, gPassword, gSettings, qp));
 		}
 
-		// Job is backed by an API call
-		p = Pattern.compile("SELECT.*FROM[\\s\"]+job\"", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		m = p.matcher(sql);
-		if(m.find())
+		// If reach here, the SQL is not acceptable
+		throw(new SQLException("Syntax error"));
+	}
+
+	// A two word command, in any case, with any whitespace and an optional semicolon
+	private static boolean isCommand(String sql, String pVerb, String pNoun)
+	{
+		String s = sql.trim();
+
+		// Cheaply rule out ordinary queries first
+		if(!s.regionMatches(true, 0, pVerb, 0, pVerb.length()))
 		{
-			try
-			{
-				return(APIv1.getAllJobNamesQueryStatement(gUserName, gPassword, bIsCount, iRowLimit));
-			}
-			catch(Throwable t)
-			{
-				throw(new SQLException(t.getMessage()));
-			}
+			return(false);
 		}
 
-		// If reach here, the SQL is not acceptable
-		throw(new SQLException("Syntax error"));
+		String[] arrWords = s.replaceAll(";$", "").trim().split("\\s+");
+		return(2 == arrWords.length && arrWords[0].equalsIgnoreCase(pVerb) && arrWords[1].equalsIgnoreCase(pNoun));
+	}
+
+	// SHOW CACHE returns one row of counters for the JVM-wide listing cache
+	private static JsonBackedStatement getCacheStatsStatement()
+	{
+		ListingCache lc = ListingCache.getInstance();
+		ColumnStore csRet = new ColumnStore(
+			new String[] {"hits", "misses", "evictions", "entries"},
+			new int[] {Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT});
+
+		int iRow = csRet.addRow();
+		csRet.setLong(iRow, 0, lc.getHits());
+		csRet.setLong(iRow, 1, lc.getMisses());
+		csRet.setLong(iRow, 2, lc.getEvictions());
+		csRet.setLong(iRow, 3, lc.getSize());
+
+		return(new JsonBackedStatement(csRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+	}
+
+	// SHOW HTTP returns one row of counters for the REST API calls made by the whole JVM
+	private static JsonBackedStatement getHttpStatsStatement()
+	{
+		ColumnStore csRet = new ColumnStore(
+			new String[] {"requests", "collapsed", "concurrencylimit", "inflight", "waiting", "throttled", "limitcuts", "hedged", "hedgewins", "circuit", "failedfast", "notmodified", "unchanged"},
+			new int[] {Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.BIGINT});
+
+		ConcurrencyLimiter cl = ConcurrencyLimiter.getInstance();
+		int iRow = csRet.addRow();
+		csRet.setLong(iRow, 0, HttpHelper.getRequests());
+		csRet.setLong(iRow, 1, HttpHelper.getCollapsed());
+		csRet.setLong(iRow, 2, cl.getLimit());
+		csRet.setLong(iRow, 3, cl.getInFlight());
+		csRet.setLong(iRow, 4, cl.getWaiting());
+		csRet.setLong(iRow, 5, cl.getThrottled());
+		csRet.setLong(iRow, 6, cl.getCuts());
+		csRet.setLong(iRow, 7, Hedging.getHedged());
+		csRet.setLong(iRow, 8, Hedging.getHedgeWins());
+		csRet.setString(iRow, 9, CircuitBreaker.getInstance().getState());
+		csRet.setLong(iRow, 10, CircuitBreaker.getInstance().getFailedFast());
+		csRet.setLong(iRow, 11, ResponseCache.getInstance().getNotModified());
+		csRet.setLong(iRow, 12, ResponseCache.getInstance().getUnchanged());
+
+		return(new JsonBackedStatement(csRet, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
 	}
 
 	@Override
@@ -24,6 +24,7 @@ public class METLMetaData
 
 	protected static String[] METL_TABLES;
 	protected static TreeMap<String,String[]> METL_COLNAMES;
+	protected static TreeMap<String,int[]> METL_COLTYPES;
 
 	static
 	{
@@ -39,6 +40,13 @@ public class METLMetaData
 		METL_COLNAMES.put("job",			new String[] {"groupname", "projectname", "versionname", "jobname"});
 		METL_COLNAMES.put("runningjob",		new String[] {"groupname", "projectname", "versionname", "id", "jobname", "starttime"});
 		METL_COLNAMES.put("joblaunchstats",	new String[] {"hour", "totaljobs", "totaldelaysecs", "meanlatencysecs", "maxlatencysecs"});
+
+		// Tables which are not listed here are all VARCHAR
+		final int V = Types.VARCHAR, B = Types.BIGINT;
+		METL_COLTYPES = new TreeMap<String,int[]>();
+		METL_COLTYPES.put("instance",		new int[] {V, V, V, V, V, V, V, B, B, V});
+		METL_COLTYPES.put("runningjob",		new int[] {V, V, V, B, V, V});
+		METL_COLTYPES.put("joblaunchstats",	new int[] {V, B, B, B, B});
 	}
 
 	private static METLMetaData gMetadataSingleton = null;
@@ -61,6 +69,15 @@ public class METLMetaData
 		throw(new SQLException(String.format("Unknown table %s", pTableName)));
 	}
 
+	public int[] getColumnTypesForTable(String pTableName)
+		throws SQLException
+	{
+		// Throws if the table is unknown
+		getColumnNamesForTable(pTableName);
+
+		return(METL_COLTYPES.get(pTableName));
+	}
+
 	/**
 	 *	This JDBC driver is named METL
 	 */
@@ -0,0 +1,421 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.io.*;
+import java.net.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * METLSettings holds the optional tuning parameters which can be supplied as JDBC connection properties.
+ */
+public class METLSettings
+{
+	protected final static String PROP_PARALLELISM = "parallelism";
+	protected final static String PROP_POOL_SIZE = "poolsize";
+	protected final static String PROP_POOL_IDLE_SECS = "poolidlesecs";
+	protected final static String PROP_GROUP_TTL_SECS = "groupttlsecs";
+	protected final static String PROP_PROJECT_TTL_SECS = "projectttlsecs";
+	protected final static String PROP_VERSION_TTL_SECS = "versionttlsecs";
+	protected final static String PROP_JOB_TTL_SECS = "jobttlsecs";
+	protected final static String PROP_CACHE_SIZE = "cachesize";
+	protected final static String PROP_CACHE_REFRESH = "cacherefresh";
+	protected final static String PROP_JOB_CATALOG_SECS = "jobcatalogsecs";
+	protected final static String PROP_MAX_STALE_SECS = "maxstalesecs";
+	protected final static String PROP_TRANSPORT = "transport";
+	protected final static String PROP_THREADS = "threads";
+	protected final static String PROP_REQUEST_CLASS = "requestclass";
+	protected final static String PROP_WEIGHTS = "weights";
+	protected final static String PROP_HEDGE_BUDGET = "hedgebudget";
+	protected final static String PROP_HEDGE_PERCENTILE = "hedgepercentile";
+	protected final static String PROP_READ_TIMEOUT_SECS = "readtimeoutsecs";
+	protected final static String PROP_RESPONSE_CACHE_SIZE = "responsecachesize";
+
+	private final static String TRANSPORT_BLOCKING = "blocking";
+	private final static String TRANSPORT_ASYNC = "async";
+	private final static String THREADS_PLATFORM = "platform";
+	private final static String THREADS_VIRTUAL = "virtual";
+
+	private final static int DEFAULT_PARALLELISM = 4;
+	private final static int MAX_PARALLELISM = 64;
+	private final static int DEFAULT_POOL_SIZE = 8;
+	private final static int MAX_POOL_SIZE = 256;
+	private final static int DEFAULT_POOL_IDLE_SECS = 30;
+	private final static int MAX_POOL_IDLE_SECS = 3600;
+	private final static int DEFAULT_GROUP_TTL_SECS = 300;
+	private final static int DEFAULT_PROJECT_TTL_SECS = 300;
+	private final static int DEFAULT_VERSION_TTL_SECS = 60;
+	private final static int DEFAULT_JOB_TTL_SECS = 0;
+	private final static int MAX_TTL_SECS = 86400;
+	private final static int DEFAULT_CACHE_SIZE = 1000;
+	private final static int MAX_CACHE_SIZE = 100000;
+	private final static int MIN_JOB_CATALOG_SECS = 5;
+	private final static int MAX_WEIGHT = 100;
+	private final static int MAX_HEDGE_BUDGET = 50;
+	private final static int DEFAULT_HEDGE_PERCENTILE = 95;
+	private final static int MIN_HEDGE_PERCENTILE = 50;
+	private final static int MAX_HEDGE_PERCENTILE = 99;
+	private final static int DEFAULT_READ_TIMEOUT_SECS = 30;
+	private final static int MAX_READ_TIMEOUT_SECS = 3600;
+	private final static int DEFAULT_RESPONSE_CACHE_SIZE = 1000;
+
+	private int gParallelism;
+	private int gPoolSize;
+	private int gPoolIdleSecs;
+	private boolean gHasPoolSettings;
+	private int gGroupTtlSecs;
+	private int gProjectTtlSecs;
+	private int gVersionTtlSecs;
+	private int gJobTtlSecs;
+	private int gCacheSize;
+	private boolean gHasCacheSize;
+	private boolean gCacheRefresh;
+	private int gJobCatalogSecs;
+	private HashMap<String,Integer> gMaxStaleSecs;
+	private boolean gAsyncTransport;
+	private boolean gVirtualThreads;
+	private String gRequestClass;
+	private HashMap<String,Integer> gWeights;
+	private int gHedgeBudget;
+	private int gHedgePercentile;
+	private int gReadTimeoutSecs;
+	private int gResponseCacheSize;
+	private boolean gHasResponseCacheSize;
+
+	protected METLSettings(Properties info)
+	{
+		gParallelism = getIntProperty(info, PROP_PARALLELISM, DEFAULT_PARALLELISM, 1, MAX_PARALLELISM);
+		gPoolSize = getIntProperty(info, PROP_POOL_SIZE, DEFAULT_POOL_SIZE, 1, MAX_POOL_SIZE);
+		gPoolIdleSecs = getIntProperty(info, PROP_POOL_IDLE_SECS, DEFAULT_POOL_IDLE_SECS, 0, MAX_POOL_IDLE_SECS);
+		gHasPoolSettings = null != info && (null != info.getProperty(PROP_POOL_SIZE) || null != info.getProperty(PROP_POOL_IDLE_SECS));
+		gGroupTtlSecs = getIntProperty(info, PROP_GROUP_TTL_SECS, DEFAULT_GROUP_TTL_SECS, 0, MAX_TTL_SECS);
+		gProjectTtlSecs = getIntProperty(info, PROP_PROJECT_TTL_SECS, DEFAULT_PROJECT_TTL_SECS, 0, MAX_TTL_SECS);
+		gVersionTtlSecs = getIntProperty(info, PROP_VERSION_TTL_SECS, DEFAULT_VERSION_TTL_SECS, 0, MAX_TTL_SECS);
+		gJobTtlSecs = getIntProperty(info, PROP_JOB_TTL_SECS, DEFAULT_JOB_TTL_SECS, 0, MAX_TTL_SECS);
+		gCacheSize = getIntProperty(info, PROP_CACHE_SIZE, DEFAULT_CACHE_SIZE, 0, MAX_CACHE_SIZE);
+		gHasCacheSize = null != info && null != info.getProperty(PROP_CACHE_SIZE);
+		gCacheRefresh = null != info && Boolean.parseBoolean(info.getProperty(PROP_CACHE_REFRESH));
+		gJobCatalogSecs = getIntProperty(info, PROP_JOB_CATALOG_SECS, 0, MIN_JOB_CATALOG_SECS, MAX_TTL_SECS);
+		gMaxStaleSecs = getTableIntProperty(info, PROP_MAX_STALE_SECS, MAX_TTL_SECS);
+		gAsyncTransport = null != info && TRANSPORT_ASYNC.equalsIgnoreCase(info.getProperty(PROP_TRANSPORT, "").trim());
+		gVirtualThreads = null != info && THREADS_VIRTUAL.equalsIgnoreCase(info.getProperty(PROP_THREADS, "").trim());
+		gRequestClass = null == info ? "" : info.getProperty(PROP_REQUEST_CLASS, "").trim().toLowerCase(Locale.ROOT);
+		gWeights = getTableIntProperty(info, PROP_WEIGHTS, MAX_WEIGHT);
+		gHedgeBudget = getIntProperty(info, PROP_HEDGE_BUDGET, 0, 0, MAX_HEDGE_BUDGET);
+		gHedgePercentile = getIntProperty(info, PROP_HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE, MIN_HEDGE_PERCENTILE, MAX_HEDGE_PERCENTILE);
+		gReadTimeoutSecs = getIntProperty(info, PROP_READ_TIMEOUT_SECS, DEFAULT_READ_TIMEOUT_SECS, 1, MAX_READ_TIMEOUT_SECS);
+		gResponseCacheSize = getIntProperty(info, PROP_RESPONSE_CACHE_SIZE, DEFAULT_RESPONSE_CACHE_SIZE, 0, MAX_CACHE_SIZE);
+		gHasResponseCacheSize = null != info && null != info.getProperty(PROP_RESPONSE_CACHE_SIZE);
+	}
+
+	/**
+	 * The maximum number of concurrent REST calls made while walking the group / project / version hierarchy
+	 */
+	protected int getParallelism()
+	{
+		return(gParallelism);
+	}
+
+	/**
+	 * The maximum number of connections in the JVM-wide keep-alive pool
+	 */
+	protected int getPoolSize()
+	{
+		return(gPoolSize);
+	}
+
+	/**
+	 * How long an unused pooled connection is kept open
+	 */
+	protected int getPoolIdleSecs()
+	{
+		return(gPoolIdleSecs);
+	}
+
+	/**
+	 * The connection pool is shared by the whole JVM, so it's only reconfigured when a connection asks for it explicitly
+	 */
+	protected boolean hasPoolSettings()
+	{
+		return(gHasPoolSettings);
+	}
+
+	/**
+	 * How long a list of groups may be reused from the cache. 0 means always fetch it
+	 */
+	protected int getGroupTtlSecs()
+	{
+		return(gGroupTtlSecs);
+	}
+
+	/**
+	 * How long a group's list of projects may be reused from the cache
+	 */
+	protected int getProjectTtlSecs()
+	{
+		return(gProjectTtlSecs);
+	}
+
+	/**
+	 * How long a project's list of versions may be reused from the cache
+	 */
+	protected int getVersionTtlSecs()
+	{
+		return(gVersionTtlSecs);
+	}
+
+	/**
+	 * How long a version's list of jobs may be reused from the cache
+	 */
+	protected int getJobTtlSecs()
+	{
+		return(gJobTtlSecs);
+	}
+
+	/**
+	 * The maximum number of listings in the JVM-wide cache
+	 */
+	protected int getCacheSize()
+	{
+		return(gCacheSize);
+	}
+
+	/**
+	 * Like the connection pool, the cache is only resized when a connection asks for it explicitly
+	 */
+	protected boolean hasCacheSize()
+	{
+		return(gHasCacheSize);
+	}
+
+	/**
+	 * The maximum number of REST API responses kept for revalidation in the JVM-wide cache
+	 */
+	protected int getResponseCacheSize()
+	{
+		return(gResponseCacheSize);
+	}
+
+	/**
+	 * As per {@link #hasCacheSize}
+	 */
+	protected boolean hasResponseCacheSize()
+	{
+		return(gHasResponseCacheSize);
+	}
+
+	/**
+	 * Should this user's cached listings be thrown away when connecting
+	 */
+	protected boolean isCacheRefresh()
+	{
+		return(gCacheRefresh);
+	}
+
+	/**
+	 * How often the background job catalog is refreshed for this user. 0 means there's no catalog, and the job table is always read from the REST API
+	 */
+	protected int getJobCatalogSecs()
+	{
+		return(gJobCatalogSecs);
+	}
+
+	/**
+	 * How old a snapshot of a table may be when it's served, from a list such as runningjob:5,schedule:60.
+	 * 0, the default, means the table is always read from the REST API
+	 */
+	protected int getMaxStaleSecs(String pTable)
+	{
+		Integer iSecs = gMaxStaleSecs.get(pTable);
+		return(null == iSecs ? 0 : iSecs.intValue());
+	}
+
+	/**
+	 * Whether REST calls are made with the non-blocking {@link AsyncTransport} rather than HttpHelper
+	 */
+	protected boolean isAsyncTransport()
+	{
+		return(gAsyncTransport);
+	}
+
+	/**
+	 * Whether the blocking transport's concurrent REST calls each get a virtual thread, rather than sharing a pool of platform threads.
+	 * Either way no more than {@link #getParallelism} run at once. JVMs older than Java 21 always use platform threads
+	 */
+	protected boolean isVirtualThreads()
+	{
+		return(gVirtualThreads);
+	}
+
+	// What this connection's REST calls for a table are queued under when the API is busy: the requestclass property if there is one, otherwise the table
+	// Its weight comes from the weights property, looked up by the same name, and is 1 if it's not listed
+	private ConcurrencyLimiter.Flow getFlow(String pTable)
+	{
+		String sName = gRequestClass.isEmpty() ? String.valueOf(pTable) : gRequestClass;
+		Integer iWeight = gWeights.get(sName);
+		return(new ConcurrencyLimiter.Flow(sName, null == iWeight ? 1 : iWeight.intValue()));
+	}
+
+	/**
+	 * How this connection's REST calls for a table are made, as per the requestclass, weights, hedging and read timeout properties
+	 */
+	protected HttpHelper.Options getRequestOptions(String pTable)
+	{
+		return(new HttpHelper.Options(getFlow(pTable), gHedgeBudget, gHedgePercentile, gReadTimeoutSecs * 1000));
+	}
+
+	/**
+	 * Any of the properties can also be given as parameters on the URL, e.g. jdbc:metl://?transport=async&amp;parallelism=8
+	 * Properties which are supplied separately take precedence
+	 * @return Properties A copy of info, with the URL parameters added
+	 */
+	protected static Properties withUrlParameters(String url, Properties info)
+	{
+		Properties pRet = new Properties();
+		int iQuery = null == url ? -1 : url.indexOf('?');
+
+		if(iQuery >= 0)
+		{
+			for(String sParam : url.substring(iQuery + 1).split("[&;]"))
+			{
+				int iEquals = sParam.indexOf('=');
+				if(iEquals > 0)
+				{
+					try
+					{
+						pRet.setProperty(URLDecoder.decode(sParam.substring(0, iEquals), "UTF-8").trim().toLowerCase(Locale.ROOT), URLDecoder.decode(sParam.substring(iEquals + 1), "UTF-8"));
+					}
+					catch(IllegalArgumentException | UnsupportedEncodingException x) {}
+				}
+			}
+		}
+
+		if(null != info)
+		{
+			for(String sKey : info.stringPropertyNames())
+			{
+				pRet.setProperty(sKey, info.getProperty(sKey));
+			}
+		}
+		return(pRet);
+	}
+
+	// Used by Driver.getPropertyInfo
+	protected static DriverPropertyInfo[] getPropertyInfo(Properties info)
+	{
+		DriverPropertyInfo dpParallelism = new DriverPropertyInfo(PROP_PARALLELISM, info.getProperty(PROP_PARALLELISM, Integer.toString(DEFAULT_PARALLELISM)));
+		dpParallelism.description = String.format("Maximum concurrent REST API calls per query (1 to %d)", MAX_PARALLELISM);
+
+		DriverPropertyInfo dpPoolSize = new DriverPropertyInfo(PROP_POOL_SIZE, info.getProperty(PROP_POOL_SIZE, Integer.toString(DEFAULT_POOL_SIZE)));
+		dpPoolSize.description = String.format("Maximum keep-alive connections to the REST API, shared by all connections (1 to %d)", MAX_POOL_SIZE);
+
+		DriverPropertyInfo dpPoolIdleSecs = new DriverPropertyInfo(PROP_POOL_IDLE_SECS, info.getProperty(PROP_POOL_IDLE_SECS, Integer.toString(DEFAULT_POOL_IDLE_SECS)));
+		dpPoolIdleSecs.description = String.format("Seconds before an idle pooled connection is closed (0 to %d)", MAX_POOL_IDLE_SECS);
+
+		DriverPropertyInfo dpGroupTtlSecs = new DriverPropertyInfo(PROP_GROUP_TTL_SECS, info.getProperty(PROP_GROUP_TTL_SECS, Integer.toString(DEFAULT_GROUP_TTL_SECS)));
+		dpGroupTtlSecs.description = String.format("Seconds a cached list of groups may be reused (0 to %d)", MAX_TTL_SECS);
+
+		DriverPropertyInfo dpProjectTtlSecs = new DriverPropertyInfo(PROP_PROJECT_TTL_SECS, info.getProperty(PROP_PROJECT_TTL_SECS, Integer.toString(DEFAULT_PROJECT_TTL_SECS)));
+		dpProjectTtlSecs.description = String.format("Seconds a cached list of projects may be reused (0 to %d)", MAX_TTL_SECS);
+
+		DriverPropertyInfo dpVersionTtlSecs = new DriverPropertyInfo(PROP_VERSION_TTL_SECS, info.getProperty(PROP_VERSION_TTL_SECS, Integer.toString(DEFAULT_VERSION_TTL_SECS)));
+		dpVersionTtlSecs.description = String.format("Seconds a cached list of versions may be reused (0 to %d)", MAX_TTL_SECS);
+
+		DriverPropertyInfo dpJobTtlSecs = new DriverPropertyInfo(PROP_JOB_TTL_SECS, info.getProperty(PROP_JOB_TTL_SECS, Integer.toString(DEFAULT_JOB_TTL_SECS)));
+		dpJobTtlSecs.description = String.format("Seconds a cached list of jobs may be reused (0 to %d)", MAX_TTL_SECS);
+
+		DriverPropertyInfo dpCacheSize = new DriverPropertyInfo(PROP_CACHE_SIZE, info.getProperty(PROP_CACHE_SIZE, Integer.toString(DEFAULT_CACHE_SIZE)));
+		dpCacheSize.description = String.format("Maximum cached listings, shared by all connections (0 to %d)", MAX_CACHE_SIZE);
+
+		DriverPropertyInfo dpResponseCacheSize = new DriverPropertyInfo(PROP_RESPONSE_CACHE_SIZE, info.getProperty(PROP_RESPONSE_CACHE_SIZE, Integer.toString(DEFAULT_RESPONSE_CACHE_SIZE)));
+		dpResponseCacheSize.description = String.format("Maximum REST API responses kept to check whether they have changed, shared by all connections (0 to %d)", MAX_CACHE_SIZE);
+
+		DriverPropertyInfo dpCacheRefresh = new DriverPropertyInfo(PROP_CACHE_REFRESH, info.getProperty(PROP_CACHE_REFRESH, "false"));
+		dpCacheRefresh.description = "Discard this user's cached listings when connecting";
+		dpCacheRefresh.choices = new String[] { "true", "false" };
+
+		DriverPropertyInfo dpJobCatalogSecs = new DriverPropertyInfo(PROP_JOB_CATALOG_SECS, info.getProperty(PROP_JOB_CATALOG_SECS, "0"));
+		dpJobCatalogSecs.description = String.format("Seconds between background refreshes of the in-memory job catalog, or 0 for none (%d to %d)", MIN_JOB_CATALOG_SECS, MAX_TTL_SECS);
+
+		DriverPropertyInfo dpMaxStaleSecs = new DriverPropertyInfo(PROP_MAX_STALE_SECS, info.getProperty(PROP_MAX_STALE_SECS, ""));
+		dpMaxStaleSecs.description = String.format("How old a snapshot of each table may be when served, e.g. runningjob:5,schedule:60 (0 to %d)", MAX_TTL_SECS);
+
+		DriverPropertyInfo dpTransport = new DriverPropertyInfo(PROP_TRANSPORT, info.getProperty(PROP_TRANSPORT, TRANSPORT_BLOCKING));
+		dpTransport.description = "How REST calls are made: blocking, or async (non-blocking, needs Java 11)";
+		dpTransport.choices = new String[] { TRANSPORT_BLOCKING, TRANSPORT_ASYNC };
+
+		DriverPropertyInfo dpThreads = new DriverPropertyInfo(PROP_THREADS, info.getProperty(PROP_THREADS, THREADS_PLATFORM));
+		dpThreads.description = "What runs concurrent blocking REST calls: a platform thread pool, or a virtual thread per call (Java 21 or later)";
+		dpThreads.choices = new String[] { THREADS_PLATFORM, THREADS_VIRTUAL };
+
+		DriverPropertyInfo dpRequestClass = new DriverPropertyInfo(PROP_REQUEST_CLASS, info.getProperty(PROP_REQUEST_CLASS, ""));
+		dpRequestClass.description = "What REST calls are queued under when the API is busy, instead of the table being queried";
+
+		DriverPropertyInfo dpWeights = new DriverPropertyInfo(PROP_WEIGHTS, info.getProperty(PROP_WEIGHTS, ""));
+		dpWeights.description = String.format("Each table or request class's share of the REST calls when the API is busy, e.g. runningjob:4,job:1 (1 to %d, default 1)", MAX_WEIGHT);
+
+		DriverPropertyInfo dpHedgeBudget = new DriverPropertyInfo(PROP_HEDGE_BUDGET, info.getProperty(PROP_HEDGE_BUDGET, "0"));
+		dpHedgeBudget.description = String.format("How many slow REST API calls may be sent a second time for every 100 calls (0 to %d, where 0 means never)", MAX_HEDGE_BUDGET);
+
+		DriverPropertyInfo dpHedgePercentile = new DriverPropertyInfo(PROP_HEDGE_PERCENTILE, info.getProperty(PROP_HEDGE_PERCENTILE, Integer.toString(DEFAULT_HEDGE_PERCENTILE)));
+		dpHedgePercentile.description = String.format("How slow a call must be to be sent again, as a percentile of recent calls to the same kind of endpoint (%d to %d)", MIN_HEDGE_PERCENTILE, MAX_HEDGE_PERCENTILE);
+
+		DriverPropertyInfo dpReadTimeoutSecs = new DriverPropertyInfo(PROP_READ_TIMEOUT_SECS, info.getProperty(PROP_READ_TIMEOUT_SECS, Integer.toString(DEFAULT_READ_TIMEOUT_SECS)));
+		dpReadTimeoutSecs.description = String.format("How long to wait for the REST API to start responding, and then between parts of the response (1 to %d)", MAX_READ_TIMEOUT_SECS);
+
+		return(new DriverPropertyInfo[] { dpParallelism, dpPoolSize, dpPoolIdleSecs, dpGroupTtlSecs, dpProjectTtlSecs, dpVersionTtlSecs, dpJobTtlSecs, dpCacheSize, dpResponseCacheSize, dpCacheRefresh, dpJobCatalogSecs, dpMaxStaleSecs, dpTransport, dpThreads, dpRequestClass, dpWeights, dpHedgeBudget, dpHedgePercentile, dpReadTimeoutSecs });
+	}
+
+	// Bad or missing values silently revert to the default, in the same way as unknown properties are ignored
+	private static int getIntProperty(Properties info, String pKey, int pDefault, int pMin, int pMax)
+	{
+		String sValue = null == info ? null : info.getProperty(pKey);
+
+		if(null != sValue)
+		{
+			try
+			{
+				int iValue = Integer.parseInt(sValue.trim());
+				if(iValue >= pMin && iValue <= pMax)
+				{
+					return(iValue);
+				}
+			}
+			catch(NumberFormatException nx) {}
+		}
+		return(pDefault);
+	}
+
+	// A comma separated list of table:number, in which bad entries are ignored
+	private static HashMap<String,Integer> getTableIntProperty(Properties info, String pKey, int pMax)
+	{
+		HashMap<String,Integer> hmRet = new HashMap<String,Integer>();
+		String sValue = null == info ? null : info.getProperty(pKey);
+
+		if(null != sValue)
+		{
+			for(String sEntry : sValue.split(","))
+			{
+				String[] arrPair = sEntry.split(":");
+
+				if(2 == arrPair.length)
+				{
+					try
+					{
+						int iValue = Integer.parseInt(arrPair[1].trim());
+						if(iValue >= 0 && iValue <= pMax)
+						{
+							hmRet.put(arrPair[0].trim().toLowerCase(Locale.ROOT), Integer.valueOf(iValue));
+						}
+					}
+					catch(NumberFormatException nx) {}
+				}
+			}
+		}
+		return(hmRet);
+	}
+}
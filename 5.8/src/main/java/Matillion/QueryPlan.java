@@ -0,0 +1,537 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * QueryPlan is the driver's understanding of a SELECT statement: which table it reads, whether it is a COUNT(*), its LIMIT and its column list.<br>
+ * The SQL is analysed in one pass by a small tokeniser. Matillion prepares the same few statements over and over, so plans are kept in an LRU cache keyed by the SQL text.
+ */
+final class QueryPlan
+{
+	private final static int CACHE_SIZE = 256;
+
+	// Only predicates on these columns are used to prune the walk of the group / project / version hierarchy
+	private final static List<String> FILTER_COLUMNS = Arrays.asList("groupname", "projectname", "versionname");
+
+	// Words which can follow a table name, and so can't be its alias
+	private final static List<String> CLAUSE_WORDS = Arrays.asList("WHERE", "LIMIT", "ORDER", "GROUP", "HAVING", "UNION", "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "CROSS", "ON", "OFFSET", "FETCH");
+
+	private final static Map<String,QueryPlan> gCache = Collections.synchronizedMap(new LinkedHashMap<String,QueryPlan>(64, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,QueryPlan> pEldest)
+		{
+			return(size() > CACHE_SIZE);
+		}
+	});
+
+	private final String gTable;
+	private final boolean gIsCount;
+	private final Integer gRowLimit;
+	private final String[] gColumns;
+	private final int[] gProjection;
+	private final int[] gColumnTypes;
+	private final HashMap<Integer,Set<String>> gFilters;
+
+	private QueryPlan(String pTable, boolean pIsCount, Integer pRowLimit, String[] pColumns, Map<String,Set<String>> pFilters)
+		throws SQLException
+	{
+		String[] arrTableCols = METLMetaData.METL_COLNAMES.get(pTable);
+		int[] arrTableTypes = METLMetaData.METL_COLTYPES.get(pTable);
+
+		// A SELECT list which names a column the table doesn't have gets every column, as it always has
+		boolean bAllKnown = null != pColumns && Arrays.asList(arrTableCols).containsAll(Arrays.asList(pColumns));
+
+		this.gTable = pTable;
+		this.gIsCount = pIsCount;
+		this.gRowLimit = pRowLimit;
+		this.gColumns = bAllKnown ? pColumns : arrTableCols;
+		this.gProjection = new int[gColumns.length];
+		this.gColumnTypes = null == arrTableTypes ? null : new int[gColumns.length];
+
+		for(int i = 0; i < gColumns.length; i++)
+		{
+			gProjection[i] = Arrays.asList(arrTableCols).indexOf(gColumns[i]);
+			if(null != gColumnTypes)
+			{
+				gColumnTypes[i] = arrTableTypes[gProjection[i]];
+			}
+		}
+
+		// Keyed by position among the table's columns, which is also the position in a walked path
+		this.gFilters = new HashMap<Integer,Set<String>>();
+		for(Map.Entry<String,Set<String>> me : pFilters.entrySet())
+		{
+			int iPos = Arrays.asList(arrTableCols).indexOf(me.getKey());
+			if(iPos >= 0)
+			{
+				gFilters.put(Integer.valueOf(iPos), me.getValue());
+			}
+		}
+	}
+
+	/**
+	 * One of the names in {@link METLMetaData#getTableNames}
+	 */
+	protected String getTable()
+	{
+		return(gTable);
+	}
+
+	/**
+	 * Is this a SELECT COUNT(*) FROM ( ...
+	 */
+	protected boolean isCount()
+	{
+		return(gIsCount);
+	}
+
+	/**
+	 * The optional LIMIT clause, which is ignored for a COUNT(*)
+	 */
+	protected Integer getRowLimit()
+	{
+		return(gRowLimit);
+	}
+
+	/**
+	 * The names of the columns to return, which are all of the table's columns unless the SELECT list is a list of the table's column names
+	 */
+	protected String[] getColumns()
+	{
+		return(gColumns);
+	}
+
+	/**
+	 * The position of each column in {@link #getColumns} among the table's columns, as per METLMetaData.METL_COLNAMES
+	 */
+	protected int[] getProjection()
+	{
+		return(gProjection);
+	}
+
+	/**
+	 * The java.sql.Types value of each column in {@link #getColumns}, or null if they are all VARCHAR
+	 */
+	protected int[] getColumnTypes()
+	{
+		return(gColumnTypes);
+	}
+
+	/**
+	 * Does the statement need the named column
+	 */
+	protected boolean hasColumn(String pName)
+	{
+		for(String s : gColumns)
+		{
+			if(s.equals(pName))
+			{
+				return(true);
+			}
+		}
+		return(false);
+	}
+
+	/**
+	 * Does a row, or a partial path of the hierarchy, match the WHERE clause's predicates on the columns it has values for
+	 * @param pRow Values in the order of the table's columns, as per METLMetaData.METL_COLNAMES
+	 */
+	protected boolean accepts(String[] pRow)
+	{
+		for(Map.Entry<Integer,Set<String>> me : gFilters.entrySet())
+		{
+			int iPos = me.getKey().intValue();
+			if(iPos < pRow.length && !me.getValue().contains(pRow[iPos]))
+			{
+				return(false);
+			}
+		}
+		return(true);
+	}
+
+	/**
+	 * Is there a predicate on any column at or after the given position, i.e. one which a path of that length can't be checked against yet
+	 */
+	protected boolean hasFilterFrom(int pPosition)
+	{
+		for(Integer iPos : gFilters.keySet())
+		{
+			if(iPos.intValue() >= pPosition)
+			{
+				return(true);
+			}
+		}
+		return(false);
+	}
+
+	/**
+	 * Returns the plan for a statement, from the cache if it has been seen before
+	 * @throws SQLException If the statement doesn't select from one of the METL tables
+	 */
+	protected static QueryPlan parse(String sql)
+		throws SQLException
+	{
+		QueryPlan qpRet = gCache.get(sql);
+
+		if(null == qpRet)
+		{
+			qpRet = analyse(tokenise(sql));
+			gCache.put(sql, qpRet);
+		}
+
+		return(qpRet);
+	}
+
+	private static QueryPlan analyse(List<Token> pTokens)
+		throws SQLException
+	{
+		boolean bIsCount = false;
+		Integer iRowLimit = null;
+		String sTable = null;
+		String[] arrColumns = null;
+		Map<String,Set<String>> mFilters = Collections.emptyMap();
+
+		// The most recent SELECT at each level of parentheses, to find the column list which goes with a FROM
+		List<Integer> lSelects = new ArrayList<Integer>();
+
+		for(int i = 0; i < pTokens.size(); i++)
+		{
+			Token t = pTokens.get(i);
+
+			if(t.isWord("SELECT"))
+			{
+				while(lSelects.size() <= t.depth)
+				{
+					lSelects.add(null);
+				}
+				lSelects.set(t.depth, Integer.valueOf(i));
+
+				if(isAt(pTokens, i + 1, "COUNT") && isAt(pTokens, i + 2, "(") && isAt(pTokens, i + 3, "*") && isAt(pTokens, i + 4, ")"))
+				{
+					bIsCount = true;
+				}
+			}
+			else if(t.isWord("FROM") && null == sTable)
+			{
+				String sName = getTableName(pTokens, i + 1);
+
+				if(null != sName && t.depth < lSelects.size() && null != lSelects.get(t.depth))
+				{
+					sTable = sName;
+					arrColumns = getColumnNames(pTokens, lSelects.get(t.depth).intValue() + 1, i);
+					mFilters = getFilters(pTokens, skipName(pTokens, i + 1), t.depth);
+				}
+			}
+			else if(t.isWord("LIMIT") && null == iRowLimit && i + 1 < pTokens.size() && Token.NUMBER == pTokens.get(i + 1).type)
+			{
+				try
+				{
+					iRowLimit = Integer.valueOf(pTokens.get(i + 1).text);
+				}
+				catch(NumberFormatException nx) {}
+			}
+		}
+
+		// If reach here without a table, the SQL is not acceptable
+		if(null == sTable)
+		{
+			throw(new SQLException("Syntax error"));
+		}
+
+		return(new QueryPlan(sTable, bIsCount, bIsCount ? null : iRowLimit, arrColumns, mFilters));
+	}
+
+	// A METL table name, optionally qualified e.g. "METL"."job", starting at pPos
+	private static String getTableName(List<Token> pTokens, int pPos)
+	{
+		if(pPos >= pTokens.size() || !pTokens.get(pPos).isName())
+		{
+			return(null);
+		}
+
+		String sName = pTokens.get(skipName(pTokens, pPos) - 1).text.toLowerCase(Locale.ROOT);
+
+		for(String s : METLMetaData.METL_TABLES)
+		{
+			if(s.equals(sName))
+			{
+				return(s);
+			}
+		}
+		return(null);
+	}
+
+	// The position after an optionally qualified name starting at pPos
+	private static int skipName(List<Token> pTokens, int pPos)
+	{
+		while(isAt(pTokens, pPos + 1, ".") && pPos + 2 < pTokens.size() && pTokens.get(pPos + 2).isName())
+		{
+			pPos += 2;
+		}
+		return(pPos + 1);
+	}
+
+	// Equality and IN predicates on the hierarchy columns, from a WHERE clause following the table name at pPos
+	// Any other conditions are ignored, which is safe as long as they are all ANDed together. If there's an OR then nothing is used.
+	private static Map<String,Set<String>> getFilters(List<Token> pTokens, int pPos, int pDepth)
+	{
+		HashMap<String,Set<String>> hmRet = new HashMap<String,Set<String>>();
+		int iSize = pTokens.size();
+		int i = pPos;
+
+		// Skip over an optional table alias
+		if(isAt(pTokens, i, "AS"))
+		{
+			i += 2;
+		}
+		else if(i < iSize && pTokens.get(i).isName() && !CLAUSE_WORDS.contains(pTokens.get(i).text.toUpperCase(Locale.ROOT)))
+		{
+			i++;
+		}
+
+		if(!isAt(pTokens, i, "WHERE") || pDepth != pTokens.get(i).depth)
+		{
+			return(hmRet);
+		}
+
+		while(++i < iSize)
+		{
+			// One condition runs up to the next AND, or to the end of the WHERE clause
+			int iEnd = i;
+			while(iEnd < iSize)
+			{
+				Token t = pTokens.get(iEnd);
+				if(t.depth < pDepth || (t.depth == pDepth && (t.isWord("AND") || (Token.WORD == t.type && CLAUSE_WORDS.contains(t.text.toUpperCase(Locale.ROOT))) || isAt(pTokens, iEnd, ";"))))
+				{
+					break;
+				}
+				if(t.depth == pDepth && t.isWord("OR"))
+				{
+					return(new HashMap<String,Set<String>>());
+				}
+				iEnd++;
+			}
+
+			addFilter(hmRet, pTokens, i, iEnd);
+
+			if(iEnd >= iSize || !pTokens.get(iEnd).isWord("AND") || pDepth != pTokens.get(iEnd).depth)
+			{
+				break;
+			}
+			i = iEnd;
+		}
+
+		return(hmRet);
+	}
+
+	// Adds the condition between pStart and pEnd if it's either column = 'value' or column IN ('value', ...)
+	// More than one condition on the same column must all hold, so their values are intersected
+	private static void addFilter(Map<String,Set<String>> pFilters, List<Token> pTokens, int pStart, int pEnd)
+	{
+		if(pStart >= pEnd || !pTokens.get(pStart).isName())
+		{
+			return;
+		}
+
+		int i = skipName(pTokens, pStart);
+		String sColumn = pTokens.get(i - 1).text.toLowerCase(Locale.ROOT);
+		Set<String> hsValues = new HashSet<String>();
+
+		if(!FILTER_COLUMNS.contains(sColumn))
+		{
+			return;
+		}
+
+		if(isAt(pTokens, i, "=") && i + 2 == pEnd && Token.STRING == pTokens.get(i + 1).type)
+		{
+			hsValues.add(pTokens.get(i + 1).text);
+		}
+		else if(isAt(pTokens, i, "IN") && isAt(pTokens, i + 1, "(") && isAt(pTokens, pEnd - 1, ")"))
+		{
+			for(int j = i + 2; j < pEnd - 1; j += 2)
+			{
+				if(Token.STRING != pTokens.get(j).type || !(isAt(pTokens, j + 1, ",") || j + 1 == pEnd - 1))
+				{
+					return;
+				}
+				hsValues.add(pTokens.get(j).text);
+			}
+		}
+		else
+		{
+			return;
+		}
+
+		Set<String> hsPrevious = pFilters.get(sColumn);
+		if(null != hsPrevious)
+		{
+			hsValues.retainAll(hsPrevious);
+		}
+		pFilters.put(sColumn, hsValues);
+	}
+
+	// The column names between SELECT and FROM, or null unless every item is a plain (optionally qualified) column name
+	private static String[] getColumnNames(List<Token> pTokens, int pStart, int pEnd)
+	{
+		List<String> lRet = new ArrayList<String>();
+		int i = pStart;
+
+		while(i < pEnd)
+		{
+			if(!pTokens.get(i).isName())
+			{
+				return(null);
+			}
+			while(isAt(pTokens, i + 1, ".") && i + 2 < pEnd && pTokens.get(i + 2).isName())
+			{
+				i += 2;
+			}
+			lRet.add(pTokens.get(i).text.toLowerCase(Locale.ROOT));
+			i++;
+
+			if(i < pEnd && !isAt(pTokens, i++, ","))
+			{
+				return(null);
+			}
+		}
+
+		return(lRet.isEmpty() ? null : lRet.toArray(new String[lRet.size()]));
+	}
+
+	private static boolean isAt(List<Token> pTokens, int pPos, String pText)
+	{
+		if(pPos >= pTokens.size())
+		{
+			return(false);
+		}
+
+		Token t = pTokens.get(pPos);
+		return((Token.WORD == t.type || Token.SYMBOL == t.type) && t.text.equalsIgnoreCase(pText));
+	}
+
+	// Split the SQL into words, "quoted identifiers", 'string literals', numbers and symbols, skipping whitespace and comments
+	private static List<Token> tokenise(String sql)
+	{
+		List<Token> lRet = new ArrayList<Token>();
+		int iLen = sql.length();
+		int iDepth = 0;
+		int i = 0;
+
+		while(i < iLen)
+		{
+			char c = sql.charAt(i);
+			int iStart = i;
+
+			if(Character.isWhitespace(c))
+			{
+				i++;
+			}
+			else if('-' == c && i + 1 < iLen && '-' == sql.charAt(i + 1))
+			{
+				while(i < iLen && '\n' != sql.charAt(i))
+				{
+					i++;
+				}
+			}
+			else if('/' == c && i + 1 < iLen && '*' == sql.charAt(i + 1))
+			{
+				int iEnd = sql.indexOf("*/", i + 2);
+				i = iEnd < 0 ? iLen : iEnd + 2;
+			}
+			else if('"' == c || '\'' == c)
+			{
+				// A doubled quote stands for itself
+				StringBuilder sb = new StringBuilder();
+				i++;
+				while(i < iLen)
+				{
+					char q = sql.charAt(i++);
+					if(q == c)
+					{
+						if(i < iLen && c == sql.charAt(i))
+						{
+							i++;
+						}
+						else
+						{
+							break;
+						}
+					}
+					sb.append(q);
+				}
+				lRet.add(new Token('"' == c ? Token.QUOTED : Token.STRING, sb.toString(), iDepth));
+			}
+			else if(Character.isDigit(c))
+			{
+				while(i < iLen && Character.isDigit(sql.charAt(i)))
+				{
+					i++;
+				}
+				lRet.add(new Token(Token.NUMBER, sql.substring(iStart, i), iDepth));
+			}
+			else if(Character.isLetter(c) || '_' == c)
+			{
+				while(i < iLen && (Character.isLetterOrDigit(sql.charAt(i)) || '_' == sql.charAt(i) || '$' == sql.charAt(i)))
+				{
+					i++;
+				}
+				lRet.add(new Token(Token.WORD, sql.substring(iStart, i), iDepth));
+			}
+			else
+			{
+				if(')' == c && iDepth > 0)
+				{
+					iDepth--;
+				}
+				lRet.add(new Token(Token.SYMBOL, String.valueOf(c), iDepth));
+				if('(' == c)
+				{
+					iDepth++;
+				}
+				i++;
+			}
+		}
+
+		return(lRet);
+	}
+
+	private static final class Token
+	{
+		private final static int WORD = 0;
+		private final static int QUOTED = 1;
+		private final static int STRING = 2;
+		private final static int NUMBER = 3;
+		private final static int SYMBOL = 4;
+
+		private final int type;
+		private final String text;
+		private final int depth;
+
+		private Token(int pType, String pText, int pDepth)
+		{
+			this.type = pType;
+			this.text = pText;
+			this.depth = pDepth;
+		}
+
+		private boolean isWord(String pWord)
+		{
+			return(WORD == type && text.equalsIgnoreCase(pWord));
+		}
+
+		// A bare or quoted identifier
+		private boolean isName()
+		{
+			return(QUOTED == type || (WORD == type && !text.equalsIgnoreCase("FROM") && !text.equalsIgnoreCase("DISTINCT")));
+		}
+	}
+}
@@ -0,0 +1,210 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ResponseCache keeps the latest response to each REST API listing, so that fetching it again is cheap when it hasn't changed, which is most of the time.<br>
+ * If the API sent an ETag or a Last-Modified header, the next request for the same path is made conditional, and a 304 Not Modified response is answered from the cache,
+ * without parsing the body again: the handler is given what it produced last time. Only these bodies are kept, and they are held in memory for as long as they are cached.
+ * Any other body is streamed to its handler as usual, and only its hash is kept, which shows whether it has changed since last time.
+ * Every response is still checked with the API, so unlike the {@link ListingCache} this can never be out of date.
+ * It is shared by every connection in the JVM and bounded in size, with the least recently used responses evicted first.
+ * Entries are keyed by a hash of the user and password as well as by path, so one user never sees a response fetched with another user's permissions, and no password is kept.
+ */
+final class ResponseCache
+{
+	private final static int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static ResponseCache gCacheSingleton = null;
+
+	private final LinkedHashMap<String,Entry> gEntries = new LinkedHashMap<String,Entry>(64, 0.75f, true);
+	private int gMaxEntries = DEFAULT_MAX_ENTRIES;
+
+	private final AtomicLong gNotModified = new AtomicLong();
+	private final AtomicLong gUnchanged = new AtomicLong();
+
+	/**
+	 * One response, and whatever the handlers made of it, by the class of handler
+	 */
+	protected static final class Entry
+	{
+		private final String gETag;
+		private final String gLastModified;
+		private final byte[] gBody;
+		private final byte[] gHash;
+		private final HashMap<Class<?>,Object> gResults;
+
+		private Entry(String pETag, String pLastModified, byte[] pBody, byte[] pHash, HashMap<Class<?>,Object> pResults)
+		{
+			this.gETag = pETag;
+			this.gLastModified = pLastModified;
+			this.gBody = pBody;
+			this.gHash = pHash;
+			this.gResults = pResults;
+		}
+
+		protected String getETag()
+		{
+			return(gETag);
+		}
+
+		protected String getLastModified()
+		{
+			return(gLastModified);
+		}
+
+		/**
+		 * Only kept if the response can be revalidated, since otherwise there is always a new body
+		 */
+		protected byte[] getBody()
+		{
+			return(gBody);
+		}
+
+		protected boolean isRevalidatable()
+		{
+			return(null != gETag || null != gLastModified);
+		}
+
+		protected synchronized Object getResult(Class<?> pHandlerClass)
+		{
+			return(gResults.get(pHandlerClass));
+		}
+
+		protected synchronized void putResult(Class<?> pHandlerClass, Object pResult)
+		{
+			gResults.put(pHandlerClass, pResult);
+		}
+
+		private synchronized HashMap<Class<?>,Object> copyResults()
+		{
+			return(new HashMap<Class<?>,Object>(gResults));
+		}
+	}
+
+	protected static synchronized ResponseCache getInstance()
+	{
+		if(null == gCacheSingleton)
+		{
+			gCacheSingleton = new ResponseCache();
+		}
+		return(gCacheSingleton);
+	}
+
+	/**
+	 * The cache is shared by every connection in the JVM, so the most recently supplied size applies
+	 * @param pMaxEntries The most responses which are kept. 0 turns the cache off
+	 */
+	protected synchronized void configure(int pMaxEntries)
+	{
+		gMaxEntries = pMaxEntries;
+		trim();
+	}
+
+	protected synchronized boolean isEnabled()
+	{
+		return(gMaxEntries > 0);
+	}
+
+	protected synchronized Entry get(String pKey)
+	{
+		return(gEntries.get(pKey));
+	}
+
+	/**
+	 * Keep a new response to pKey's request
+	 * @param pOld The response it replaces, or null. If the body is the same, the handlers' results are kept
+	 * @param pBody The body, if the response can be revalidated, otherwise null
+	 * @param pHash The body's hash, from {@link #newDigest}
+	 * @return Entry The new entry, to which results can be added
+	 */
+	protected Entry put(String pKey, Entry pOld, String pETag, String pLastModified, byte[] pBody, byte[] pHash)
+	{
+		boolean bSame = null != pOld && Arrays.equals(pOld.gHash, pHash);
+		boolean bRevalidatable = null != pETag || null != pLastModified;
+
+		if(bSame)
+		{
+			gUnchanged.incrementAndGet();
+		}
+
+		Entry eRet = new Entry(pETag, pLastModified, bRevalidatable ? pBody : null, pHash, bSame ? pOld.copyResults() : new HashMap<Class<?>,Object>());
+
+		synchronized(this)
+		{
+			gEntries.put(pKey, eRet);
+			trim();
+		}
+		return(eRet);
+	}
+
+	/**
+	 * Count a 304 Not Modified response which was answered from the cache
+	 */
+	protected void notModified()
+	{
+		gNotModified.incrementAndGet();
+	}
+
+	/**
+	 * The number of conditional requests which the API answered with 304 Not Modified
+	 */
+	protected long getNotModified()
+	{
+		return(gNotModified.get());
+	}
+
+	/**
+	 * The number of full responses whose body was the same as last time
+	 */
+	protected long getUnchanged()
+	{
+		return(gUnchanged.get());
+	}
+
+	// Least recently used first
+	private void trim()
+	{
+		for(Iterator<String> it = gEntries.keySet().iterator(); gEntries.size() > gMaxEntries && it.hasNext(); )
+		{
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * SHA-256, which is also used to key entries by user and password without keeping the password
+	 */
+	protected static byte[] hash(byte[] pBody)
+	{
+		return(newDigest().digest(pBody));
+	}
+
+	/**
+	 * For hashing a body as it is read
+	 */
+	protected static MessageDigest newDigest()
+	{
+		try
+		{
+			return(MessageDigest.getInstance("SHA-256"));
+		}
+		catch(NoSuchAlgorithmException nx)
+		{
+			// Every JVM has SHA-256
+			throw(new IllegalStateException(nx));
+		}
+	}
+
+	// This class is only used through getInstance
+	private ResponseCache()
+	{
+	}
+}
@@ -0,0 +1,298 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.thereisnogravity.jdbcstub.*;
+
+/**
+ * StatementCache serves REST API backed queries from a recent snapshot, for tables which are polled far more often than their contents change.<br>
+ * A snapshot is returned straight away for as long as it is within the table's maximum staleness. Once it is over half that age,
+ * it is refreshed on a background thread while callers go on receiving the old one.
+ * However many callers ask for the same query at once, only one REST walk is ever in flight for it: if there's no usable snapshot, they all wait for the same one.
+ * Snapshots are shared by every connection in the JVM, keyed by a hash of the user and password, as per {@link HttpHelper#credentialsKey}, and the SQL text. Each caller is given its own statement over the shared rows.
+ */
+final class StatementCache
+{
+	private final static int MAX_ENTRIES = 256;
+
+	private static StatementCache gCacheSingleton = null;
+
+	private final LinkedHashMap<String,Entry> gEntries = new LinkedHashMap<String,Entry>(64, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,Entry> pEldest)
+		{
+			return(size() > MAX_ENTRIES);
+		}
+	};
+
+	private final ExecutorService gRefresher = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "METL-revalidate");
+			t.setDaemon(true);
+			return(t);
+		}
+	});
+
+	private static class Entry
+	{
+		// Nothing changes the rows once they're read, so they can be shared, but a statement has its own fetch size, timeout and result set
+		private ColumnStore gSnapshot;
+		private long gFetchedAt;
+		private FutureTask<ColumnStore> gInFlight;
+		private Cancellation gInFlightCancel;
+	}
+
+	protected static synchronized StatementCache getInstance()
+	{
+		if(null == gCacheSingleton)
+		{
+			gCacheSingleton = new StatementCache();
+		}
+		return(gCacheSingleton);
+	}
+
+	/**
+	 * Nothing is read until the statement is executed, so waiting for a snapshot is covered by the statement's query timeout, and can be cancelled
+	 * @param pUser Whose permissions the statement is built with
+	 * @param pPassword The user's password, so that a snapshot is only served to the credentials which built it
+	 * @param pSql The query
+	 * @param pMaxStaleSecs How old a snapshot may be
+	 * @param pStatement Makes the REST calls and reads the rows, when there's no usable snapshot
+	 * @return JsonBackedStatement A new statement over a snapshot, whose rows may be shared with other callers
+	 */
+	protected JsonBackedStatement get(String pUser, String pPassword, final String pSql, final int pMaxStaleSecs, final JsonBackedStatement pStatement)
+		throws SQLException
+	{
+		final String sCredentials = HttpHelper.credentialsKey(pUser, pPassword);
+		ResultSetMetaData md = pStatement.getMetaData();
+		String[] arrNames = new String[md.getColumnCount()];
+		int[] arrTypes = new int[arrNames.length];
+
+		for(int i = 0; i < arrNames.length; i++)
+		{
+			arrNames[i] = md.getColumnName(i + 1);
+			arrTypes[i] = md.getColumnType(i + 1);
+		}
+
+		return(new JsonBackedStatement(arrNames, arrTypes, new RowCursor.Factory()
+		{
+			@Override
+			public RowCursor open(Cancellation pCancel)
+				throws SQLException
+			{
+				return(cursor(getSnapshot(sCredentials, pSql, pMaxStaleSecs, pStatement, pCancel)));
+			}
+		}, com.thereisnogravity.Driver.CATALOG_TERM, com.thereisnogravity.Driver.METL_SCHEMA_NAME));
+	}
+
+	private ColumnStore getSnapshot(String pCredentials, String pSql, int pMaxStaleSecs, JsonBackedStatement pStatement, Cancellation pCancel)
+		throws SQLException
+	{
+		String sKey = pCredentials + '\u0000' + pSql;
+		long lMaxStaleMs = pMaxStaleSecs * 1000L;
+
+		while(true)
+		{
+			FutureTask<ColumnStore> ftWait;
+			Cancellation cWalk;
+			boolean bRunHere = false;
+
+			synchronized(this)
+			{
+				Entry e = gEntries.get(sKey);
+				if(null == e)
+				{
+					e = new Entry();
+					gEntries.put(sKey, e);
+				}
+
+				long lAge = System.currentTimeMillis() - e.gFetchedAt;
+
+				if(null != e.gSnapshot && lAge <= lMaxStaleMs)
+				{
+					if(2 * lAge > lMaxStaleMs && null == e.gInFlight)
+					{
+						// Nobody waits for a refresh, and once it takes longer than the snapshot may be stale its result would be no use
+						e.gInFlightCancel = new Cancellation(pMaxStaleSecs);
+						e.gInFlight = newTask(e, pStatement, e.gInFlightCancel, true);
+						gRefresher.execute(e.gInFlight);
+					}
+					return(e.gSnapshot);
+				}
+
+				// Nothing usable, so join the walk which is already in flight, or start one which is stopped by this caller's timeout or cancellation
+				if(null == e.gInFlight)
+				{
+					e.gInFlightCancel = pCancel;
+					e.gInFlight = newTask(e, pStatement, pCancel, false);
+					bRunHere = true;
+				}
+				ftWait = e.gInFlight;
+				cWalk = e.gInFlightCancel;
+			}
+
+			if(bRunHere)
+			{
+				ftWait.run();
+			}
+
+			try
+			{
+				return(await(ftWait, pCancel));
+			}
+			catch(ExecutionException ex)
+			{
+				// Someone else's walk was stopped because they gave up, which is no reason for this caller to, so start another
+				if(cWalk != pCancel && cWalk.isCancelled() && !pCancel.isCancelled())
+				{
+					continue;
+				}
+
+				Throwable t = ex.getCause();
+				if(t instanceof SQLException)
+				{
+					throw((SQLException)t);
+				}
+				throw(new SQLException(t.getMessage(), t));
+			}
+		}
+	}
+
+	// Wait for a walk, unless pCancel says to stop first
+	private static ColumnStore await(FutureTask<ColumnStore> pWalk, Cancellation pCancel)
+		throws ExecutionException, SQLException
+	{
+		final Thread tCaller = Thread.currentThread();
+		Runnable rInterrupt = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				tCaller.interrupt();
+			}
+		};
+		pCancel.add(rInterrupt);
+
+		try
+		{
+			return(pWalk.get());
+		}
+		catch(InterruptedException ix)
+		{
+			pCancel.check();
+			Thread.currentThread().interrupt();
+			throw(new SQLException("Interrupted waiting for the REST API", ix));
+		}
+		finally
+		{
+			pCancel.remove(rInterrupt);
+			if(pCancel.isCancelled())
+			{
+				Thread.interrupted();
+			}
+		}
+	}
+
+	// The rows of a snapshot, for one execution
+	private static RowCursor cursor(final ColumnStore pSnapshot)
+	{
+		return(new RowCursor()
+		{
+			private int gRow = 0;
+
+			@Override
+			public String[] next()
+			{
+				if(gRow >= pSnapshot.getRowCount())
+				{
+					return(null);
+				}
+
+				String[] arrRet = new String[pSnapshot.getColumnCount()];
+				for(int i = 0; i < arrRet.length; i++)
+				{
+					arrRet[i] = pSnapshot.getString(gRow, i);
+				}
+				gRow++;
+				return(arrRet);
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		});
+	}
+
+	/**
+	 * Forget every snapshot built with one user's credentials
+	 * @return int The number of snapshots removed
+	 */
+	protected synchronized int invalidate(String pUser, String pPassword)
+	{
+		String sPrefix = HttpHelper.credentialsKey(pUser, pPassword) + '\u0000';
+		int iRet = 0;
+
+		for(Iterator<String> it = gEntries.keySet().iterator(); it.hasNext(); )
+		{
+			if(it.next().startsWith(sPrefix))
+			{
+				it.remove();
+				iRet++;
+			}
+		}
+		return(iRet);
+	}
+
+	// A failed walk leaves the previous snapshot in place, so a background refresh failing is harmless
+	// A caller who was waiting for it gets the exception
+	// A background refresh owns its Cancellation, so finishes it, whereas a caller's is finished along with the caller's statement
+	private FutureTask<ColumnStore> newTask(final Entry pEntry, final JsonBackedStatement pStatement, final Cancellation pCancel, final boolean pBackground)
+	{
+		return(new FutureTask<ColumnStore>(new Callable<ColumnStore>()
+		{
+			@Override
+			public ColumnStore call()
+				throws Exception
+			{
+				// The snapshot is as old as the start of the walk which built it
+				long lStartedAt = System.currentTimeMillis();
+
+				try
+				{
+					ColumnStore csSnapshot = pStatement.readAll(pCancel);
+
+					synchronized(StatementCache.this)
+					{
+						pEntry.gSnapshot = csSnapshot;
+						pEntry.gFetchedAt = lStartedAt;
+					}
+					return(csSnapshot);
+				}
+				finally
+				{
+					synchronized(StatementCache.this)
+					{
+						pEntry.gInFlight = null;
+						pEntry.gInFlightCancel = null;
+					}
+					if(pBackground)
+					{
+						pCancel.finish();
+					}
+				}
+			}
+		}));
+	}
+}
@@ -0,0 +1,22 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+/**
+ * A pull-style sequence of items produced while walking the Matillion REST API.<br>
+ * Unlike an Iterator, it may throw whatever the underlying REST call throws, and it can be closed early.
+ */
+interface WalkSource<T>
+{
+	boolean hasNext()
+		throws Exception;
+
+	T next()
+		throws Exception;
+
+	// Stop early, abandoning any outstanding work
+	void close();
+}
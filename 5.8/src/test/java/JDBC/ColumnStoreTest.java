@@ -0,0 +1,77 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity.jdbcstub;
+
+import static org.junit.Assert.*;
+
+import java.sql.*;
+
+import org.junit.*;
+
+/**
+ * Which values of a {@link ColumnStore} are null, as it is filled, changed and reused
+ */
+public class ColumnStoreTest
+{
+	private final static String[] NAMES = {"name", "count", "ratio"};
+	private final static int[] TYPES = {Types.VARCHAR, Types.BIGINT, Types.DOUBLE};
+
+	@Test
+	public void valuesAreNullUntilSet()
+	{
+		ColumnStore cs = new ColumnStore(NAMES, TYPES);
+		int iRow = cs.addRow();
+		cs.setString(iRow, 0, "a");
+
+		assertFalse(cs.isNull(iRow, 0));
+		assertEquals("a", cs.getString(iRow, 0));
+		assertTrue(cs.isNull(iRow, 1));
+		assertNull(cs.getString(iRow, 1));
+		assertEquals(0L, cs.getLong(iRow, 1));
+		assertTrue(cs.isNull(iRow, 2));
+		assertEquals(0D, cs.getDouble(iRow, 2), 0D);
+	}
+
+	@Test
+	public void settingNullReplacesAValue()
+	{
+		ColumnStore cs = new ColumnStore(NAMES, TYPES);
+		for(int i = 0; i < 100; i++)
+		{
+			int iRow = cs.addRow();
+			cs.setLong(iRow, 1, i);
+			cs.setDouble(iRow, 2, i / 2.0);
+		}
+
+		cs.setString(99, 1, null);
+		cs.setString(50, 2, null);
+
+		assertTrue(cs.isNull(99, 1));
+		assertTrue(cs.isNull(50, 2));
+		assertEquals(98L, cs.getLong(98, 1));
+		assertEquals("24.5", cs.getString(49, 2));
+		assertEquals(100, cs.getRowCount());
+	}
+
+	@Test
+	public void clearedRowsAreNullWhenReused()
+	{
+		ColumnStore cs = new ColumnStore(NAMES, TYPES);
+		for(int i = 0; i < 10; i++)
+		{
+			int iRow = cs.addRow();
+			cs.setString(iRow, 0, "x" + i);
+			cs.setLong(iRow, 1, i);
+		}
+
+		cs.clear();
+		int iRow = cs.addRow();
+
+		assertEquals(0, iRow);
+		assertTrue(cs.isNull(iRow, 0));
+		assertTrue(cs.isNull(iRow, 1));
+	}
+}
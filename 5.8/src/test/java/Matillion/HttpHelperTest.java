@@ -0,0 +1,152 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import com.google.gson.stream.*;
+
+/**
+ * Sharing of identical calls made at the same time by {@link HttpHelper}, against a {@link MockServer} which is slow to start or to finish its response
+ */
+public class HttpHelperTest
+{
+	private static MockServer gServer;
+
+	@BeforeClass
+	public static void startServer()
+		throws IOException
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws Exception
+			{
+				if(pRequest.getPath().startsWith("/rest/v1/slowheaders"))
+				{
+					Thread.sleep(500);
+					MockServer.write(pOut, 200, "[\"a\",\"b\"]");
+				}
+				else
+				{
+					// The first element straight away, and the rest of the body later
+					MockServer.write(pOut, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n4\r\n[\"a\"\r\n");
+					Thread.sleep(500);
+					MockServer.write(pOut, "5\r\n,\"b\"]\r\n0\r\n\r\n");
+				}
+			}
+		});
+
+		HttpHelper.useEndpoint(false, gServer.getPort());
+	}
+
+	@AfterClass
+	public static void stopServer()
+		throws IOException
+	{
+		gServer.close();
+	}
+
+	@Test
+	public void callsMadeBeforeTheResponseStartsShareIt()
+		throws Exception
+	{
+		long lCollapsed = HttpHelper.getCollapsed();
+
+		List<Future<List<String>>> lResults = getTogether("slowheaders/1", 0);
+
+		assertEquals(Arrays.asList("a", "b"), lResults.get(0).get());
+		assertEquals(Arrays.asList("a", "b"), lResults.get(1).get());
+		assertEquals(1, requestsFor("/rest/v1/slowheaders/1"));
+		assertEquals(lCollapsed + 1, HttpHelper.getCollapsed());
+	}
+
+	@Test
+	public void callsMadeOnceTheBodyIsStreamingMakeTheirOwn()
+		throws Exception
+	{
+		long lCollapsed = HttpHelper.getCollapsed();
+
+		// The second call is made while the first one's body is half read
+		List<Future<List<String>>> lResults = getTogether("slowbody/1", 250);
+
+		assertEquals(Arrays.asList("a", "b"), lResults.get(0).get());
+		assertEquals(Arrays.asList("a", "b"), lResults.get(1).get());
+		assertEquals(2, requestsFor("/rest/v1/slowbody/1"));
+		assertEquals(lCollapsed, HttpHelper.getCollapsed());
+	}
+
+	// Two identical calls, the second pDelayMs after the first
+	private static List<Future<List<String>>> getTogether(final String pPath, int pDelayMs)
+		throws InterruptedException
+	{
+		ExecutorService es = Executors.newFixedThreadPool(2);
+		try
+		{
+			Callable<List<String>> cGet = new Callable<List<String>>()
+			{
+				@Override
+				public List<String> call()
+					throws Exception
+				{
+					Names n = new Names();
+					assertEquals(200, new HttpHelper("u", "p", pPath, n).getCode());
+					return(n.gNames);
+				}
+			};
+
+			List<Future<List<String>>> lRet = new ArrayList<Future<List<String>>>();
+			lRet.add(es.submit(cGet));
+			Thread.sleep(pDelayMs);
+			lRet.add(es.submit(cGet));
+			return(lRet);
+		}
+		finally
+		{
+			es.shutdown();
+		}
+	}
+
+	private static int requestsFor(String pPath)
+	{
+		int iRet = 0;
+		for(MockServer.Request r : gServer.getRequests())
+		{
+			if(r.getPath().equals(pPath))
+			{
+				iRet++;
+			}
+		}
+		return(iRet);
+	}
+
+	// Reads a JSON array of names. Not reusable, so it doesn't go through the ResponseCache
+	private static class Names
+		implements HttpHelper.JsonHandler
+	{
+		private List<String> gNames;
+
+		@Override
+		public void handle(JsonReader pReader)
+			throws IOException
+		{
+			gNames = new ArrayList<String>();
+			pReader.beginArray();
+			while(pReader.hasNext())
+			{
+				gNames.add(pReader.nextString());
+			}
+			pReader.endArray();
+		}
+	}
+}
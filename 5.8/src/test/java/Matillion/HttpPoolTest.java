@@ -0,0 +1,491 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+import javax.net.ssl.*;
+
+import org.junit.*;
+
+import com.thereisnogravity.jdbcstub.*;
+
+/**
+ * The HTTP/1.1 client in {@link HttpPool}, against a {@link MockServer} which sends each kind of response body, and some broken responses
+ */
+public class HttpPoolTest
+{
+	private final static int CONNECT_TIMEOUT_MS = 1500;
+	private final static int READ_TIMEOUT_MS = 5000;
+
+	private MockServer gServer;
+
+	@Before
+	public void resetPool()
+	{
+		// Drops idle connections to earlier tests' servers
+		HttpPool.getInstance().configure(8, 0);
+		HttpPool.getInstance().configure(8, 30);
+	}
+
+	@After
+	public void stopServer()
+		throws IOException
+	{
+		if(null != gServer)
+		{
+			gServer.close();
+		}
+	}
+
+	@Test
+	public void contentLengthBodyIsReadAndTheConnectionReused()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				MockServer.write(pOut, 200, "{\"path\":\"" + pRequest.getPath() + "\"}");
+			}
+		});
+
+		assertEquals("{\"path\":\"/a\"}", body(get("/a")));
+		assertEquals("{\"path\":\"/b\"}", body(get("/b")));
+		assertEquals(1, gServer.getConnections());
+	}
+
+	@Test
+	public void chunkedBodyIsReadAndTheConnectionReused()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				// A chunk extension, a chunk big enough to need several reads, and a trailer
+				StringBuilder sbBig = new StringBuilder();
+				for(int i = 0; i < 5000; i++)
+				{
+					sbBig.append('x');
+				}
+				MockServer.write(pOut, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+					+ "5;name=value\r\n[\"ab\"\r\n"
+					+ Integer.toHexString(sbBig.length() + 3) + "\r\n,\"" + sbBig + "\"\r\n"
+					+ "1\r\n]\r\n"
+					+ "0\r\nX-Trailer: yes\r\n\r\n");
+			}
+		});
+
+		String sExpected = "[\"ab\",\"" + new String(new char[5000]).replace('\0', 'x') + "\"]";
+		assertEquals(sExpected, body(get("/a")));
+		assertEquals(sExpected, body(get("/b")));
+		assertEquals(1, gServer.getConnections());
+	}
+
+	@Test
+	public void closeDelimitedBodyRunsToTheEndOfTheConnection()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				MockServer.write(pOut, "HTTP/1.1 200 OK\r\nConnection: close\r\n\r\n[\"" + pRequest.getPath() + "\"]");
+				pRequest.closeAfterwards();
+			}
+		});
+
+		assertEquals("[\"/a\"]", body(get("/a")));
+		assertEquals("[\"/b\"]", body(get("/b")));
+		assertEquals("Not reused, since the body ended with the connection", 2, gServer.getConnections());
+	}
+
+	@Test
+	public void noBodyIsExpectedFor204Or304()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				switch(pRequest.getPath())
+				{
+					case "/nocontent":
+						MockServer.write(pOut, "HTTP/1.1 204 No Content\r\n\r\n");
+						break;
+					case "/notmodified":
+						MockServer.write(pOut, "HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n");
+						break;
+					default:
+						MockServer.write(pOut, 200, "[]");
+				}
+			}
+		});
+
+		try(HttpPool.Exchange x = get("/nocontent"))
+		{
+			assertEquals(204, x.getCode());
+			assertEquals(-1, x.getBody().read());
+		}
+		try(HttpPool.Exchange x = get("/notmodified"))
+		{
+			assertEquals(304, x.getCode());
+			assertEquals("\"v1\"", x.getHeader("etag"));
+			assertEquals(-1, x.getBody().read());
+		}
+
+		// The next response is found where it should be, on the same connection
+		assertEquals("[]", body(get("/a")));
+		assertEquals(1, gServer.getConnections());
+	}
+
+	@Test
+	public void repeatedAndFoldedHeadersAreJoined()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				// The same Content-Length twice is allowed, as long as it agrees with itself
+				MockServer.write(pOut, "HTTP/1.1 200 OK\r\nX-List: a\r\nContent-Length: 2\r\nx-list: b\r\n"
+					+ "X-Note: first\r\n  second\r\n\tthird\r\nContent-Length: 2\r\n\r\n[]");
+			}
+		});
+
+		try(HttpPool.Exchange x = get("/a"))
+		{
+			assertEquals("a, b", x.getHeader("X-List"));
+			assertEquals("first second third", x.getHeader("x-note"));
+		}
+		assertEquals("[]", body(get("/b")));
+		assertEquals(1, gServer.getConnections());
+	}
+
+	@Test
+	public void conflictingContentLengthsFail()
+		throws Exception
+	{
+		for(final String sLengths : new String[] {"Content-Length: 2\r\nContent-Length: 3", "Content-Length: 2, 3", "Content-Length: two", "Content-Length: -2"})
+		{
+			gServer = new MockServer(new MockServer.Responder()
+			{
+				@Override
+				public void respond(MockServer.Request pRequest, OutputStream pOut)
+					throws IOException
+				{
+					MockServer.write(pOut, "HTTP/1.1 200 OK\r\n" + sLengths + "\r\n\r\n[]");
+				}
+			});
+
+			try
+			{
+				get("/a").close();
+				fail("Accepted " + sLengths);
+			}
+			catch(IOException iox)
+			{
+				assertTrue(iox.getMessage(), iox.getMessage().startsWith("Bad Content-Length"));
+			}
+			gServer.close();
+		}
+		gServer = null;
+	}
+
+	@Test
+	public void chunkTrailersAreSkipped()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				// Several trailers, one of them folded, and then none at all
+				String sTrailers = pRequest.getPath().equals("/a") ? "X-One: 1\r\nX-Two: 2\r\n  continued\r\nX-Checksum: abc\r\n" : "";
+				MockServer.write(pOut, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+					+ "2\r\n[]\r\n"
+					+ "0\r\n" + sTrailers + "\r\n");
+			}
+		});
+
+		assertEquals("[]", body(get("/a")));
+		assertEquals("[]", body(get("/b")));
+		assertEquals("[]", body(get("/a")));
+		assertEquals("Each response started where the last one's trailers ended", 1, gServer.getConnections());
+	}
+
+	@Test
+	public void bodyShorterThanItsContentLengthFails()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				switch(pRequest.getPath())
+				{
+					case "/short":
+						MockServer.write(pOut, "HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n[\"only part\"");
+						pRequest.closeAfterwards();
+						break;
+					case "/shortchunk":
+						MockServer.write(pOut, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n64\r\n[\"only part\"");
+						pRequest.closeAfterwards();
+						break;
+					default:
+						MockServer.write(pOut, 200, "[]");
+				}
+			}
+		});
+
+		for(String sPath : new String[] {"/short", "/shortchunk"})
+		{
+			try
+			{
+				body(get(sPath));
+				fail("Accepted a truncated body from " + sPath);
+			}
+			catch(EOFException eofx)
+			{
+				assertEquals("Response body truncated", eofx.getMessage());
+			}
+		}
+
+		// Neither broken connection went back to the pool
+		assertEquals("[]", body(get("/a")));
+		assertEquals(3, gServer.getConnections());
+	}
+
+	@Test
+	public void staleReusedConnectionIsRetriedOnANewOne()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				// Says keep-alive, but closes each connection after one response, as a server does when its idle timeout is shorter than ours
+				MockServer.write(pOut, 200, "[" + pRequest.getConnection() + "]");
+				pRequest.closeAfterwards();
+			}
+		});
+
+		assertEquals("[1]", body(get("/a")));
+		Thread.sleep(200);
+		assertEquals("[2]", body(get("/b")));
+		assertEquals(2, gServer.getConnections());
+	}
+
+	@Test
+	public void malformedStatusLineFails()
+		throws Exception
+	{
+		for(final String sStatus : new String[] {"HTPP/1.1 200 OK", "HTTP/1.1 OK", "HTTP/1.1", "garbage"})
+		{
+			gServer = new MockServer(new MockServer.Responder()
+			{
+				@Override
+				public void respond(MockServer.Request pRequest, OutputStream pOut)
+					throws IOException
+				{
+					MockServer.write(pOut, sStatus + "\r\nContent-Length: 0\r\n\r\n");
+				}
+			});
+
+			try
+			{
+				get("/a").close();
+				fail("Accepted a status line of " + sStatus);
+			}
+			catch(IOException iox)
+			{
+				assertTrue(iox.getMessage(), iox.getMessage().startsWith("Bad HTTP status line"));
+			}
+			gServer.close();
+		}
+		gServer = null;
+	}
+
+	@Test
+	public void timeoutWhileReadingHeadersIsAReadTimeout()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws Exception
+			{
+				MockServer.write(pOut, "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n");
+				Thread.sleep(2000);
+			}
+		});
+
+		try
+		{
+			HttpPool.getInstance().get(false, "localhost", gServer.getPort(), "/a", new TreeMap<String,String>(), CONNECT_TIMEOUT_MS, 300, null).close();
+			fail("Didn't time out");
+		}
+		catch(HttpPool.ReadTimeoutException rtx)
+		{
+			// As expected, rather than a SocketTimeoutException which would suggest trying HTTP
+		}
+	}
+
+	@Test
+	public void cancellingClosesTheConnection()
+		throws Exception
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws Exception
+			{
+				Thread.sleep(5000);
+			}
+		});
+
+		final Cancellation c = new Cancellation(0);
+		new Timer(true).schedule(new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				c.cancel();
+			}
+		}, 200);
+
+		long lStart = System.nanoTime();
+		try
+		{
+			HttpPool.getInstance().get(false, "localhost", gServer.getPort(), "/a", new TreeMap<String,String>(), CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, c).close();
+			fail("Wasn't cancelled");
+		}
+		catch(IOException iox)
+		{
+			assertTrue("Took until the read timeout", System.nanoTime() - lStart < READ_TIMEOUT_MS * 1000000L / 2);
+		}
+	}
+
+	@Test
+	public void tlsIsOnlyAcceptedFromTheLocalApi()
+		throws Exception
+	{
+		SSLContext scServer = selfSignedContext();
+		Assume.assumeNotNull(scServer);
+
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				MockServer.write(pOut, 200, "[]");
+			}
+		}, scServer);
+
+		try(HttpPool.Exchange x = HttpPool.getInstance().get(true, "localhost", gServer.getPort(), "/a", new TreeMap<String,String>(), CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, null))
+		{
+			assertEquals(200, x.getCode());
+		}
+
+		try
+		{
+			HttpPool.getInstance().get(true, "127.0.0.1", gServer.getPort(), "/a", new TreeMap<String,String>(), CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, null).close();
+			fail("Accepted an unverified certificate from another host name");
+		}
+		catch(SSLPeerUnverifiedException spux)
+		{
+			// As expected
+		}
+	}
+
+	private HttpPool.Exchange get(String pPath)
+		throws IOException
+	{
+		return(HttpPool.getInstance().get(false, "localhost", gServer.getPort(), pPath, new TreeMap<String,String>(), CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, null));
+	}
+
+	// The whole body, after which the connection goes back to the pool
+	private static String body(HttpPool.Exchange x)
+		throws IOException
+	{
+		try
+		{
+			assertEquals(200, x.getCode());
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] arrBuf = new byte[1024];
+			int iRead;
+			while(-1 != (iRead = x.getBody().read(arrBuf)))
+			{
+				baos.write(arrBuf, 0, iRead);
+			}
+			return(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+		}
+		finally
+		{
+			x.close();
+		}
+	}
+
+	// A server certificate for CN=localhost, made with the JDK's keytool, or null if there isn't one
+	private static SSLContext selfSignedContext()
+		throws Exception
+	{
+		File fKeytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool");
+		if(!fKeytool.canExecute())
+		{
+			return(null);
+		}
+
+		File fStore = File.createTempFile("mockserver", ".p12");
+		fStore.delete();
+		fStore.deleteOnExit();
+
+		Process p = new ProcessBuilder(fKeytool.getPath(), "-genkeypair", "-keyalg", "RSA", "-keysize", "2048", "-alias", "mock",
+			"-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", fStore.getPath(),
+			"-storepass", "changeit", "-keypass", "changeit").redirectErrorStream(true).start();
+		while(-1 != p.getInputStream().read()) {}
+		if(0 != p.waitFor())
+		{
+			return(null);
+		}
+
+		KeyStore ks = KeyStore.getInstance("PKCS12");
+		try(InputStream is = new FileInputStream(fStore))
+		{
+			ks.load(is, "changeit".toCharArray());
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(ks, "changeit".toCharArray());
+
+		SSLContext scRet = SSLContext.getInstance("TLS");
+		scRet.init(kmf.getKeyManagers(), null, null);
+		return(scRet);
+	}
+}
@@ -0,0 +1,261 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.net.ssl.*;
+
+/**
+ * MockServer is an HTTP/1.1 server, plain or over TLS, on a free local port, which stands in for Matillion's REST API in tests.<br>
+ * Every request, on whichever connection, is passed to a {@link Responder}, which writes the raw response itself,
+ * so that unusual and malformed responses can be sent as easily as normal ones.
+ */
+class MockServer
+	implements Closeable
+{
+	private final ServerSocket gServer;
+	private final Responder gResponder;
+	private final AtomicInteger gConnections = new AtomicInteger();
+	private final List<Request> gRequests = Collections.synchronizedList(new ArrayList<Request>());
+	private final List<Socket> gSockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+	/**
+	 * Answers one request
+	 */
+	interface Responder
+	{
+		void respond(Request pRequest, OutputStream pOut)
+			throws Exception;
+	}
+
+	/**
+	 * One request, as received
+	 */
+	static class Request
+	{
+		private final String gLine;
+		private final Map<String,String> gHeaders;
+		private final int gConnection;
+		private boolean gClose = false;
+
+		private Request(String pLine, Map<String,String> pHeaders, int pConnection)
+		{
+			this.gLine = pLine;
+			this.gHeaders = pHeaders;
+			this.gConnection = pConnection;
+		}
+
+		// e.g. /rest/v1/group
+		String getPath()
+		{
+			return(gLine.split(" ")[1]);
+		}
+
+		// Header names are case insensitive
+		String getHeader(String pName)
+		{
+			return(gHeaders.get(pName));
+		}
+
+		// Which connection it came on, counting from 1
+		int getConnection()
+		{
+			return(gConnection);
+		}
+
+		// Close the connection once the response has been written, whatever the response says
+		void closeAfterwards()
+		{
+			gClose = true;
+		}
+	}
+
+	MockServer(Responder pResponder)
+		throws IOException
+	{
+		this(pResponder, null);
+	}
+
+	/**
+	 * @param pTls If not null, the server speaks HTTPS with this context's certificate
+	 */
+	MockServer(Responder pResponder, SSLContext pTls)
+		throws IOException
+	{
+		this.gResponder = pResponder;
+		this.gServer = null == pTls ? new ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+			: pTls.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		Thread t = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				accept();
+			}
+		}, "MockServer");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	int getPort()
+	{
+		return(gServer.getLocalPort());
+	}
+
+	/**
+	 * The number of connections which have been accepted
+	 */
+	int getConnections()
+	{
+		return(gConnections.get());
+	}
+
+	/**
+	 * Every request so far, oldest first
+	 */
+	List<Request> getRequests()
+	{
+		synchronized(gRequests)
+		{
+			return(new ArrayList<Request>(gRequests));
+		}
+	}
+
+	/**
+	 * Convenience for a complete response with a Content-Length
+	 */
+	static void write(OutputStream pOut, int pCode, String pBody, String... pHeaders)
+		throws IOException
+	{
+		byte[] arrBody = pBody.getBytes(StandardCharsets.UTF_8);
+		StringBuilder sb = new StringBuilder();
+		sb.append("HTTP/1.1 ").append(pCode).append(" X\r\n");
+		for(String sHeader : pHeaders)
+		{
+			sb.append(sHeader).append("\r\n");
+		}
+		sb.append("Content-Length: ").append(arrBody.length).append("\r\n\r\n");
+		pOut.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+		pOut.write(arrBody);
+		pOut.flush();
+	}
+
+	/**
+	 * Convenience for writing raw text, such as part of a response
+	 */
+	static void write(OutputStream pOut, String pRaw)
+		throws IOException
+	{
+		pOut.write(pRaw.getBytes(StandardCharsets.ISO_8859_1));
+		pOut.flush();
+	}
+
+	@Override
+	public void close()
+		throws IOException
+	{
+		gServer.close();
+		synchronized(gSockets)
+		{
+			for(Socket s : gSockets)
+			{
+				s.close();
+			}
+		}
+	}
+
+	private void accept()
+	{
+		try
+		{
+			while(true)
+			{
+				final Socket s = gServer.accept();
+				final int iConnection = gConnections.incrementAndGet();
+				gSockets.add(s);
+
+				Thread t = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						serve(s, iConnection);
+					}
+				}, "MockServer-" + iConnection);
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+		catch(IOException iox)
+		{
+			// Closed
+		}
+	}
+
+	private void serve(Socket pSocket, int pConnection)
+	{
+		try
+		{
+			InputStream is = new BufferedInputStream(pSocket.getInputStream());
+			OutputStream os = new BufferedOutputStream(pSocket.getOutputStream());
+
+			String sLine;
+			while(null != (sLine = readLine(is)))
+			{
+				TreeMap<String,String> tmHeaders = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+				String sHeader;
+				while(null != (sHeader = readLine(is)) && !sHeader.isEmpty())
+				{
+					int iColon = sHeader.indexOf(':');
+					tmHeaders.put(sHeader.substring(0, iColon).trim(), sHeader.substring(iColon + 1).trim());
+				}
+
+				Request r = new Request(sLine, tmHeaders, pConnection);
+				gRequests.add(r);
+				gResponder.respond(r, os);
+				os.flush();
+
+				if(r.gClose)
+				{
+					break;
+				}
+			}
+		}
+		catch(Exception e)
+		{
+			// The client went away, or the test is over
+		}
+		finally
+		{
+			try
+			{
+				pSocket.close();
+			}
+			catch(IOException iox) {}
+		}
+	}
+
+	private static String readLine(InputStream pIn)
+		throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while(-1 != (c = pIn.read()))
+		{
+			if('\n' == c)
+			{
+				return(sb.toString().replaceAll("\r$", ""));
+			}
+			sb.append((char) c);
+		}
+		return(0 == sb.length() ? null : sb.toString());
+	}
+}
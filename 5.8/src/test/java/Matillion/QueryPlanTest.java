@@ -0,0 +1,163 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import static org.junit.Assert.*;
+
+import java.sql.*;
+
+import org.junit.*;
+
+/**
+ * Which predicates of a WHERE clause a {@link QueryPlan} uses to prune the walk of the hierarchy, and which columns it selects
+ */
+public class QueryPlanTest
+{
+	@Test
+	public void equalityPredicatesFilterByPosition()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"job\" WHERE \"groupname\" = 'Sales' AND \"versionname\" = 'default'");
+
+		assertEquals("job", qp.getTable());
+		assertTrue(qp.accepts(new String[] {"Sales"}));
+		assertFalse(qp.accepts(new String[] {"Finance"}));
+		assertTrue(qp.accepts(new String[] {"Sales", "Orders", "default", "Load"}));
+		assertFalse(qp.accepts(new String[] {"Sales", "Orders", "v2", "Load"}));
+		assertTrue(qp.hasFilterFrom(2));
+		assertFalse(qp.hasFilterFrom(3));
+	}
+
+	@Test
+	public void anOrDisablesEveryFilter()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"project\" WHERE \"groupname\" = 'Sales' AND \"projectname\" = 'Orders' OR \"projectname\" = 'Returns'");
+
+		assertTrue(qp.accepts(new String[] {"Finance", "Ledger"}));
+		assertFalse(qp.hasFilterFrom(0));
+	}
+
+	@Test
+	public void anOrInsideParenthesesOnlyLosesThatCondition()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"project\" WHERE \"groupname\" = 'Sales' AND (\"projectname\" = 'Orders' OR \"projectname\" = 'Returns')");
+
+		assertFalse(qp.accepts(new String[] {"Finance", "Orders"}));
+		assertTrue(qp.accepts(new String[] {"Sales", "Ledger"}));
+		assertFalse(qp.hasFilterFrom(1));
+	}
+
+	@Test
+	public void inListsAcceptAnyOfTheirValues()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"version\" WHERE \"projectname\" IN ('Orders', 'Returns')");
+
+		assertTrue(qp.accepts(new String[] {"Sales", "Orders"}));
+		assertTrue(qp.accepts(new String[] {"Sales", "Returns"}));
+		assertFalse(qp.accepts(new String[] {"Sales", "Ledger"}));
+		assertTrue(qp.accepts(new String[] {"Sales"}));
+	}
+
+	@Test
+	public void anInListWithOtherThanStringsIsIgnored()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"version\" WHERE \"projectname\" IN ('Orders', 42)");
+
+		assertFalse(qp.hasFilterFrom(0));
+	}
+
+	@Test
+	public void repeatedPredicatesAreIntersected()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"version\" WHERE \"projectname\" IN ('Orders', 'Returns') AND \"projectname\" IN ('Returns', 'Ledger')");
+
+		assertTrue(qp.accepts(new String[] {"Sales", "Returns"}));
+		assertFalse(qp.accepts(new String[] {"Sales", "Orders"}));
+		assertFalse(qp.accepts(new String[] {"Sales", "Ledger"}));
+
+		// Contradictory predicates leave nothing to accept
+		qp = QueryPlan.parse("SELECT * FROM \"group\" WHERE \"groupname\" = 'Sales' AND \"groupname\" = 'Finance'");
+		assertFalse(qp.accepts(new String[] {"Sales"}));
+		assertFalse(qp.accepts(new String[] {"Finance"}));
+	}
+
+	@Test
+	public void aliasesAreSkipped()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT j.\"jobname\" FROM \"METL\".\"job\" AS j WHERE j.\"groupname\" = 'Sales'");
+
+		assertEquals("job", qp.getTable());
+		assertArrayEquals(new String[] {"jobname"}, qp.getColumns());
+		assertFalse(qp.accepts(new String[] {"Finance"}));
+
+		qp = QueryPlan.parse("SELECT * FROM \"job\" j WHERE j.\"groupname\" = 'Sales'");
+		assertFalse(qp.accepts(new String[] {"Finance"}));
+		assertTrue(qp.accepts(new String[] {"Sales"}));
+	}
+
+	@Test
+	public void quotesAreUnescapedAndNamesFolded()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"project\" WHERE \"GroupName\" = 'O''Brien' AND \"odd\"\"name\" = 'x'");
+
+		assertTrue(qp.accepts(new String[] {"O'Brien", "Orders"}));
+		assertFalse(qp.accepts(new String[] {"O''Brien", "Orders"}));
+		assertFalse(qp.hasFilterFrom(1));
+	}
+
+	@Test
+	public void predicatesInsideACountSubqueryAreUsed()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT COUNT(*) FROM (SELECT * FROM \"job\" WHERE \"groupname\" = 'Sales' LIMIT 10) t");
+
+		assertTrue(qp.isCount());
+		assertNull(qp.getRowLimit());
+		assertEquals("job", qp.getTable());
+		assertFalse(qp.accepts(new String[] {"Finance"}));
+		assertTrue(qp.accepts(new String[] {"Sales"}));
+	}
+
+	@Test
+	public void nonHierarchyPredicatesAreIgnored()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT * FROM \"job\" WHERE \"jobname\" = 'Load' AND \"groupname\" LIKE 'S%' AND \"projectname\" = 'Orders'");
+
+		assertTrue(qp.accepts(new String[] {"Finance", "Orders", "default", "Extract"}));
+		assertFalse(qp.accepts(new String[] {"Finance", "Ledger"}));
+		assertTrue(qp.hasFilterFrom(1));
+		assertFalse(qp.hasFilterFrom(2));
+	}
+
+	@Test
+	public void anUnknownColumnSelectsEveryColumn()
+		throws SQLException
+	{
+		QueryPlan qp = QueryPlan.parse("SELECT \"jobname\", \"nosuchcolumn\" FROM \"job\"");
+
+		assertArrayEquals(new String[] {"groupname", "projectname", "versionname", "jobname"}, qp.getColumns());
+		assertArrayEquals(new int[] {0, 1, 2, 3}, qp.getProjection());
+
+		qp = QueryPlan.parse("SELECT \"jobname\", \"groupname\" FROM \"job\"");
+		assertArrayEquals(new String[] {"jobname", "groupname"}, qp.getColumns());
+		assertArrayEquals(new int[] {3, 0}, qp.getProjection());
+	}
+
+	@Test(expected = SQLException.class)
+	public void anUnknownTableIsASyntaxError()
+		throws SQLException
+	{
+		QueryPlan.parse("SELECT * FROM \"nosuchtable\"");
+	}
+}
@@ -0,0 +1,220 @@
+// (c) 2021 Ian Funnell Matillion Ltd
+// https://www.matillion.com/
+// https://github.com/MatillionDeveloper/JDBC-driver
+// This code is licensed under the MIT license (see LICENSE.txt for details)
+
+package com.thereisnogravity;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+
+import com.google.gson.stream.*;
+
+/**
+ * Revalidation of REST API listings through the {@link ResponseCache}, against a {@link MockServer} which sends ETag, Last-Modified or neither
+ */
+public class ResponseCacheTest
+{
+	private final static String ETAG = "\"v1\"";
+	private final static String LAST_MODIFIED = "Tue, 13 Oct 2026 10:00:00 GMT";
+
+	private static MockServer gServer;
+
+	// What /rest/v1/plain/... returns, which a test can change
+	private static volatile String gPlainBody = "[\"a\",\"b\"]";
+
+	@BeforeClass
+	public static void startServer()
+		throws IOException
+	{
+		gServer = new MockServer(new MockServer.Responder()
+		{
+			@Override
+			public void respond(MockServer.Request pRequest, OutputStream pOut)
+				throws IOException
+			{
+				String sPath = pRequest.getPath();
+				if(sPath.startsWith("/rest/v1/etag"))
+				{
+					if(ETAG.equals(pRequest.getHeader("If-None-Match")))
+					{
+						MockServer.write(pOut, "HTTP/1.1 304 Not Modified\r\nETag: " + ETAG + "\r\n\r\n");
+						return;
+					}
+					MockServer.write(pOut, 200, "[\"a\",\"b\"]", "ETag: " + ETAG);
+				}
+				else if(sPath.startsWith("/rest/v1/lastmod"))
+				{
+					if(LAST_MODIFIED.equals(pRequest.getHeader("If-Modified-Since")))
+					{
+						MockServer.write(pOut, "HTTP/1.1 304 Not Modified\r\n\r\n");
+						return;
+					}
+					MockServer.write(pOut, 200, "[\"a\",\"b\"]", "Last-Modified: " + LAST_MODIFIED);
+				}
+				else
+				{
+					MockServer.write(pOut, 200, gPlainBody);
+				}
+			}
+		});
+
+		HttpHelper.useEndpoint(false, gServer.getPort());
+		ResponseCache.getInstance().configure(100);
+	}
+
+	@AfterClass
+	public static void stopServer()
+		throws IOException
+	{
+		gServer.close();
+	}
+
+	@Test
+	public void etagIsSentBackAndNotModifiedIsAnsweredFromTheCache()
+		throws Exception
+	{
+		long lNotModified = ResponseCache.getInstance().getNotModified();
+
+		Names n1 = get("u", "p", "etag/1");
+		Names n2 = get("u", "p", "etag/1");
+
+		List<MockServer.Request> lRequests = requestsFor("/rest/v1/etag/1");
+		assertEquals(2, lRequests.size());
+		assertNull(lRequests.get(0).getHeader("If-None-Match"));
+		assertEquals(ETAG, lRequests.get(1).getHeader("If-None-Match"));
+
+		assertEquals(Arrays.asList("a", "b"), n1.getResult());
+		assertEquals(n1.getResult(), n2.getResult());
+		assertEquals("The body is only parsed once", 1, n1.gParsed + n2.gParsed);
+		assertEquals(lNotModified + 1, ResponseCache.getInstance().getNotModified());
+	}
+
+	@Test
+	public void lastModifiedIsSentBackAndNotModifiedIsAnsweredFromTheCache()
+		throws Exception
+	{
+		long lNotModified = ResponseCache.getInstance().getNotModified();
+
+		Names n1 = get("u", "p", "lastmod/1");
+		Names n2 = get("u", "p", "lastmod/1");
+
+		List<MockServer.Request> lRequests = requestsFor("/rest/v1/lastmod/1");
+		assertEquals(2, lRequests.size());
+		assertNull(lRequests.get(0).getHeader("If-Modified-Since"));
+		assertEquals(LAST_MODIFIED, lRequests.get(1).getHeader("If-Modified-Since"));
+
+		assertEquals(Arrays.asList("a", "b"), n2.getResult());
+		assertEquals(1, n1.gParsed + n2.gParsed);
+		assertEquals(lNotModified + 1, ResponseCache.getInstance().getNotModified());
+	}
+
+	@Test
+	public void withoutValidatorsAnUnchangedBodyIsRecognisedByItsHash()
+		throws Exception
+	{
+		long lUnchanged = ResponseCache.getInstance().getUnchanged();
+		gPlainBody = "[\"a\",\"b\"]";
+
+		Names n1 = get("u", "p", "plain/1");
+		Names n2 = get("u", "p", "plain/1");
+
+		// Streamed to the handler each time, since there's no way to avoid reading it
+		assertNull(requestsFor("/rest/v1/plain/1").get(1).getHeader("If-None-Match"));
+		assertEquals(Arrays.asList("a", "b"), n2.getResult());
+		assertEquals(2, n1.gParsed + n2.gParsed);
+		assertEquals(lUnchanged + 1, ResponseCache.getInstance().getUnchanged());
+
+		// A changed body is noticed
+		gPlainBody = "[\"a\",\"b\",\"c\"]";
+		Names n3 = get("u", "p", "plain/1");
+
+		assertEquals(Arrays.asList("a", "b", "c"), n3.getResult());
+		assertEquals(lUnchanged + 1, ResponseCache.getInstance().getUnchanged());
+	}
+
+	@Test
+	public void onlyBodiesWhichCanBeRevalidatedAreKept()
+	{
+		ResponseCache rc = ResponseCache.getInstance();
+		byte[] arrBody = "[]".getBytes();
+
+		assertNull(rc.put("keep/1", null, null, null, arrBody, ResponseCache.hash(arrBody)).getBody());
+		assertArrayEquals(arrBody, rc.put("keep/2", null, ETAG, null, arrBody, ResponseCache.hash(arrBody)).getBody());
+		assertArrayEquals(arrBody, rc.put("keep/3", null, null, LAST_MODIFIED, arrBody, ResponseCache.hash(arrBody)).getBody());
+	}
+
+	@Test
+	public void otherCredentialsDontShareAnEntry()
+		throws Exception
+	{
+		get("u", "p", "etag/2");
+		Names n2 = get("u", "other", "etag/2");
+
+		List<MockServer.Request> lRequests = requestsFor("/rest/v1/etag/2");
+		assertNull(lRequests.get(1).getHeader("If-None-Match"));
+		assertEquals(1, n2.gParsed);
+	}
+
+	private static Names get(String sUser, String sPassword, String pPath)
+		throws Exception
+	{
+		Names n = new Names();
+		HttpHelper u = new HttpHelper(sUser, sPassword, pPath, n);
+		assertEquals(200, u.getCode());
+		return(n);
+	}
+
+	private static List<MockServer.Request> requestsFor(String pPath)
+	{
+		List<MockServer.Request> lRet = new ArrayList<MockServer.Request>();
+		for(MockServer.Request r : gServer.getRequests())
+		{
+			if(r.getPath().equals(pPath))
+			{
+				lRet.add(r);
+			}
+		}
+		return(lRet);
+	}
+
+	// Reads a JSON array of names, counting how many times it actually parsed one
+	private static class Names
+		implements HttpHelper.ReusableHandler
+	{
+		private List<String> gNames;
+		private int gParsed = 0;
+
+		@Override
+		public void handle(JsonReader pReader)
+			throws IOException
+		{
+			gParsed++;
+			gNames = new ArrayList<String>();
+			pReader.beginArray();
+			while(pReader.hasNext())
+			{
+				gNames.add(pReader.nextString());
+			}
+			pReader.endArray();
+		}
+
+		@Override
+		public Object getResult()
+		{
+			return(gNames);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void reuse(Object pResult)
+		{
+			gNames = (List<String>)pResult;
+		}
+	}
+}